@@ -0,0 +1,31 @@
+package org.javaportability.bench;
+
+/**
+ * Something to be timed by {@link BenchmarkRunner}.
+ */
+public abstract class Benchmark {
+    private final String name;
+    
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Prepares for {@link #run()}. Not timed.
+     */
+    public void setUp() throws Exception {
+    }
+    
+    /**
+     * Performs one operation.
+     * Returns something that depends on the work done, so the JIT can't skip it.
+     */
+    public abstract Object run() throws Exception;
+    
+    public void tearDown() throws Exception {
+    }
+}
@@ -0,0 +1,124 @@
+package org.javaportability.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks and prints the average time per operation.
+ *
+ * Usage: BenchmarkRunner [-w warmups] [-i iterations] [-t millis] [-f fixturedir] [filter...]
+ *
+ * Each benchmark whose name contains one of the filters (or every benchmark if there are none)
+ * is warmed up and then measured for a number of iterations of about the given length.
+ * Fixtures are generated into the fixture directory the first time they are needed.
+ */
+public class BenchmarkRunner {
+    
+    public static volatile int sink; // Results go here so they aren't optimized away
+    
+    private int warmupIterations = 5;
+    private int measurementIterations = 10;
+    private long iterationMillis = 1000;
+    private File fixtureDir = new File("target/bench/fixtures");
+    private List<String> filters = new ArrayList<String>();
+    
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.parseArgs(args);
+        runner.runAll();
+    }
+    
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-w")) {
+                warmupIterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-i")) {
+                measurementIterations = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-t")) {
+                iterationMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-f")) {
+                fixtureDir = new File(args[++i]);
+            } else {
+                filters.add(args[i]);
+            }
+        }
+    }
+    
+    private List<Benchmark> getBenchmarks() throws Exception {
+        Fixtures fixtures = new Fixtures(fixtureDir);
+        List<Benchmark> all = new ArrayList<Benchmark>();
+        all.addAll(LoadingBenchmarks.create(fixtures));
+        all.addAll(GraphBuildingBenchmarks.create(fixtures));
+        all.addAll(NodeSetBenchmarks.create(fixtures));
+        all.addAll(MethodPathBenchmarks.create());
+        all.addAll(StrictfpAnalysisBenchmarks.create());
+        
+        if (filters.isEmpty()) {
+            return all;
+        }
+        List<Benchmark> selected = new ArrayList<Benchmark>();
+        for (Benchmark b : all) {
+            for (String filter : filters) {
+                if (b.getName().contains(filter)) {
+                    selected.add(b);
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+    
+    private void runAll() throws Exception {
+        System.out.println("Java " + System.getProperty("java.version") + ", " + Runtime.getRuntime().availableProcessors() + " processors");
+        System.out.println(String.format("%-45s %12s %10s %8s", "Benchmark", "ms/op", "error", "ops"));
+        for (Benchmark b : getBenchmarks()) {
+            b.setUp();
+            try {
+                for (int i = 0; i < warmupIterations; ++i) {
+                    runIteration(b);
+                }
+                double[] samples = new double[measurementIterations];
+                long totalOps = 0;
+                for (int i = 0; i < measurementIterations; ++i) {
+                    long[] opsAndNanos = runIteration(b);
+                    totalOps += opsAndNanos[0];
+                    samples[i] = opsAndNanos[1] / 1e6 / opsAndNanos[0];
+                }
+                report(b.getName(), samples, totalOps);
+            } finally {
+                b.tearDown();
+            }
+        }
+    }
+    
+    /**
+     * Runs operations until the iteration time is up. Returns the number of operations and the time taken.
+     */
+    private long[] runIteration(Benchmark b) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1000000L;
+        long start = System.nanoTime();
+        long ops = 0;
+        long now;
+        do {
+            sink ^= System.identityHashCode(b.run());
+            ++ops;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new long[] { ops, now - start };
+    }
+    
+    private void report(String name, double[] samples, long totalOps) {
+        double mean = 0;
+        for (double s : samples) {
+            mean += s;
+        }
+        mean /= samples.length;
+        double variance = 0;
+        for (double s : samples) {
+            variance += (s - mean) * (s - mean);
+        }
+        double error = samples.length > 1 ? Math.sqrt(variance / (samples.length - 1)) : 0;
+        System.out.println(String.format("%-45s %12.4f %10.4f %8d", name, mean, error, totalOps));
+    }
+}
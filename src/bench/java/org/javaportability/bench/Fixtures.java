@@ -0,0 +1,197 @@
+package org.javaportability.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.javaportability.misc.MethodPath;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generates the inputs of the benchmarks from fixed seeds, so every run sees the same data
+ * and nothing needs to be downloaded.
+ *
+ * Class files are written under the fixture directory once and reused afterwards.
+ */
+public class Fixtures {
+    
+    public static final int PACKAGES = 20;
+    public static final int CLASSES_PER_PACKAGE = 50;
+    public static final int METHODS_PER_CLASS = 10;
+    public static final int CALLS_PER_METHOD = 3;
+    private static final long SEED = 20111003L;
+    private static final String VERSION = "1"; // Bump when the generated classes change
+    
+    private File baseDir;
+    
+    public Fixtures(File baseDir) {
+        this.baseDir = baseDir;
+    }
+    
+    public static String className(int pkg, int cls) {
+        return "bench/p" + pkg + "/C" + cls;
+    }
+    
+    public static List<String> getClassNames() {
+        List<String> names = new ArrayList<String>();
+        for (int p = 0; p < PACKAGES; ++p) {
+            for (int c = 0; c < CLASSES_PER_PACKAGE; ++c) {
+                names.add(className(p, c));
+            }
+        }
+        return names;
+    }
+    
+    public File getClassDir() throws IOException {
+        ensureGenerated();
+        return new File(getVersionDir(), "classes");
+    }
+    
+    public File getDeflatedJar() throws IOException {
+        ensureGenerated();
+        return new File(getVersionDir(), "classes.jar");
+    }
+    
+    public File getStoredJar() throws IOException {
+        ensureGenerated();
+        return new File(getVersionDir(), "classes-stored.jar");
+    }
+    
+    private File getVersionDir() {
+        return new File(baseDir, "v" + VERSION);
+    }
+    
+    private void ensureGenerated() throws IOException {
+        File done = new File(getVersionDir(), "complete");
+        if (done.exists()) {
+            return;
+        }
+        getVersionDir().mkdirs();
+        File classDir = new File(getVersionDir(), "classes");
+        JarOutputStream deflated = new JarOutputStream(new FileOutputStream(new File(getVersionDir(), "classes.jar")));
+        JarOutputStream stored = null;
+        try {
+            stored = new JarOutputStream(new FileOutputStream(new File(getVersionDir(), "classes-stored.jar")));
+            Random random = new Random(SEED);
+            for (int p = 0; p < PACKAGES; ++p) {
+                for (int c = 0; c < CLASSES_PER_PACKAGE; ++c) {
+                    String name = className(p, c);
+                    byte[] bytes = generateClass(name, random);
+                    File file = new File(classDir, name + ".class");
+                    writeFile(file, bytes);
+                    addJarEntry(deflated, name + ".class", bytes, false);
+                    addJarEntry(stored, name + ".class", bytes, true);
+                }
+            }
+        } finally {
+            deflated.close();
+            if (stored != null) {
+                stored.close();
+            }
+        }
+        done.createNewFile();
+    }
+    
+    /**
+     * A class with static methods m0..mN, each calling a few random methods of random classes.
+     * Some classes are strictfp and some methods do floating point math.
+     */
+    private static byte[] generateClass(String name, Random random) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        int classAccess = Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER;
+        boolean isStrictfp = random.nextInt(4) == 0;
+        cw.visit(Opcodes.V1_6, classAccess, name, null, "java/lang/Object", null);
+        for (int m = 0; m < METHODS_PER_CLASS; ++m) {
+            int access = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | (isStrictfp ? Opcodes.ACC_STRICT : 0);
+            MethodVisitor mv = cw.visitMethod(access, "m" + m, "()V", null, null);
+            mv.visitCode();
+            for (int i = 0; i < CALLS_PER_METHOD; ++i) {
+                String owner = className(random.nextInt(PACKAGES), random.nextInt(CLASSES_PER_PACKAGE));
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "m" + random.nextInt(METHODS_PER_CLASS), "()V");
+            }
+            if (random.nextInt(10) == 0) {
+                mv.visitInsn(Opcodes.DCONST_1);
+                mv.visitInsn(Opcodes.DCONST_1);
+                mv.visitInsn(Opcodes.DADD);
+                mv.visitInsn(Opcodes.POP2);
+            }
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+    
+    private static void writeFile(File file, byte[] bytes) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+    
+    private static void addJarEntry(JarOutputStream jar, String path, byte[] bytes, boolean store) throws IOException {
+        JarEntry entry = new JarEntry(path);
+        entry.setTime(0);
+        if (store) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+        jar.putNextEntry(entry);
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+    
+    /**
+     * Config file style patterns: some exact classes and methods, many package prefixes,
+     * and a few with wildcards at the front or in the middle.
+     */
+    public static List<String> generatePatterns(int count) {
+        Random random = new Random(SEED);
+        List<String> patterns = new ArrayList<String>();
+        for (int i = 0; i < count; ++i) {
+            int kind = random.nextInt(10);
+            String pkg = "com.example" + random.nextInt(100) + ".sub" + random.nextInt(100);
+            if (kind < 4) {
+                patterns.add(pkg + ".*");
+            } else if (kind < 7) {
+                patterns.add(pkg + ".Class" + random.nextInt(1000));
+            } else if (kind < 9) {
+                patterns.add(pkg + ".Class" + random.nextInt(1000) + "::method" + random.nextInt(10));
+            } else {
+                patterns.add("*.Generated" + random.nextInt(1000) + "*");
+            }
+        }
+        return patterns;
+    }
+    
+    /**
+     * Methods for looking up in node sets. Roughly half of them are in packages the patterns mention.
+     */
+    public static List<MethodPath> generateLookups(int count) {
+        Random random = new Random(SEED + 1);
+        List<MethodPath> lookups = new ArrayList<MethodPath>();
+        for (int i = 0; i < count; ++i) {
+            String root = random.nextBoolean() ? "com/example" : "org/other";
+            String owner = root + random.nextInt(100) + "/sub" + random.nextInt(100) + "/Class" + random.nextInt(1000);
+            lookups.add(new MethodPath(owner, "method" + random.nextInt(10), "()V"));
+        }
+        return lookups;
+    }
+}
@@ -0,0 +1,66 @@
+package org.javaportability.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.callgraph.CallGraphBuilder;
+import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.nodeset.WildcardNodeSet;
+import org.javaportability.loaders.ClassFileLoader;
+import org.javaportability.loaders.DefaultClassFileLoader;
+import org.javaportability.loaders.IndexedClassPathClassFileLoader;
+
+/**
+ * Builds call graphs from scratch, from a standard library root and from the generated classes.
+ *
+ * The standard library graph depends on the JRE running the benchmark,
+ * so only compare its numbers between runs on the same JRE.
+ */
+public class GraphBuildingBenchmarks {
+    
+    private static class Build extends Benchmark {
+        private final Root root;
+        private final int threads;
+        private final ClassFileLoader loader;
+        private final String ignored;
+        
+        public Build(String name, ClassFileLoader loader, String ignored, Root root, int threads) {
+            super(name);
+            this.loader = loader;
+            this.ignored = ignored;
+            this.root = root;
+            this.threads = threads;
+        }
+        
+        @Override
+        public Object run() throws Exception {
+            AnalysisSettings settings = new AnalysisSettings(loader);
+            settings.ignoreSet = new WildcardNodeSet(ignored);
+            CallGraphBuilder builder = new CallGraphBuilder(settings);
+            builder.setDiscoveryThreads(threads);
+            builder.addRoot(root);
+            return builder.getResult().callGraph.getMethodCount();
+        }
+    }
+    
+    public static List<Benchmark> create(Fixtures fixtures) throws IOException {
+        ClassFileLoader jre = new DefaultClassFileLoader();
+        Root arrayList = new Root("java/util/ArrayList");
+        ClassFileLoader generated = new IndexedClassPathClassFileLoader(new String[] { fixtures.getClassDir().getPath() });
+        Root generatedRoot = new Root(Fixtures.className(0, 0));
+        
+        // Signature polymorphic methods can't be resolved by name and type.
+        String jreIgnored = "java.lang.invoke.*";
+        // The generated classes are alone on their class path.
+        String generatedIgnored = "java.*";
+        
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new Build("building.javaUtilArrayList.1thread", jre, jreIgnored, arrayList, 1));
+        result.add(new Build("building.javaUtilArrayList.4threads", jre, jreIgnored, arrayList, 4));
+        result.add(new Build("building.generated.1thread", generated, generatedIgnored, generatedRoot, 1));
+        result.add(new Build("building.generated.4threads", generated, generatedIgnored, generatedRoot, 4));
+        return result;
+    }
+}
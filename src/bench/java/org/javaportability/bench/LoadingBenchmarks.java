@@ -0,0 +1,107 @@
+package org.javaportability.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javaportability.loaders.CachingClassFileLoader;
+import org.javaportability.loaders.ClassFileLoader;
+import org.javaportability.loaders.ClassPathClassFileLoader;
+import org.javaportability.loaders.IndexedClassPathClassFileLoader;
+
+/**
+ * Loads every generated class through each kind of class file loader.
+ */
+public class LoadingBenchmarks {
+    
+    private static abstract class LoadAll extends Benchmark {
+        protected final File location;
+        private ClassFileLoader loader;
+        private List<String> classNames;
+        
+        public LoadAll(String name, File location) {
+            super(name);
+            this.location = location;
+        }
+        
+        protected abstract ClassFileLoader makeLoader() throws IOException;
+        
+        @Override
+        public void setUp() throws Exception {
+            loader = makeLoader();
+            classNames = Fixtures.getClassNames();
+        }
+        
+        @Override
+        public Object run() throws Exception {
+            int total = 0;
+            for (String name : classNames) {
+                total += loader.loadClass(name).b.length;
+            }
+            return total;
+        }
+    }
+    
+    private static class LoadAllFromClassPath extends LoadAll {
+        public LoadAllFromClassPath(String name, File location) {
+            super(name, location);
+        }
+        
+        @Override
+        protected ClassFileLoader makeLoader() {
+            return new ClassPathClassFileLoader(new String[] { location.getPath() });
+        }
+    }
+    
+    private static class LoadAllFromIndex extends LoadAll {
+        public LoadAllFromIndex(String name, File location) {
+            super(name, location);
+        }
+        
+        @Override
+        protected ClassFileLoader makeLoader() throws IOException {
+            return new IndexedClassPathClassFileLoader(new String[] { location.getPath() });
+        }
+    }
+    
+    /**
+     * Once warmed up, every class comes from the cache.
+     */
+    private static class LoadAllFromCache extends LoadAll {
+        public LoadAllFromCache(String name, File location) {
+            super(name, location);
+        }
+        
+        @Override
+        protected ClassFileLoader makeLoader() throws IOException {
+            ClassFileLoader indexed = new IndexedClassPathClassFileLoader(new String[] { location.getPath() });
+            return new CachingClassFileLoader(indexed, Long.MAX_VALUE);
+        }
+    }
+    
+    public static List<Benchmark> create(final Fixtures fixtures) throws IOException {
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new LoadAllFromClassPath("loading.classPath.directory", fixtures.getClassDir()));
+        result.add(new LoadAllFromClassPath("loading.classPath.deflatedJar", fixtures.getDeflatedJar()));
+        result.add(new LoadAllFromClassPath("loading.classPath.storedJar", fixtures.getStoredJar()));
+        result.add(new LoadAllFromIndex("loading.indexed.directory", fixtures.getClassDir()));
+        result.add(new LoadAllFromIndex("loading.indexed.deflatedJar", fixtures.getDeflatedJar()));
+        result.add(new LoadAllFromIndex("loading.indexed.storedJar", fixtures.getStoredJar()));
+        result.add(new LoadAllFromCache("loading.cached.deflatedJar", fixtures.getDeflatedJar()));
+        result.add(new Benchmark("loading.indexed.indexDirectory") {
+            private String[] searchPath;
+            
+            @Override
+            public void setUp() throws Exception {
+                searchPath = new String[] { fixtures.getClassDir().getPath() };
+            }
+            
+            @Override
+            public Object run() throws Exception {
+                return new IndexedClassPathClassFileLoader(searchPath).getClassCount();
+            }
+        });
+        return result;
+    }
+}
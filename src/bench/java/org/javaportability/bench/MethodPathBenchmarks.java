@@ -0,0 +1,168 @@
+package org.javaportability.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.callgraph.CallGraph;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.CallGraphBuilder;
+import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.nodeset.SimpleNodeSet;
+import org.javaportability.callgraph.nodeset.WildcardNodeSet;
+import org.javaportability.loaders.DefaultClassFileLoader;
+import org.javaportability.misc.MethodPath;
+
+/**
+ * Hashes and compares the paths of every method in a standard library call graph,
+ * where names like {@code <init>}, {@code get} and {@code equals} repeat across many classes.
+ *
+ * The time per lookup should stay the same whether a set holds a few or all of the methods.
+ */
+public class MethodPathBenchmarks {
+
+    private static final int LOOKUPS = 10000;
+    private static final int SMALL = 1000;
+
+    private static List<MethodPath> jrePaths;
+
+    /**
+     * The paths of all methods reachable from java.util.ArrayList, in a fixed random order.
+     */
+    private static synchronized List<MethodPath> getJrePaths() throws Exception {
+        if (jrePaths == null) {
+            AnalysisSettings settings = new AnalysisSettings(new DefaultClassFileLoader());
+            settings.ignoreSet = new WildcardNodeSet("java.lang.invoke.*");
+            CallGraphBuilder builder = new CallGraphBuilder(settings);
+            builder.addRoot(new Root("java/util/ArrayList"));
+            CallGraph cg = builder.getResult().callGraph;
+            List<MethodPath> paths = new ArrayList<MethodPath>();
+            for (int i = 0; i < cg.getMethodCount(); ++i) {
+                paths.add(cg.getMethodById(i).getPath());
+            }
+            Collections.shuffle(paths, new Random(1));
+            jrePaths = paths;
+        }
+        return jrePaths;
+    }
+
+    /**
+     * Equal but separate instances of some of the paths, so lookups can't succeed by identity alone.
+     */
+    private static List<MethodPath> copies(List<MethodPath> paths, int count) {
+        List<MethodPath> result = new ArrayList<MethodPath>(count);
+        for (int i = 0; i < count; ++i) {
+            MethodPath p = paths.get(i % paths.size());
+            result.add(new MethodPath(new String(p.getOwner()), new String(p.getName()), new String(p.getDesc())));
+        }
+        return result;
+    }
+
+    private static int sizeOf(int size) throws Exception {
+        return (size > 0) ? size : getJrePaths().size();
+    }
+
+    private static String sizeName(int size) {
+        return (size > 0) ? size + "methods" : "allMethods";
+    }
+
+    private static class SimpleNodeSetLookup extends Benchmark {
+        private final int size;
+        private SimpleNodeSet set;
+        private List<MethodPath> lookups;
+
+        public SimpleNodeSetLookup(int size) {
+            super("methodpath.simpleNodeSet." + sizeName(size));
+            this.size = size;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            List<MethodPath> members = getJrePaths().subList(0, sizeOf(size));
+            set = new SimpleNodeSet();
+            for (MethodPath p : members) {
+                set.addMethod(p);
+            }
+            lookups = copies(members, LOOKUPS);
+        }
+
+        @Override
+        public Object run() throws Exception {
+            int found = 0;
+            for (int i = 0; i < lookups.size(); ++i) {
+                if (set.containsMethod(lookups.get(i))) {
+                    ++found;
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Like the builder looking up which method a callee resolves to.
+     */
+    private static class ResolvedMethodLookup extends Benchmark {
+        private final int size;
+        private HashMap<MethodPath, MethodNode> map;
+        private List<MethodPath> lookups;
+
+        public ResolvedMethodLookup(int size) {
+            super("methodpath.resolvedMethods." + sizeName(size));
+            this.size = size;
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            List<MethodPath> members = getJrePaths().subList(0, sizeOf(size));
+            map = new HashMap<MethodPath, MethodNode>();
+            for (MethodPath p : members) {
+                map.put(p, null);
+            }
+            lookups = copies(members, LOOKUPS);
+        }
+
+        @Override
+        public Object run() throws Exception {
+            int found = 0;
+            for (int i = 0; i < lookups.size(); ++i) {
+                if (map.containsKey(lookups.get(i))) {
+                    ++found;
+                }
+            }
+            return found;
+        }
+    }
+
+    private static class Sort extends Benchmark {
+        private List<MethodPath> paths;
+
+        public Sort() {
+            super("methodpath.sort.allMethods");
+        }
+
+        @Override
+        public void setUp() throws Exception {
+            paths = getJrePaths();
+        }
+
+        @Override
+        public Object run() throws Exception {
+            List<MethodPath> sorted = new ArrayList<MethodPath>(paths);
+            Collections.sort(sorted);
+            return sorted.get(0);
+        }
+    }
+
+    public static List<Benchmark> create() {
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new SimpleNodeSetLookup(SMALL));
+        result.add(new SimpleNodeSetLookup(0));
+        result.add(new ResolvedMethodLookup(SMALL));
+        result.add(new ResolvedMethodLookup(0));
+        result.add(new Sort());
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package org.javaportability.bench;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.app.ConfigFileLoader;
+import org.javaportability.app.Settings;
+import org.javaportability.callgraph.nodeset.NodeSet;
+import org.javaportability.misc.MethodPath;
+
+/**
+ * Looks up methods in ignore sets loaded from large generated config files.
+ */
+public class NodeSetBenchmarks {
+    
+    private static final int LOOKUPS = 10000;
+    
+    private static class Lookup extends Benchmark {
+        private final int ruleCount;
+        private NodeSet set;
+        private List<MethodPath> lookups;
+        
+        public Lookup(int ruleCount) {
+            super("nodeset.containsMethod." + ruleCount + "rules");
+            this.ruleCount = ruleCount;
+        }
+        
+        @Override
+        public void setUp() throws Exception {
+            set = loadIgnoreSet(ruleCount);
+            lookups = Fixtures.generateLookups(LOOKUPS);
+        }
+        
+        @Override
+        public Object run() throws Exception {
+            int found = 0;
+            for (int i = 0; i < lookups.size(); ++i) {
+                if (set.containsMethod(lookups.get(i))) {
+                    ++found;
+                }
+            }
+            return found;
+        }
+    }
+    
+    private static NodeSet loadIgnoreSet(int ruleCount) {
+        StringBuilder config = new StringBuilder();
+        for (String pattern : Fixtures.generatePatterns(ruleCount)) {
+            config.append("ignore ").append(pattern).append('\n');
+        }
+        Settings settings = new Settings();
+        settings.analysisSettings = new AnalysisSettings(null);
+        new ConfigFileLoader(settings).loadConfig(new StringReader(config.toString()));
+        return settings.analysisSettings.ignoreSet;
+    }
+    
+    public static List<Benchmark> create(Fixtures fixtures) {
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new Lookup(10));
+        result.add(new Lookup(2000));
+        result.add(new Lookup(20000));
+        result.add(new Benchmark("nodeset.loadConfig.2000rules") {
+            @Override
+            public Object run() throws Exception {
+                return loadIgnoreSet(2000);
+            }
+        });
+        return result;
+    }
+}
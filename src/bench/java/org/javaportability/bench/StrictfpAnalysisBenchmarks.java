@@ -0,0 +1,156 @@
+package org.javaportability.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.analysis.StrictfpSafetyAnalyzer;
+import org.javaportability.analysis.results.BasicCallGraphAnalysis;
+import org.javaportability.callgraph.CallGraph;
+import org.javaportability.callgraph.CallGraph.ClassNode;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.Root;
+import org.javaportability.loaders.DefaultClassFileLoader;
+import org.objectweb.asm.MethodType;
+
+/**
+ * Runs the strictfp safety analysis on synthetic call graphs of different shapes.
+ * The graphs are built once; each operation analyzes them from scratch.
+ */
+public class StrictfpAnalysisBenchmarks {
+    
+    private static final MethodType VOID = new MethodType("()V");
+    private static final String ROOT_CLASS = "Root";
+    
+    private static abstract class Analyze extends Benchmark {
+        private BasicCallGraphAnalysis basic;
+        
+        public Analyze(String name) {
+            super(name);
+        }
+        
+        /**
+         * Adds methods reachable from the method "root" of class {@link #ROOT_CLASS}.
+         */
+        protected abstract void buildGraph(BasicCallGraphAnalysis basic, MethodNode root);
+        
+        @Override
+        public void setUp() {
+            CallGraph cg = new CallGraph();
+            basic = new BasicCallGraphAnalysis(new AnalysisSettings(new DefaultClassFileLoader()), cg);
+            buildGraph(basic, cg.addClass(ROOT_CLASS).addMethod("root", VOID));
+            cg.compact();
+        }
+        
+        @Override
+        public Object run() {
+            StrictfpSafetyAnalyzer analyzer = new StrictfpSafetyAnalyzer(basic);
+            analyzer.addRoot(new Root(ROOT_CLASS, "root"));
+            return analyzer.getResult().unsafeCallPaths.size();
+        }
+    }
+    
+    /**
+     * A single chain of calls ending in an unsafe method.
+     */
+    private static class Deep extends Analyze {
+        private final int length;
+        
+        public Deep(int length) {
+            super("strictfp.deepChain." + length);
+            this.length = length;
+        }
+        
+        @Override
+        protected void buildGraph(BasicCallGraphAnalysis basic, MethodNode root) {
+            ClassNode cls = basic.callGraph.addClass("Chain");
+            MethodNode prev = root;
+            for (int i = 0; i < length; ++i) {
+                MethodNode m = cls.addMethod("m" + i, VOID);
+                basic.callGraph.addCall(prev, m);
+                prev = m;
+            }
+            basic.localFpMathMethods.add(prev);
+        }
+    }
+    
+    /**
+     * Methods that each call every method of the next layer. Every tenth method in the last layer is unsafe.
+     */
+    private static class Wide extends Analyze {
+        private final int layers;
+        private final int width;
+        
+        public Wide(int layers, int width) {
+            super("strictfp.wide." + layers + "x" + width);
+            this.layers = layers;
+            this.width = width;
+        }
+        
+        @Override
+        protected void buildGraph(BasicCallGraphAnalysis basic, MethodNode root) {
+            List<MethodNode> prevLayer = new ArrayList<MethodNode>();
+            prevLayer.add(root);
+            for (int l = 0; l < layers; ++l) {
+                ClassNode cls = basic.callGraph.addClass("Layer" + l);
+                List<MethodNode> layer = new ArrayList<MethodNode>();
+                for (int i = 0; i < width; ++i) {
+                    MethodNode m = cls.addMethod("m" + i, VOID);
+                    layer.add(m);
+                    for (MethodNode caller : prevLayer) {
+                        basic.callGraph.addCall(caller, m);
+                    }
+                }
+                prevLayer = layer;
+            }
+            for (int i = 0; i < prevLayer.size(); i += 10) {
+                basic.localFpMathMethods.add(prevLayer.get(i));
+            }
+        }
+    }
+    
+    /**
+     * Rings of mutually recursive methods, each ring calling into the next,
+     * with only the last ring calling an unsafe method.
+     */
+    private static class Cyclic extends Analyze {
+        private final int rings;
+        private final int ringSize;
+        
+        public Cyclic(int rings, int ringSize) {
+            super("strictfp.cyclic." + rings + "x" + ringSize);
+            this.rings = rings;
+            this.ringSize = ringSize;
+        }
+        
+        @Override
+        protected void buildGraph(BasicCallGraphAnalysis basic, MethodNode root) {
+            CallGraph cg = basic.callGraph;
+            MethodNode entry = root;
+            for (int r = 0; r < rings; ++r) {
+                ClassNode cls = cg.addClass("Ring" + r);
+                MethodNode first = cls.addMethod("m0", VOID);
+                cg.addCall(entry, first);
+                MethodNode prev = first;
+                for (int i = 1; i < ringSize; ++i) {
+                    MethodNode m = cls.addMethod("m" + i, VOID);
+                    cg.addCall(prev, m);
+                    prev = m;
+                }
+                cg.addCall(prev, first);
+                entry = prev;
+            }
+            MethodNode unsafe = cg.addClass("Unsafe").addMethod("unsafe", VOID);
+            basic.localFpMathMethods.add(unsafe);
+            cg.addCall(entry, unsafe);
+        }
+    }
+    
+    public static List<Benchmark> create() {
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new Deep(100000));
+        result.add(new Wide(3, 300));
+        result.add(new Cyclic(100, 1000));
+        return result;
+    }
+}
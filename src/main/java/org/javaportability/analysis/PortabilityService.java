@@ -0,0 +1,280 @@
+package org.javaportability.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.CallGraphBuilder;
+import org.javaportability.callgraph.ClassFactsCache;
+import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.RootClassNotFoundException;
+import org.javaportability.misc.Metrics;
+import org.javaportability.misc.Trace;
+
+/**
+ * Answers many verification requests from one call graph that is kept between them.
+ *
+ * The graph grows as requests need it and changes only when told that classes
+ * have changed. A request whose roots are already in it goes straight
+ * to the strictfp analysis, which is fast compared to building the graph.
+ * Requests with new roots first add them to the graph.
+ *
+ * Requests may come from several threads at once. Analyses run concurrently,
+ * while adding roots to the graph waits for them to finish and blocks new ones.
+ *
+ * The class file loader and ignore set shape the graph, so every request must use
+ * the ones the service was created with. The safe, unsafe and allowed floating point
+ * sets only matter to the analysis and may differ between requests.
+ */
+public class PortabilityService {
+    
+    /**
+     * Is told about the result of a request while the call graph can't change.
+     */
+    public interface ResultListener {
+        public void analysisStarted(StrictfpSafetyAnalysis result) throws Exception;
+        
+        /**
+         * Called after each root has been analyzed, in the order the roots were given,
+         * before the next root is analyzed.
+         */
+        public void rootAnalyzed(Root root) throws Exception;
+        
+        public void analysisFinished() throws Exception;
+    }
+    
+    private final AnalysisSettings graphSettings;
+    private Trace trace;
+    private int discoveryThreads;
+    private boolean virtualDispatch;
+    private ClassFactsCache factsCache; // Possibly null
+    private boolean incremental;
+    private final Metrics metrics;
+    
+    private final ReentrantReadWriteLock lock;
+    // Guarded by the write lock. Read with either lock held.
+    private CallGraphBuilder builder;
+    private HashSet<Root> coveredRoots;
+    
+    public PortabilityService(AnalysisSettings graphSettings) {
+        this.graphSettings = graphSettings;
+        this.trace = Trace.OFF;
+        this.discoveryThreads = 1;
+        this.virtualDispatch = false;
+        this.factsCache = null;
+        this.incremental = false;
+        this.metrics = new Metrics();
+        this.lock = new ReentrantReadWriteLock();
+        this.builder = null;
+        this.coveredRoots = new HashSet<Root>();
+    }
+    
+    /**
+     * See {@link CallGraphBuilder#setTrace(Trace)}. Should be called before any requests.
+     */
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+    
+    public Trace getTrace() {
+        return trace;
+    }
+    
+    /**
+     * See {@link CallGraphBuilder#setDiscoveryThreads(int)}. Should be called before any requests.
+     */
+    public void setDiscoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one discovery thread");
+        }
+        discoveryThreads = threads;
+    }
+    
+    /**
+     * See {@link CallGraphBuilder#setVirtualDispatch(boolean)}. Should be called before any requests.
+     */
+    public void setVirtualDispatch(boolean enabled) {
+        virtualDispatch = enabled;
+    }
+    
+    /**
+     * See {@link CallGraphBuilder#setFactsCache(ClassFactsCache)}. Should be called before any requests.
+     * Saving the cache is up to the caller.
+     */
+    public void setFactsCache(ClassFactsCache cache) {
+        factsCache = cache;
+    }
+    
+    public ClassFactsCache getFactsCache() {
+        return factsCache;
+    }
+    
+    /**
+     * See {@link CallGraphBuilder#setIncremental(boolean)}. Should be called before any requests.
+     */
+    public void setIncremental(boolean enabled) {
+        incremental = enabled;
+    }
+    
+    public AnalysisSettings getGraphSettings() {
+        return graphSettings;
+    }
+    
+    /**
+     * The work done by all requests so far, including building the graph.
+     * Requests running at the same time count into the same metrics.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Analyzes the roots.
+     *
+     * The result's unsafe call paths belong to this request alone, but its call graph
+     * is shared and may grow while other requests add roots. To walk the graph itself,
+     * such as to write a report, use {@link #verify(List, AnalysisSettings, ResultListener)}.
+     */
+    public StrictfpSafetyAnalysis verify(List<Root> roots, AnalysisSettings settings) throws Exception {
+        final StrictfpSafetyAnalysis[] result = new StrictfpSafetyAnalysis[1];
+        verify(roots, settings, new ResultListener() {
+            @Override
+            public void analysisStarted(StrictfpSafetyAnalysis r) {
+                result[0] = r;
+            }
+            
+            @Override
+            public void rootAnalyzed(Root root) {
+            }
+            
+            @Override
+            public void analysisFinished() {
+            }
+        });
+        return result[0];
+    }
+    
+    /**
+     * Analyzes the roots, telling the listener about each as soon as it's done.
+     * Methods shared by several roots are still only analyzed once.
+     * The call graph doesn't change until the listener has been told the analysis is finished.
+     */
+    public void verify(List<Root> roots, AnalysisSettings settings, ResultListener listener) throws Exception {
+        if (settings.classFileLoader != graphSettings.classFileLoader || settings.ignoreSet != graphSettings.ignoreSet) {
+            throw new IllegalArgumentException("A request must use the class file loader and ignore set of the service");
+        }
+        
+        metrics.counter("service.requests").increment();
+        lock.readLock().lock();
+        try {
+            if (builder == null || !coveredRoots.containsAll(roots)) {
+                lock.readLock().unlock();
+                lock.writeLock().lock();
+                try {
+                    addRoots(roots);
+                } finally {
+                    lock.readLock().lock(); // Downgrade, so no other roots get in before we've analyzed.
+                    lock.writeLock().unlock();
+                }
+            }
+            
+            StrictfpSafetyAnalyzer analyzer = new StrictfpSafetyAnalyzer(builder.getResult(), settings);
+            analyzer.setMetrics(metrics);
+            listener.analysisStarted(analyzer.getResult());
+            for (Root root : roots) {
+                analyzer.addRoot(root);
+                listener.rootAnalyzed(root);
+            }
+            listener.analysisFinished();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Updates the call graph after class files have changed, waiting for analyses in progress.
+     * See {@link CallGraphBuilder#replaceClass(String)}, which requires {@link #setIncremental(boolean)}.
+     * If a class can't be replaced, the graph is built again by the next request.
+     */
+    public void replaceClasses(Collection<String> internalNames) throws Exception {
+        lock.writeLock().lock();
+        try {
+            if (builder == null) {
+                return;
+            }
+            metrics.counter("service.replacedClasses").add(internalNames.size());
+            try {
+                for (String name : internalNames) {
+                    builder.replaceClass(name);
+                }
+            } catch (Exception e) {
+                builder = null;
+                coveredRoots.clear();
+                throw e;
+            } finally {
+                if (builder != null) {
+                    builder.getResult().callGraph.compact();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * The number of distinct roots in the call graph.
+     */
+    public int getCoveredRootCount() {
+        lock.readLock().lock();
+        try {
+            return coveredRoots.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void addRoots(Collection<Root> roots) throws Exception {
+        if (builder == null) {
+            builder = newBuilder();
+        }
+        List<Root> newRoots = new ArrayList<Root>();
+        for (Root root : roots) {
+            if (!coveredRoots.contains(root)) {
+                newRoots.add(root);
+            }
+        }
+        if (newRoots.isEmpty()) {
+            return; // Another request added them while we waited
+        }
+        metrics.counter("service.graphExtensions").increment();
+        try {
+            builder.addRoots(newRoots);
+            coveredRoots.addAll(newRoots);
+        } catch (RootClassNotFoundException e) {
+            throw e; // The graph is still fine.
+        } catch (Exception e) {
+            // The builder may have stopped halfway. Start over on the next request.
+            builder = null;
+            coveredRoots.clear();
+            throw e;
+        } finally {
+            if (builder != null) {
+                builder.getResult().callGraph.compact();
+            }
+        }
+    }
+    
+    private CallGraphBuilder newBuilder() {
+        CallGraphBuilder b = new CallGraphBuilder(graphSettings);
+        b.setTrace(trace);
+        b.setDiscoveryThreads(discoveryThreads);
+        b.setVirtualDispatch(virtualDispatch);
+        b.setFactsCache(factsCache);
+        b.setIncremental(incremental);
+        b.setMetrics(metrics);
+        return b;
+    }
+}
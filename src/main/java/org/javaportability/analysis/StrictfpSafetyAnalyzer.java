@@ -1,18 +1,62 @@
 package org.javaportability.analysis;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.javaportability.analysis.results.BasicCallGraphAnalysis;
 import org.javaportability.analysis.results.CallPath;
 import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.CallGraphBuilder;
+import org.javaportability.callgraph.MethodNodeSet;
 import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.RootMethods;
 import org.javaportability.callgraph.CallGraph.CallSite;
-import org.javaportability.callgraph.CallGraph.ClassNode;
 import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.nodeset.NodeSet;
+import org.javaportability.misc.Metrics;
+import org.javaportability.misc.Metrics.Counter;
+import org.javaportability.misc.Metrics.Timer;
 
 public class StrictfpSafetyAnalyzer {
     private StrictfpSafetyAnalysis result;
+    private Timer analysisTime;
+    private Counter analyzedMethodsCounter;
+    private long analyzedMethods; // Since last added to the counter
+    private SetChecks safeChecks;
+    private SetChecks unsafeChecks;
+    private SetChecks allowfpChecks;
     
     public StrictfpSafetyAnalyzer(BasicCallGraphAnalysis basic) {
         this.result = new StrictfpSafetyAnalysis(basic);
+        setMetrics(new Metrics());
+    }
+    
+    /**
+     * Analyzes the call graph with different safe, unsafe and allowed floating point sets
+     * than it was built with.
+     */
+    public StrictfpSafetyAnalyzer(BasicCallGraphAnalysis basic, AnalysisSettings settings) {
+        this.result = new StrictfpSafetyAnalysis(basic);
+        this.result.settings = settings;
+        setMetrics(new Metrics());
+    }
+    
+    /**
+     * Sets where to count the work done, under names starting with
+     * "analysis." and "nodeset.".
+     */
+    public void setMetrics(Metrics metrics) {
+        analysisTime = metrics.timer("analysis.time");
+        analyzedMethodsCounter = metrics.counter("analysis.methods");
+        safeChecks = new SetChecks(metrics, "nodeset.safe");
+        unsafeChecks = new SetChecks(metrics, "nodeset.unsafe");
+        allowfpChecks = new SetChecks(metrics, "nodeset.allowfp");
     }
     
     public StrictfpSafetyAnalysis getResult() {
@@ -20,40 +64,210 @@ public class StrictfpSafetyAnalyzer {
     }
     
     public void addRoot(Root root) {
-        ClassNode cls = result.callGraph.getClass(root.getClassName());
-        for (MethodNode m : cls.getMethodsIncludingInherited()) {
-            if (root.matchesMethod(m)) {
-                analyzeMethod(m);
+        addRoots(Collections.singletonList(root));
+    }
+    
+    /**
+     * Analyzes many roots in one pass, matching each root class's methods
+     * against all of its roots at once. For callers that don't need each root's
+     * result before the others are analyzed. Otherwise add them one by one;
+     * what an earlier root already analyzed isn't analyzed again.
+     */
+    public void addRoots(Collection<Root> roots) {
+        long start = analysisTime.start();
+        analyzeMethods(RootMethods.findIncludingInherited(result.callGraph, roots));
+        
+        // Counting in plain fields and adding up once keeps the counters off the hot path.
+        analyzedMethodsCounter.add(analyzedMethods);
+        analyzedMethods = 0;
+        safeChecks.flush();
+        unsafeChecks.flush();
+        allowfpChecks.flush();
+        analysisTime.stop(start);
+    }
+    
+    /**
+     * Forgets the results of changed methods and of everything that depends on them,
+     * such as after {@link CallGraphBuilder#replaceClass(String)}.
+     * Adding the roots again then analyzes only the forgotten methods again.
+     * 
+     * Walks the incoming calls back from the changed methods. Callers that are assumed
+     * safe or are unsafe by themselves don't depend on what they call, so the walk
+     * stops at them. Returns the number of results forgotten.
+     */
+    public int invalidate(Collection<MethodNode> changed) {
+        MethodNodeSet visited = new MethodNodeSet(result.callGraph);
+        ArrayDeque<MethodNode> queue = new ArrayDeque<MethodNode>();
+        for (MethodNode method : changed) {
+            if (visited.add(method)) {
+                queue.add(method);
+            }
+        }
+        int invalidated = 0;
+        while (!queue.isEmpty()) {
+            MethodNode method = queue.remove();
+            if (result.strictfpAnalysisDoneMethods.remove(method)) {
+                ++invalidated;
+            }
+            result.unsafeCallPaths.remove(method);
+            for (CallSite call : method.getIncomingCalls()) {
+                MethodNode caller = call.getFrom();
+                if (!visited.contains(caller) && getCallees(caller).size() > 0) {
+                    visited.add(caller);
+                    queue.add(caller);
+                }
             }
         }
+        return invalidated;
     }
     
-    private void analyzeMethod(MethodNode method) {
-        if (!isAnalyzed(method)) {
-            markAnalyzed(method);
-            if (!isAssumedSafe(method)) {
-                if (!isLocallySafe(method)) {
-                    result.unsafeCallPaths.put(method, new CallPath(method));
+    /**
+     * Analyzes everything reachable from the methods that hasn't been analyzed yet.
+     * 
+     * Uses Tarjan's algorithm with an explicit stack to find the strongly connected
+     * components of the call graph. They come out callees first, so by the time a
+     * component is finished, everything it calls outside itself is already known to
+     * be safe or unsafe. Methods in a cycle are then unsafe exactly when some method
+     * in the cycle calls something unsafe.
+     * 
+     * All the methods share one search, so a method reached from several of them
+     * is only ever visited once.
+     */
+    private void analyzeMethods(List<MethodNode> starts) {
+        HashMap<MethodNode, TarjanState> states = new HashMap<MethodNode, TarjanState>();
+        ArrayDeque<MethodNode> sccStack = new ArrayDeque<MethodNode>();
+        ArrayDeque<TarjanFrame> callStack = new ArrayDeque<TarjanFrame>();
+        int nextIndex = 0;
+        
+        for (MethodNode start : starts) {
+            if (isAnalyzed(start)) {
+                continue;
+            }
+            states.put(start, new TarjanState(nextIndex++));
+            sccStack.push(start);
+            callStack.push(new TarjanFrame(start, getCallees(start)));
+            
+            while (!callStack.isEmpty()) {
+                TarjanFrame frame = callStack.peek();
+                TarjanState state = states.get(frame.method);
+                
+                if (frame.nextCallee < frame.callees.size()) {
+                    MethodNode callee = frame.callees.get(frame.nextCallee++).getTo();
+                    if (isAnalyzed(callee)) {
+                        continue;
+                    }
+                    TarjanState calleeState = states.get(callee);
+                    if (calleeState == null) {
+                        states.put(callee, new TarjanState(nextIndex++));
+                        sccStack.push(callee);
+                        callStack.push(new TarjanFrame(callee, getCallees(callee)));
+                    } else if (calleeState.onStack) {
+                        state.lowlink = Math.min(state.lowlink, calleeState.index);
+                    }
                 } else {
-                    for (CallSite call : method.getOutgoingCalls()) {
-                        MethodNode to = call.getTo();
-                        analyzeMethod(to);
-                        CallPath unsafe = result.unsafeCallPaths.get(to);
-                        if (unsafe != null) {
-                            result.unsafeCallPaths.put(method, new CallPath(method, unsafe));
-                        }
+                    callStack.pop();
+                    if (!callStack.isEmpty()) {
+                        TarjanState callerState = states.get(callStack.peek().method);
+                        callerState.lowlink = Math.min(callerState.lowlink, state.lowlink);
+                    }
+                    if (state.lowlink == state.index) {
+                        HashSet<MethodNode> scc = new HashSet<MethodNode>();
+                        List<MethodNode> sccOrder = new ArrayList<MethodNode>();
+                        MethodNode m;
+                        do {
+                            m = sccStack.pop();
+                            states.get(m).onStack = false;
+                            scc.add(m);
+                            sccOrder.add(m);
+                        } while (m != frame.method);
+                        resolveComponent(scc, sccOrder);
                     }
                 }
             }
         }
     }
     
+    private List<CallSite> getCallees(MethodNode method) {
+        if (isAssumedSafe(method) || !isLocallySafe(method)) {
+            return Collections.emptyList();
+        } else {
+            return method.getOutgoingCalls();
+        }
+    }
+    
+    /**
+     * Decides a strongly connected component whose callees outside it are all decided.
+     */
+    private void resolveComponent(Set<MethodNode> scc, List<MethodNode> sccOrder) {
+        ArrayDeque<MethodNode> unsafeQueue = new ArrayDeque<MethodNode>();
+        
+        for (MethodNode method : sccOrder) {
+            markAnalyzed(method);
+            if (isAssumedSafe(method)) {
+                continue;
+            }
+            if (!isLocallySafe(method)) {
+                result.unsafeCallPaths.put(method, new CallPath(method));
+                unsafeQueue.add(method);
+            } else {
+                for (CallSite call : method.getOutgoingCalls()) {
+                    MethodNode to = call.getTo();
+                    CallPath unsafe = scc.contains(to) ? null : result.unsafeCallPaths.get(to);
+                    if (unsafe != null) {
+                        result.unsafeCallPaths.put(method, new CallPath(method, unsafe));
+                    }
+                }
+                if (result.unsafeCallPaths.containsKey(method)) {
+                    unsafeQueue.add(method);
+                }
+            }
+        }
+        
+        // Spread unsafety backwards within the component along shortest paths.
+        while (!unsafeQueue.isEmpty()) {
+            MethodNode to = unsafeQueue.remove();
+            CallPath unsafe = result.unsafeCallPaths.get(to);
+            for (CallSite call : to.getIncomingCalls()) {
+                MethodNode from = call.getFrom();
+                if (scc.contains(from) && !result.unsafeCallPaths.containsKey(from) && !isAssumedSafe(from)) {
+                    result.unsafeCallPaths.put(from, new CallPath(from, unsafe));
+                    unsafeQueue.add(from);
+                }
+            }
+        }
+    }
+    
+    private static class TarjanState {
+        public final int index;
+        public int lowlink;
+        public boolean onStack;
+        
+        public TarjanState(int index) {
+            this.index = index;
+            this.lowlink = index;
+            this.onStack = true;
+        }
+    }
+    
+    private static class TarjanFrame {
+        public final MethodNode method;
+        public final List<CallSite> callees;
+        public int nextCallee;
+        
+        public TarjanFrame(MethodNode method, List<CallSite> callees) {
+            this.method = method;
+            this.callees = callees;
+            this.nextCallee = 0;
+        }
+    }
+    
     private boolean isAnalyzed(MethodNode method) {
         return result.strictfpAnalysisDoneMethods.contains(method);
     }
 
     private void markAnalyzed(MethodNode method) {
         result.strictfpAnalysisDoneMethods.add(method);
+        ++analyzedMethods;
     }
 
     private boolean isLocallySafe(MethodNode node) {
@@ -61,11 +275,11 @@ public class StrictfpSafetyAnalyzer {
     }
     
     private boolean isAssumedSafe(MethodNode node) {
-        return !isAssumedUnsafe(node) && result.settings.assumedSafe.containsMethod(node.getPath());
+        return !isAssumedUnsafe(node) && check(result.settings.assumedSafe, node, safeChecks);
     }
     
     private boolean isAssumedUnsafe(MethodNode node) {
-        return result.settings.assumedUnsafe.containsMethod(node.getPath());
+        return check(result.settings.assumedUnsafe, node, unsafeChecks);
     }
 
     private boolean doesFpMathLocally(MethodNode node) {
@@ -77,6 +291,34 @@ public class StrictfpSafetyAnalyzer {
     }
 
     private boolean isWhitelisted(MethodNode node) {
-        return result.settings.allowedFpMath.containsMethod(node.getPath());
+        return check(result.settings.allowedFpMath, node, allowfpChecks);
+    }
+    
+    private boolean check(NodeSet set, MethodNode node, SetChecks counts) {
+        boolean contained = set.containsMethod(node.getPath());
+        ++counts.checks;
+        if (contained) {
+            ++counts.hits;
+        }
+        return contained;
+    }
+    
+    private static class SetChecks {
+        public long checks;
+        public long hits;
+        private final Counter checksCounter;
+        private final Counter hitsCounter;
+        
+        public SetChecks(Metrics metrics, String prefix) {
+            this.checksCounter = metrics.counter(prefix + ".checks");
+            this.hitsCounter = metrics.counter(prefix + ".hits");
+        }
+        
+        public void flush() {
+            checksCounter.add(checks);
+            hitsCounter.add(hits);
+            checks = 0;
+            hits = 0;
+        }
     }
 }
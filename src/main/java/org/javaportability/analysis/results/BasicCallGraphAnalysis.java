@@ -1,13 +1,13 @@
 package org.javaportability.analysis.results;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Set;
 
 import org.javaportability.analysis.AnalysisSettings;
 import org.javaportability.callgraph.CallGraph;
 import org.javaportability.callgraph.CallGraphBuilder;
 import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.MethodNodeSet;
 
 /**
  * A record of the immediate information obtained by {@link CallGraphBuilder}.
@@ -23,10 +23,10 @@ public class BasicCallGraphAnalysis {
     public BasicCallGraphAnalysis(AnalysisSettings settings, CallGraph callGraph) {
         this.settings = settings;
         this.callGraph = callGraph;
-        this.localFpMathMethods = new HashSet<MethodNode>();
-        this.nativeMethods = new HashSet<MethodNode>();
-        this.strictfpMethods = new HashSet<MethodNode>();
-        this.basicAnalysisDoneMethods = new HashSet<MethodNode>();
+        this.localFpMathMethods = new MethodNodeSet(callGraph);
+        this.nativeMethods = new MethodNodeSet(callGraph);
+        this.strictfpMethods = new MethodNodeSet(callGraph);
+        this.basicAnalysisDoneMethods = new MethodNodeSet(callGraph);
     }
     
     protected BasicCallGraphAnalysis(BasicCallGraphAnalysis source) {
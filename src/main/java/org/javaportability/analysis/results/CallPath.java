@@ -53,10 +53,16 @@ public class CallPath implements Iterable<MethodNode> {
         if (obj == this) {
             return true;
         } else if (obj instanceof CallPath) {
-            CallPath other = ((CallPath)obj);
-            return this.method.equals(other.method) &&
-                   ((this.next == null && other.next == null) ||
-                    (this.next != null && this.next.equals(other.next)));
+            CallPath p = this;
+            CallPath q = (CallPath)obj;
+            while (p != null && q != null && p != q) {
+                if (!p.method.equals(q.method)) {
+                    return false;
+                }
+                p = p.next;
+                q = q.next;
+            }
+            return p == q;
         } else {
             return false;
         }
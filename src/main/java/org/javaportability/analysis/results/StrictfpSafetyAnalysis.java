@@ -1,13 +1,13 @@
 package org.javaportability.analysis.results;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import org.javaportability.analysis.AnalysisSettings;
 import org.javaportability.callgraph.CallGraph;
 import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.MethodNodeSet;
 
 public class StrictfpSafetyAnalysis extends BasicCallGraphAnalysis {
     public Set<MethodNode> strictfpAnalysisDoneMethods;
@@ -24,7 +24,7 @@ public class StrictfpSafetyAnalysis extends BasicCallGraphAnalysis {
     }
     
     private void init() {
-        this.strictfpAnalysisDoneMethods = new HashSet<MethodNode>();
+        this.strictfpAnalysisDoneMethods = new MethodNodeSet(callGraph);
         this.unsafeCallPaths = new HashMap<MethodNode, CallPath>();
     }
 }
@@ -1,17 +1,30 @@
 package org.javaportability.app;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 
+import org.javaportability.loaders.JrtClassFileLoader;
+
 public class ArgParser {
 
     private Settings settings;
     private ConfigFileLoader configFileLoader;
+    private File baseDir;
     
     public ArgParser(Settings settings, ConfigFileLoader configFileLoader) {
         this.settings = settings;
         this.configFileLoader = configFileLoader;
+        this.baseDir = null;
+    }
+    
+    /**
+     * Sets the directory that relative file names are relative to,
+     * when it's not the current directory. The daemon uses its clients' directories.
+     */
+    public void setBaseDir(File dir) {
+        baseDir = dir;
     }
     
     public void parseArgs(String[] args) {
@@ -23,17 +36,40 @@ public class ArgParser {
     public String getUsage() {
         return
             "Usage: java -jar javaportability.jar verify [options] target [target...]\n" +
+            "       java -jar javaportability.jar daemon [options]\n" +
+            "       java -jar javaportability.jar shutdown [--port <n>]\n" +
             "\n" +
             "\n" +
             "Targets can be class names or methods denoted \"pkg.Class::method\"\n" +
+            "Class names may contain * wildcards, like \"pkg.*\", to verify all matching\n" +
+            "classes on the search path. These need -p.\n" +
             "\n" +
             "Options:\n" +
             "  -p, --path <class:path:components>  Class path to search classes from.\n" +
+            "                                      Jars, .jmod files, directories and\n" +
+            "                                      jrt:/ for this JVM's own runtime image.\n" +
             "                                      Omit to use the JVM's classpath.\n" +
             "  -c, --config <configfile>           Load config file\n" +
+            "  -j, --threads <n>                   Number of threads reading class files.\n" +
+            "                                      Defaults to 1.\n" +
+            "      --cache <file>                  Cache class file facts between runs.\n" +
+            "      --format <text|jsonl|sarif>     Report format. Defaults to text.\n" +
+            "      --dispatch <static|cha>         How to resolve virtual calls. Defaults to static,\n" +
+            "                                      which only follows the declared method.\n" +
+            "                                      cha also follows overrides in subclasses.\n" +
+            "      --daemon                        Send the verify command to a running daemon,\n" +
+            "                                      which keeps call graphs between commands.\n" +
+            "      --port <n>                      Local port of the daemon. Defaults to " + Daemon.DEFAULT_PORT + ".\n" +
+            "      --idle-timeout <minutes>        Stop the daemon when idle for this long.\n" +
+            "                                      Defaults to 60. 0 means never.\n" +
             "  -h, --help                          This help message.\n" +
-            "  -v, --verbose                       Print a little more.\n" +
+            "  -v, --verbose                       Print a little more, including metrics\n" +
+            "                                      of the work done.\n" +
+            "      --metrics <file>                Write the metrics to a file as JSON.\n" +
             "      --debug                         Print detailed debug messages.\n" +
+            "      --debug-on-failure              Keep the latest debug messages and\n" +
+            "                                      print them if the analysis fails.\n" +
+            "                                      Neither works with --daemon.\n" +
             "\n" +
             "Config files have one directive per line. Examples:\n" +
             "  # Comment\n" +
@@ -65,12 +101,30 @@ public class ArgParser {
                 String arg = remainingArgs.removeFirst();
                 if (isOneOf(arg, "--debug")) {
                     settings.trace = true;
+                } else if (isOneOf(arg, "--debug-on-failure")) {
+                    settings.traceOnFailure = true;
                 } else if (isOneOf(arg, "-v", "--verbose")) {
                     settings.verbose = true;
                 } else if (isOneOf(arg, "-p", "--path")) {
                     processPathArg();
                 } else if (isOneOf(arg, "-c", "--config")) {
                     processConfigFileArg();
+                } else if (isOneOf(arg, "-j", "--threads")) {
+                    processThreadsArg();
+                } else if (isOneOf(arg, "--cache")) {
+                    settings.cacheFile = resolve(requireArg("Cache file name expected"));
+                } else if (isOneOf(arg, "--metrics")) {
+                    settings.metricsFile = resolve(requireArg("Metrics file name expected"));
+                } else if (isOneOf(arg, "--format")) {
+                    processFormatArg();
+                } else if (isOneOf(arg, "--dispatch")) {
+                    processDispatchArg();
+                } else if (isOneOf(arg, "--daemon")) {
+                    settings.useDaemon = true;
+                } else if (isOneOf(arg, "--port")) {
+                    processPortArg();
+                } else if (isOneOf(arg, "--idle-timeout")) {
+                    processIdleTimeoutArg();
                 } else if (arg.startsWith("-")) {
                     throw new BadUsageException("Invalid flag: " + arg);
                 } else {
@@ -90,10 +144,11 @@ public class ArgParser {
 
         private void requireCommand() {
             command = requireArg("Command argument required");
-            String[] validCommands = {"verify"};
+            String[] validCommands = {"verify", "daemon", "shutdown"};
             if (!Arrays.asList(validCommands).contains(command)) {
                 throw new BadUsageException("Invalid command '" + command + "'");
             }
+            settings.command = command;
         }
         
         private String requireArg(String msg) {
@@ -105,23 +160,113 @@ public class ArgParser {
     
         private void processPathArg() {
             String[] parts = requireArg("Missing classpath").split(":");
-            settings.searchPath = Arrays.asList(parts);
+            settings.searchPath = new ArrayList<String>();
+            for (int i = 0; i < parts.length; ++i) {
+                // The colon of "jrt:/" doesn't separate elements.
+                if (parts[i].equals("jrt") && i + 1 < parts.length && parts[i + 1].equals("/")) {
+                    settings.searchPath.add(JrtClassFileLoader.PATH_ELEMENT);
+                    ++i;
+                } else {
+                    settings.searchPath.add(parts[i]);
+                }
+            }
             checkSearchPath();
+            for (int i = 0; i < settings.searchPath.size(); ++i) {
+                if (!settings.searchPath.get(i).equals(JrtClassFileLoader.PATH_ELEMENT)) {
+                    settings.searchPath.set(i, resolve(settings.searchPath.get(i)));
+                }
+            }
+        }
+        
+        /**
+         * Makes a relative file name relative to the base directory, if any.
+         * Keeps any trailing slash.
+         */
+        private String resolve(String fileName) {
+            if (baseDir == null || new File(fileName).isAbsolute()) {
+                return fileName;
+            }
+            return baseDir.getPath() + File.separator + fileName;
         }
         
         private void checkSearchPath() {
             for (String s : settings.searchPath) {
-                if (!s.endsWith(".jar") && !s.endsWith("/") && !s.endsWith(File.separator)) {
-                    throw new BadUsageException("Search path element '" + s + "' should have ended with '.jar' or a slash");
+                if (!s.endsWith(".jar") && !s.endsWith(".jmod") && !s.endsWith("/") && !s.endsWith(File.separator)) {
+                    throw new BadUsageException("Search path element '" + s + "' should have ended with '.jar', '.jmod' or a slash");
                 }
             }
         }
         
         private void processConfigFileArg() {
             String file = requireArg("Config file name expected");
-            configFileLoader.loadConfig(new File(file));
+            configFileLoader.loadConfig(new File(resolve(file)));
+        }
+
+        private void processThreadsArg() {
+            String s = requireArg("Number of threads expected");
+            try {
+                settings.threads = Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                throw new BadUsageException("Invalid number of threads: " + s);
+            }
+            if (settings.threads < 1) {
+                throw new BadUsageException("Number of threads must be at least 1");
+            }
         }
 
+        private void processFormatArg() {
+            String format = requireArg("Report format expected");
+            String[] validFormats = {"text", "jsonl", "sarif"};
+            if (!Arrays.asList(validFormats).contains(format)) {
+                throw new BadUsageException("Invalid report format '" + format + "'");
+            }
+            settings.reportFormat = format;
+        }
+        
+        private void processDispatchArg() {
+            String mode = requireArg("Dispatch mode expected");
+            if (mode.equals("static")) {
+                settings.virtualDispatch = false;
+            } else if (mode.equals("cha")) {
+                settings.virtualDispatch = true;
+            } else {
+                throw new BadUsageException("Invalid dispatch mode '" + mode + "'");
+            }
+        }
+        
+        private void processPortArg() {
+            String s = requireArg("Port number expected");
+            try {
+                settings.daemonPort = Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                throw new BadUsageException("Invalid port number: " + s);
+            }
+            if (settings.daemonPort < 1 || settings.daemonPort > 65535) {
+                throw new BadUsageException("Port number must be from 1 to 65535");
+            }
+        }
+        
+        private void processIdleTimeoutArg() {
+            String s = requireArg("Idle timeout expected");
+            try {
+                settings.idleTimeoutMinutes = Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                throw new BadUsageException("Invalid idle timeout: " + s);
+            }
+            if (settings.idleTimeoutMinutes < 0) {
+                throw new BadUsageException("Idle timeout can't be negative");
+            }
+        }
+        
+        private boolean haveWildcardTarget() {
+            for (String target : settings.targets) {
+                if (target.split("::")[0].contains("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
         private boolean isOneOf(String arg, String... variants) {
             for (String s : variants) {
                 if (arg.equals(s)) {
@@ -133,9 +278,18 @@ public class ArgParser {
         
         private void checkUsage() {
             if (!settings.help) {
-                if (settings.targets.isEmpty()) {
+                if (command.equals("verify") && settings.targets.isEmpty()) {
                     throw new BadUsageException("No targets given");
                 }
+                if (!command.equals("verify") && !settings.targets.isEmpty()) {
+                    throw new BadUsageException("The " + command + " command takes no targets");
+                }
+                if (settings.searchPath == null && haveWildcardTarget()) {
+                    throw new BadUsageException("Wildcard targets need a search path given with -p");
+                }
+                if (settings.useDaemon && (settings.trace || settings.traceOnFailure)) {
+                    throw new BadUsageException(Daemon.NO_TRACING_MESSAGE);
+                }
             }
         }
     }
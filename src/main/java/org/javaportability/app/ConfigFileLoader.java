@@ -4,10 +4,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
 import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.callgraph.nodeset.EmptyNodeSet;
 import org.javaportability.callgraph.nodeset.NodeSet;
 import org.javaportability.callgraph.nodeset.NodeSets;
 import org.javaportability.callgraph.nodeset.WildcardNodeSet;
@@ -16,10 +19,12 @@ public class ConfigFileLoader {
     private static final Pattern commentPattern = Pattern.compile("(#|//).*$");
     private Settings settings;
     private Scanner scanner;
+    private Map<NodeSet, WildcardNodeSet> patternSets; // Sets we've made -> where to add more patterns
     
     public ConfigFileLoader(Settings settings) {
         this.settings = settings;
         this.scanner = null;
+        this.patternSets = new IdentityHashMap<NodeSet, WildcardNodeSet>();
     }
     
     public void loadConfig(File file) {
@@ -51,6 +56,7 @@ public class ConfigFileLoader {
         
         if (cmd.equals("ignore")) {
             as.ignoreSet = addToNodeSet(as.ignoreSet, rest);
+            settings.ignorePatterns.add(rest);
         } else if (cmd.equals("safe")) {
             as.assumedSafe = addToNodeSet(as.assumedSafe, rest);
         } else if (cmd.equals("unsafe")) {
@@ -66,7 +72,19 @@ public class ConfigFileLoader {
         return commentPattern.matcher(line).replaceAll("").trim();
     }
 
+    /**
+     * Adds the pattern to a {@link WildcardNodeSet} that holds all patterns loaded for the same setting,
+     * rather than making a union for each line.
+     */
     private NodeSet addToNodeSet(NodeSet set, String spec) {
-        return NodeSets.union(set, new WildcardNodeSet(spec));
+        WildcardNodeSet patterns = patternSets.get(set);
+        if (patterns != null) {
+            patterns.addPattern(spec);
+            return set;
+        }
+        patterns = new WildcardNodeSet(spec);
+        NodeSet result = (set instanceof EmptyNodeSet) ? patterns : NodeSets.union(set, patterns);
+        patternSets.put(result, patterns);
+        return result;
     }
 }
@@ -0,0 +1,531 @@
+package org.javaportability.app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.analysis.PortabilityService;
+import org.javaportability.callgraph.ClassFactsCache;
+import org.javaportability.loaders.ClassFileLoader;
+
+/**
+ * Runs verify commands sent by {@link DaemonClient}s and keeps the call graphs between them,
+ * so verifying many modules doesn't start a JVM and read the same classes for each.
+ *
+ * Listens on a TCP port of the loopback interface, since Java 6 has no Unix domain sockets.
+ * Every user of the machine can connect to it, so it only serves clients that send the random
+ * token it writes on start to a file only its user can read, in {@link #getDefaultTokenDir()}.
+ *
+ * Commands with the same class path, ignore patterns, dispatch mode and cache file share
+ * one {@link PortabilityService}. Services with the same cache file share its {@link ClassFactsCache},
+ * so one service doesn't save over what another added. Its thread count is that of the first such command.
+ * Debug tracing isn't supported, since the trace of a shared service would mix the events
+ * of all clients. Before each command, the jars and class files on the search path are checked
+ * for changes in size or modification time. If any changed, the service and its class file loader
+ * are dropped once the commands using them finish, and the command gets a new service.
+ *
+ * The protocol is lines of UTF-8 text. A client sends {@link #PROTOCOL}, the token, the command,
+ * its working directory, the number of arguments and then each argument.
+ * A verify command's arguments are the command line, which starts with "verify".
+ * The daemon answers with lines tagged by their first character:
+ * 'o' for a line of standard output, 'e' for a line of standard error,
+ * 'O' and 'E' for the same without the line end, and finally 'x' followed by the exit status.
+ */
+public class Daemon {
+    
+    public static final int DEFAULT_PORT = 47800;
+    static final String PROTOCOL = "javaportability-daemon 2";
+    static final String UTF8 = "UTF-8";
+    static final String NO_TRACING_MESSAGE = "--debug and --debug-on-failure can't be used with --daemon";
+    private static final Charset UTF8_CHARSET = Charset.forName(UTF8);
+    
+    private static final long MAX_ACCEPT_WAIT_MILLIS = 1000;
+    private static final int TOKEN_BYTES = 16;
+    
+    private final int requestedPort;
+    private final long idleTimeoutMillis; // 0 for never
+    private final File tokenDir;
+    private ServerSocket serverSocket;
+    private File tokenFile;
+    private byte[] token;
+    private final ExecutorService requestExecutor;
+    private final HashMap<String, ServiceEntry> services; // By graphKey()
+    private final HashMap<File, ClassFactsCache> factsCaches; // By canonical cache file
+    private final AtomicInteger activeRequests;
+    private volatile long lastActivity;
+    private volatile boolean shutdownRequested;
+    
+    public Daemon(int port, long idleTimeoutMillis) {
+        this(port, idleTimeoutMillis, getDefaultTokenDir());
+    }
+    
+    /**
+     * Writes the token to a file in the given directory instead of the default one.
+     */
+    public Daemon(int port, long idleTimeoutMillis, File tokenDir) {
+        this.requestedPort = port;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.tokenDir = tokenDir;
+        this.serverSocket = null;
+        this.tokenFile = null;
+        this.token = null;
+        this.requestExecutor = Executors.newCachedThreadPool();
+        this.services = new HashMap<String, ServiceEntry>();
+        this.factsCaches = new HashMap<File, ClassFactsCache>();
+        this.activeRequests = new AtomicInteger(0);
+        this.lastActivity = System.currentTimeMillis();
+        this.shutdownRequested = false;
+    }
+    
+    /**
+     * Where daemons write their tokens by default: a directory in the user's home.
+     */
+    public static File getDefaultTokenDir() {
+        return new File(System.getProperty("user.home"), ".javaportability");
+    }
+    
+    /**
+     * The file holding the token of the daemon on the port.
+     */
+    static File getTokenFile(File tokenDir, int port) {
+        return new File(tokenDir, "daemon-" + port + ".token");
+    }
+    
+    /**
+     * Starts listening, writes the token and returns the port,
+     * which is chosen freely if 0 was asked for.
+     * Called by {@link #run} if not before.
+     */
+    public synchronized int start() throws IOException {
+        if (serverSocket == null) {
+            serverSocket = new ServerSocket(requestedPort, 50, InetAddress.getByName("127.0.0.1"));
+            long wait = (idleTimeoutMillis > 0) ? Math.min(idleTimeoutMillis, MAX_ACCEPT_WAIT_MILLIS) : MAX_ACCEPT_WAIT_MILLIS;
+            serverSocket.setSoTimeout((int)wait);
+            try {
+                writeToken(getTokenFile(tokenDir, serverSocket.getLocalPort()));
+            } catch (IOException e) {
+                serverSocket.close();
+                serverSocket = null;
+                throw e;
+            }
+        }
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * Writes a new random token readable only by this user.
+     *
+     * The directory is made private before the file is written, so nobody else can open
+     * the file even in the moment before its own permissions are restricted.
+     */
+    private void writeToken(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        restrictToOwner(dir);
+        
+        token = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(token);
+        file.delete();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            restrictToOwner(file);
+            out.write((toHex(token) + "\n").getBytes(UTF8_CHARSET));
+        } finally {
+            out.close();
+        }
+        tokenFile = file;
+    }
+    
+    /**
+     * Like chmod 600, or 700 for a directory.
+     * Windows can't take permissions away this way, but home directories there are private.
+     */
+    private static void restrictToOwner(File file) throws IOException {
+        boolean ok = file.setReadable(false, false) && file.setReadable(true, true) &&
+                     file.setWritable(false, false) && file.setWritable(true, true) &&
+                     file.setExecutable(false, false) && (!file.isDirectory() || file.setExecutable(true, true));
+        if (!ok && !System.getProperty("os.name", "").startsWith("Windows")) {
+            throw new IOException("Could not make " + file + " private");
+        }
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Serves clients until told to shut down or idle for too long,
+     * then waits for the commands in progress to finish.
+     */
+    public void run(PrintStream log) throws IOException, InterruptedException {
+        int port = start();
+        log.println("Daemon listening on 127.0.0.1:" + port);
+        lastActivity = System.currentTimeMillis();
+        try {
+            while (!shutdownRequested && !isIdleTooLong()) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                activeRequests.incrementAndGet();
+                lastActivity = System.currentTimeMillis();
+                requestExecutor.execute(new RequestHandler(socket));
+            }
+        } finally {
+            serverSocket.close();
+            tokenFile.delete();
+            requestExecutor.shutdown();
+            requestExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            discardServices();
+        }
+        log.println(shutdownRequested ? "Daemon shut down" : "Daemon stopped after being idle");
+    }
+    
+    private boolean isIdleTooLong() {
+        return idleTimeoutMillis > 0 &&
+               activeRequests.get() == 0 &&
+               System.currentTimeMillis() - lastActivity >= idleTimeoutMillis;
+    }
+    
+    private class RequestHandler implements Runnable {
+        private final Socket socket;
+        
+        public RequestHandler(Socket socket) {
+            this.socket = socket;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                try {
+                    handle();
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // The client went away. Nothing to tell anyone.
+            } finally {
+                lastActivity = System.currentTimeMillis();
+                activeRequests.decrementAndGet();
+            }
+        }
+        
+        private void handle() throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8));
+            ChannelWriter stdout = new ChannelWriter(out, 'o');
+            ChannelWriter stderr = new ChannelWriter(out, 'e');
+            int status;
+            try {
+                status = serve(in, stdout, stderr);
+            } catch (Exception e) {
+                stderr.write("Error: " + e + "\n");
+                status = 1;
+            }
+            stdout.close();
+            stderr.close();
+            out.write("x" + status + "\n");
+            out.flush();
+        }
+    }
+    
+    private int serve(BufferedReader in, Writer stdout, Writer stderr) throws Exception {
+        if (!PROTOCOL.equals(in.readLine())) {
+            stderr.write("Client and daemon versions differ\n");
+            return 1;
+        }
+        if (!MessageDigest.isEqual(toHex(token).getBytes(UTF8_CHARSET), readLine(in).getBytes(UTF8_CHARSET))) {
+            stderr.write("Wrong daemon token. Run the client as the user who started the daemon.\n");
+            return 1;
+        }
+        String command = readLine(in);
+        File workingDir = new File(readLine(in));
+        List<String> args = new ArrayList<String>();
+        int argCount = Integer.parseInt(readLine(in));
+        for (int i = 0; i < argCount; ++i) {
+            args.add(readLine(in));
+        }
+        
+        if (command.equals("shutdown")) {
+            shutdownRequested = true;
+            return 0;
+        } else if (command.equals("verify")) {
+            return verify(workingDir, args, stdout, stderr);
+        } else {
+            stderr.write("Unknown daemon command: " + command + "\n");
+            return 1;
+        }
+    }
+    
+    private static String readLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new IOException("Incomplete request");
+        }
+        return line;
+    }
+    
+    private int verify(File workingDir, List<String> args, Writer stdout, Writer stderr) throws Exception {
+        Settings settings = new Settings();
+        settings.analysisSettings = new AnalysisSettings(null);
+        ArgParser argParser = new ArgParser(settings, new ConfigFileLoader(settings));
+        argParser.setBaseDir(workingDir);
+        try {
+            argParser.parseArgs(args.toArray(new String[args.size()]));
+        } catch (BadUsageException e) {
+            stderr.write(e.getMessage() + "\n\n" + argParser.getUsage() + "\n");
+            return 1;
+        }
+        if (settings.help) {
+            stdout.write(argParser.getUsage() + "\n");
+            return 0;
+        }
+        if (!settings.command.equals("verify")) {
+            stderr.write("The daemon only runs verify commands\n");
+            return 1;
+        }
+        if (settings.trace || settings.traceOnFailure) {
+            stderr.write(NO_TRACING_MESSAGE + "\n");
+            return 1;
+        }
+        
+        ServiceEntry entry = acquireService(settings);
+        try {
+            PortabilityService service = entry.getService();
+            settings.analysisSettings.classFileLoader = service.getGraphSettings().classFileLoader;
+            settings.analysisSettings.ignoreSet = service.getGraphSettings().ignoreSet;
+            PrintWriter progress = new PrintWriter(settings.reportFormat.equals("text") ? stdout : stderr, true);
+            new Main(settings, stdout, progress).verify(service);
+        } finally {
+            releaseService(entry);
+        }
+        return 0;
+    }
+    
+    /**
+     * A service shared by the commands with the same {@link #graphKey(Settings)}.
+     * The first such command makes it, and the others wait for it, without holding up
+     * commands for other services.
+     */
+    private class ServiceEntry {
+        public final FutureTask<PortabilityService> creation;
+        public volatile SearchPathSnapshot snapshot; // Set by the creation
+        public int users;          // Commands using the service, guarded by the daemon
+        public boolean discarded;  // Closed once no command uses it
+        
+        public ServiceEntry(final Settings settings) {
+            this.creation = new FutureTask<PortabilityService>(new Callable<PortabilityService>() {
+                @Override
+                public PortabilityService call() throws Exception {
+                    // Taken before the loader indexes anything, so a change while it does is seen next time.
+                    snapshot = SearchPathSnapshot.take(settings.searchPath);
+                    settings.analysisSettings.classFileLoader = Main.makeClassFileLoader(settings);
+                    ClassFactsCache cache = (settings.cacheFile != null) ? getFactsCache(new File(settings.cacheFile)) : null;
+                    return Main.makeService(settings, cache);
+                }
+            });
+            this.users = 0;
+            this.discarded = false;
+        }
+        
+        public PortabilityService getService() throws Exception {
+            try {
+                return creation.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception)e.getCause();
+                }
+                throw (Error)e.getCause();
+            }
+        }
+    }
+    
+    /**
+     * Finds or makes the service for the settings, replacing one whose search path has changed.
+     * Only the lookup holds the daemon's lock. Must be paired with {@link #releaseService(ServiceEntry)}.
+     */
+    private ServiceEntry acquireService(Settings settings) throws Exception {
+        String key = graphKey(settings);
+        while (true) {
+            ServiceEntry entry;
+            boolean created = false;
+            synchronized (this) {
+                entry = services.get(key);
+                if (entry == null) {
+                    entry = new ServiceEntry(settings);
+                    services.put(key, entry);
+                    created = true;
+                }
+                entry.users++;
+            }
+            if (created) {
+                entry.creation.run();
+            }
+            
+            try {
+                entry.getService();
+            } catch (Exception e) {
+                dropService(key, entry); // So the next command tries again
+                releaseService(entry);
+                throw e;
+            }
+            if (created || entry.snapshot.isCurrent()) {
+                return entry;
+            }
+            dropService(key, entry);
+            releaseService(entry);
+        }
+    }
+    
+    /**
+     * Loads a cache file on first use and then hands out the same cache for it.
+     * Main.verify saves a cache while holding its lock, so saves of a shared cache don't interleave.
+     */
+    private ClassFactsCache getFactsCache(File file) throws IOException {
+        File canonical = file.getCanonicalFile();
+        synchronized (factsCaches) {
+            ClassFactsCache cache = factsCaches.get(canonical);
+            if (cache == null) {
+                cache = ClassFactsCache.load(canonical);
+                factsCaches.put(canonical, cache);
+            }
+            return cache;
+        }
+    }
+    
+    private synchronized void dropService(String key, ServiceEntry entry) {
+        if (services.get(key) == entry) {
+            services.remove(key);
+            entry.discarded = true;
+        }
+    }
+    
+    private synchronized void releaseService(ServiceEntry entry) throws IOException {
+        entry.users--;
+        if (entry.discarded && entry.users == 0) {
+            discard(entry);
+        }
+    }
+    
+    private synchronized void discardServices() throws IOException {
+        for (ServiceEntry entry : services.values()) {
+            discard(entry);
+        }
+        services.clear();
+    }
+    
+    /**
+     * Closes the class files the service's loader keeps open.
+     */
+    private static void discard(ServiceEntry entry) throws IOException {
+        if (!entry.creation.isDone()) {
+            return;
+        }
+        PortabilityService service;
+        try {
+            service = entry.creation.get();
+        } catch (Exception e) {
+            return; // Nothing was made, so nothing to close
+        }
+        ClassFileLoader loader = service.getGraphSettings().classFileLoader;
+        if (loader instanceof Closeable) {
+            ((Closeable)loader).close();
+        }
+    }
+    
+    /**
+     * Everything in the settings that changes the call graph.
+     */
+    private static String graphKey(Settings settings) {
+        return "path=" + settings.searchPath +
+               " ignore=" + settings.ignorePatterns +
+               " cha=" + settings.virtualDispatch +
+               " cache=" + settings.cacheFile;
+    }
+    
+    /**
+     * Sends text to the client as lines tagged with the stream they belong to.
+     * Flushing sends the complete lines written so far. Closing also sends the rest.
+     */
+    private static class ChannelWriter extends Writer {
+        private final Writer out; // Shared by the channels of a client
+        private final char channel;
+        private final StringBuilder line;
+        
+        public ChannelWriter(Writer out, char channel) {
+            super(out);
+            this.out = out;
+            this.channel = channel;
+            this.line = new StringBuilder();
+        }
+        
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            synchronized (lock) {
+                for (int i = off; i < off + len; ++i) {
+                    if (cbuf[i] == '\n') {
+                        out.write(channel);
+                        out.append(line).write('\n');
+                        line.setLength(0);
+                    } else {
+                        line.append(cbuf[i]);
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            synchronized (lock) {
+                out.flush();
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            synchronized (lock) {
+                if (line.length() > 0) {
+                    out.write(Character.toUpperCase(channel));
+                    out.append(line).write('\n');
+                    line.setLength(0);
+                }
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.javaportability.app;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends commands to a {@link Daemon} on this machine and relays its output.
+ * Proves to the daemon that it runs as the same user by sending the daemon's token.
+ */
+public class DaemonClient {
+    
+    private final int port;
+    private final File tokenDir;
+    
+    public DaemonClient(int port) {
+        this(port, Daemon.getDefaultTokenDir());
+    }
+    
+    /**
+     * Reads the daemon's token from the given directory instead of the default one.
+     */
+    public DaemonClient(int port, File tokenDir) {
+        this.port = port;
+        this.tokenDir = tokenDir;
+    }
+    
+    /**
+     * Has the daemon verify as if run with the arguments in the working directory.
+     * Returns the exit status.
+     */
+    public int verify(File workingDir, List<String> args, PrintStream out, PrintStream err) throws IOException {
+        return send("verify", workingDir, args, out, err);
+    }
+    
+    /**
+     * Tells the daemon to stop once the commands in progress are done.
+     */
+    public void shutdown() throws IOException {
+        send("shutdown", new File("").getAbsoluteFile(), Collections.<String>emptyList(), System.out, System.err);
+    }
+    
+    private int send(String command, File workingDir, List<String> args, PrintStream out, PrintStream err) throws IOException {
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        } catch (ConnectException e) {
+            throw new IOException("No daemon listening on port " + port, e);
+        }
+        try {
+            Writer request = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), Daemon.UTF8));
+            request.write(Daemon.PROTOCOL + "\n");
+            request.write(readToken() + "\n");
+            request.write(command + "\n");
+            request.write(workingDir.getPath() + "\n");
+            request.write(args.size() + "\n");
+            for (String arg : args) {
+                request.write(arg + "\n");
+            }
+            request.flush();
+            
+            BufferedReader response = new BufferedReader(new InputStreamReader(socket.getInputStream(), Daemon.UTF8));
+            String line;
+            while ((line = response.readLine()) != null && line.length() > 0) {
+                String text = line.substring(1);
+                switch (line.charAt(0)) {
+                case 'o':
+                    out.print(text + "\n");
+                    break;
+                case 'O':
+                    out.print(text);
+                    break;
+                case 'e':
+                    err.print(text + "\n");
+                    break;
+                case 'E':
+                    err.print(text);
+                    break;
+                case 'x':
+                    out.flush();
+                    err.flush();
+                    return Integer.parseInt(text);
+                }
+                if (!response.ready()) {
+                    out.flush();
+                    err.flush();
+                }
+            }
+            throw new IOException("The daemon closed the connection before finishing");
+        } finally {
+            socket.close();
+        }
+    }
+    
+    private String readToken() throws IOException {
+        File file = Daemon.getTokenFile(tokenDir, port);
+        BufferedReader in;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Daemon.UTF8));
+        } catch (FileNotFoundException e) {
+            throw new IOException("Could not read the daemon's token from " + file, e);
+        }
+        try {
+            String token = in.readLine();
+            return (token != null) ? token : "";
+        } finally {
+            in.close();
+        }
+    }
+}
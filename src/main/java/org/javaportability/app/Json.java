@@ -0,0 +1,61 @@
+package org.javaportability.app;
+
+import org.javaportability.callgraph.CallGraph.MethodNode;
+
+/**
+ * Just enough JSON output for the machine readable reports.
+ */
+class Json {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    public static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+    
+    /**
+     * Appends a method as {"class":...,"method":...,"desc":...}.
+     */
+    public static void appendMethod(StringBuilder sb, MethodNode m) {
+        sb.append("{\"class\":");
+        appendString(sb, m.getOwner().getName());
+        sb.append(",\"method\":");
+        appendString(sb, m.getName());
+        sb.append(",\"desc\":");
+        appendString(sb, m.getDesc());
+        sb.append('}');
+    }
+    
+    /**
+     * The name of a method in Java source notation with the descriptor, e.g. "pkg.Cls::foo(I)V".
+     */
+    public static String qualifiedName(MethodNode m) {
+        return m.getOwner().getName().replace('/', '.') + "::" + m.getName() + m.getDesc();
+    }
+}
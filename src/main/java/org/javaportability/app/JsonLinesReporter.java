@@ -0,0 +1,70 @@
+package org.javaportability.app;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+import org.javaportability.analysis.results.CallPath;
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.RootMethods;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+
+/**
+ * Writes one JSON object per line for each unsafe root method, e.g.
+ * <pre>
+ * {"root":{"class":"pkg/A","method":"foo","desc":"()V"},"path":[{"class":"pkg/A",...},{"class":"pkg/B",...}]}
+ * </pre>
+ * The path starts with the root method and ends with the unsafe method it calls.
+ */
+public class JsonLinesReporter implements ReportWriter {
+    private Appendable output;
+    private StrictfpSafetyAnalysis result;
+    private StringBuilder line; // Reused for each line of output
+    
+    public JsonLinesReporter() {
+        this.line = new StringBuilder(1024);
+    }
+    
+    @Override
+    public void startReport(Appendable output, StrictfpSafetyAnalysis result) {
+        this.output = output;
+        this.result = result;
+    }
+    
+    @Override
+    public void writeRoot(Root root) throws IOException {
+        boolean wroteAny = false;
+        for (MethodNode m : RootMethods.find(result.callGraph, root)) {
+            CallPath path = result.unsafeCallPaths.get(m);
+            if (path != null) {
+                writeUnsafePath(m, path);
+                wroteAny = true;
+            }
+        }
+        if (wroteAny && output instanceof Flushable) {
+            ((Flushable)output).flush();
+        }
+    }
+    
+    private void writeUnsafePath(MethodNode root, CallPath path) throws IOException {
+        line.setLength(0);
+        line.append("{\"root\":");
+        Json.appendMethod(line, root);
+        line.append(",\"path\":[");
+        for (CallPath p = path; p != null; p = p.getNext()) {
+            if (p != path) {
+                line.append(',');
+            }
+            Json.appendMethod(line, p.getMethod());
+        }
+        line.append("]}\n");
+        output.append(line);
+    }
+    
+    @Override
+    public void finishReport() throws IOException {
+        if (output instanceof Flushable) {
+            ((Flushable)output).flush();
+        }
+    }
+}
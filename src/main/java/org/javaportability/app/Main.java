@@ -1,27 +1,67 @@
 package org.javaportability.app;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.javaportability.analysis.AnalysisSettings;
-import org.javaportability.analysis.StrictfpSafetyAnalyzer;
-import org.javaportability.analysis.results.BasicCallGraphAnalysis;
+import org.javaportability.analysis.PortabilityService;
 import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
-import org.javaportability.callgraph.CallGraphBuilder;
+import org.javaportability.callgraph.ClassFactsCache;
 import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.nodeset.WildcardNodeSet;
 import org.javaportability.loaders.ClassFileLoader;
-import org.javaportability.loaders.ClassPathClassFileLoader;
 import org.javaportability.loaders.DefaultClassFileLoader;
+import org.javaportability.loaders.IndexedClassPathClassFileLoader;
+import org.javaportability.misc.Metrics;
+import org.javaportability.misc.Trace;
 
 public class Main {
+    private static final int FAILURE_TRACE_SIZE = 10000; // Messages
+    
     public static void main(String[] args) throws Exception {
         Settings settings = readArgs(args);
-        new Main(settings).run();
+        if (settings.command.equals("daemon")) {
+            new Daemon(settings.daemonPort, settings.idleTimeoutMinutes * 60000L).run(System.out);
+        } else if (settings.command.equals("shutdown") || settings.useDaemon) {
+            System.exit(runClient(settings, args));
+        } else {
+            settings.analysisSettings.classFileLoader = makeClassFileLoader(settings);
+            Writer output = new BufferedWriter(new OutputStreamWriter(System.out));
+            // Keep machine readable output clean.
+            PrintWriter progress = new PrintWriter(settings.reportFormat.equals("text") ? System.out : System.err, true);
+            new Main(settings, output, progress).verify(makeService(settings));
+        }
+    }
+    
+    private static int runClient(Settings settings, String[] args) {
+        DaemonClient client = new DaemonClient(settings.daemonPort);
+        try {
+            if (settings.command.equals("shutdown")) {
+                client.shutdown();
+                return 0;
+            } else {
+                List<String> forwarded = new ArrayList<String>(Arrays.asList(args));
+                forwarded.remove("--daemon");
+                return client.verify(new File("").getAbsoluteFile(), forwarded, System.out, System.err);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return 1;
+        }
     }
     
     private static Settings readArgs(String[] args) {
         Settings settings = new Settings();
-        settings.analysisSettings = new AnalysisSettings(makeClassFileLoader(settings));
+        settings.analysisSettings = new AnalysisSettings(null); // Loader set once the search path is known
         ArgParser argParser = new ArgParser(settings, new ConfigFileLoader(settings));
         try {
             argParser.parseArgs(args);
@@ -38,66 +78,177 @@ public class Main {
         return settings;
     }
     
-    private static ClassFileLoader makeClassFileLoader(Settings settings) {
+    static ClassFileLoader makeClassFileLoader(Settings settings) throws IOException {
         if (settings.searchPath != null) {
-            return new ClassPathClassFileLoader(settings.searchPath);
+            return new IndexedClassPathClassFileLoader(settings.searchPath);
         } else {
             return new DefaultClassFileLoader();
         }
     }
     
+    /**
+     * Makes a service that builds call graphs as the settings say.
+     */
+    static PortabilityService makeService(Settings settings) throws IOException {
+        ClassFactsCache cache = (settings.cacheFile != null) ? ClassFactsCache.load(new File(settings.cacheFile)) : null;
+        return makeService(settings, cache);
+    }
+    
+    /**
+     * Makes a service that uses the given facts cache, which may be shared with other services.
+     */
+    static PortabilityService makeService(Settings settings, ClassFactsCache cache) {
+        PortabilityService service = new PortabilityService(settings.analysisSettings);
+        if (settings.trace) {
+            service.setTrace(new Trace(Trace.Level.DEBUG, new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))), 0));
+        } else if (settings.traceOnFailure) {
+            service.setTrace(new Trace(Trace.Level.DEBUG, null, FAILURE_TRACE_SIZE));
+        }
+        service.setDiscoveryThreads(settings.threads);
+        service.setVirtualDispatch(settings.virtualDispatch);
+        if (cache != null) {
+            service.setFactsCache(cache);
+        }
+        return service;
+    }
+    
     private Settings settings;
-    private Appendable output;
+    private Writer output;
+    private PrintWriter progress;
     
     private List<Root> roots;
     
-    private Main(Settings settings) {
+    Main(Settings settings, Writer output, PrintWriter progress) {
         this.settings = settings;
-        this.output = System.out;
+        this.output = output;
+        this.progress = progress;
     }
     
-    private void run() throws Exception {
+    /**
+     * Verifies the targets of the settings and writes the report.
+     * The service's call graph must be built with the loader and ignore set of the settings.
+     */
+    void verify(PortabilityService service) throws Exception {
         roots = parseRoots();
-        BasicCallGraphAnalysis basicResult = buildCallgraph();
-        StrictfpSafetyAnalysis sfpResult = doStrictfpSafetyAnalysis(basicResult);
-        new Reporter(settings).writeReport(output, roots, sfpResult);
+        if (settings.verbose) {
+            progress.println("Building call graph...");
+        }
+        Map<String, Long> before = service.getMetrics().snapshot();
+        try {
+            service.verify(roots, settings.analysisSettings, new ReportingListener(makeReportWriter()));
+        } catch (Exception e) {
+            service.getTrace().dump(progress);
+            throw e;
+        }
+        ClassFactsCache cache = service.getFactsCache();
+        if (cache != null) {
+            synchronized (cache) {
+                cache.saveIfModified(new File(settings.cacheFile));
+            }
+        }
+        writeMetrics(Metrics.difference(before, service.getMetrics().snapshot()));
+    }
+    
+    private void writeMetrics(Map<String, Long> metrics) throws IOException {
+        if (settings.verbose) {
+            MetricsWriter.writeText(metrics, progress);
+            progress.flush();
+        }
+        if (settings.metricsFile != null) {
+            Writer out = new OutputStreamWriter(new FileOutputStream(settings.metricsFile), "UTF-8");
+            try {
+                MetricsWriter.writeJson(metrics, out);
+            } finally {
+                out.close();
+            }
+        }
     }
     
+    /**
+     * Makes roots of the targets. Class names with wildcards stand for all matching classes
+     * on the search path that aren't ignored, which are looked up in the loader's index.
+     */
     private List<Root> parseRoots() {
         List<Root> roots = new ArrayList<Root>();
         for (String target : settings.targets) {
-            Root root;
+            String className = target;
+            String methodName = null;
             if (target.contains("::")) {
                 String[] parts = target.split("::");
-                root = new Root(parts[0], parts[1]);
+                className = parts[0];
+                methodName = parts[1];
+            }
+            className = className.replace('.', '/');
+            if (className.contains("*")) {
+                List<String> classNames = findClasses(className);
+                if (classNames.isEmpty()) {
+                    throw new IllegalArgumentException("No classes on the search path match " + target);
+                }
+                for (String name : classNames) {
+                    roots.add(makeRoot(name, methodName));
+                }
             } else {
-                root = new Root(target.replace('.', '/'));
+                roots.add(makeRoot(className, methodName));
             }
-            roots.add(root);
         }
         return roots;
     }
     
-    private BasicCallGraphAnalysis buildCallgraph() throws Exception {
-        CallGraphBuilder builder = new CallGraphBuilder(settings.analysisSettings);
-        builder.setDebugTrace(settings.trace);
-        if (settings.verbose) {
-            System.out.println("Building call graph...");
+    private List<String> findClasses(String pattern) {
+        if (!(settings.analysisSettings.classFileLoader instanceof IndexedClassPathClassFileLoader)) {
+            throw new IllegalArgumentException("Wildcard targets need a search path");
+        }
+        IndexedClassPathClassFileLoader loader = (IndexedClassPathClassFileLoader)settings.analysisSettings.classFileLoader;
+        WildcardNodeSet matcher = new WildcardNodeSet(pattern);
+        List<String> classNames = new ArrayList<String>();
+        for (String name : loader.getClassNames(pattern.substring(0, pattern.indexOf('*')))) {
+            if (matcher.containsClass(name) && !settings.analysisSettings.ignoreSet.containsClass(name)) {
+                classNames.add(name);
+            }
         }
-        for (Root root : roots) {
-            builder.addRoot(root);
+        return classNames;
+    }
+    
+    private static Root makeRoot(String className, String methodName) {
+        return (methodName != null) ? new Root(className, methodName) : new Root(className);
+    }
+    
+    private ReportWriter makeReportWriter() {
+        if (settings.reportFormat.equals("jsonl")) {
+            return new JsonLinesReporter();
+        } else if (settings.reportFormat.equals("sarif")) {
+            return new SarifReporter();
+        } else {
+            return new Reporter(settings);
         }
-        return builder.getResult();
     }
     
-    private StrictfpSafetyAnalysis doStrictfpSafetyAnalysis(BasicCallGraphAnalysis basicResult) throws Exception {
-        StrictfpSafetyAnalyzer analyzer = new StrictfpSafetyAnalyzer(basicResult);
-        if (settings.verbose) {
-            System.out.println("Analyzing strictfp safety...");
+    /**
+     * Reports each root as soon as the service hands it over.
+     */
+    private class ReportingListener implements PortabilityService.ResultListener {
+        private ReportWriter reporter;
+        
+        public ReportingListener(ReportWriter reporter) {
+            this.reporter = reporter;
+        }
+        
+        @Override
+        public void analysisStarted(StrictfpSafetyAnalysis result) throws IOException {
+            if (settings.verbose) {
+                progress.println("Analyzing strictfp safety...");
+            }
+            reporter.startReport(output, result);
+        }
+        
+        @Override
+        public void rootAnalyzed(Root root) throws IOException {
+            reporter.writeRoot(root);
         }
-        for (Root root : roots) {
-            analyzer.addRoot(root);
+        
+        @Override
+        public void analysisFinished() throws IOException {
+            reporter.finishReport();
         }
-        return analyzer.getResult();
     }
 }
@@ -0,0 +1,50 @@
+package org.javaportability.app;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import org.javaportability.misc.Metrics;
+
+/**
+ * Writes a {@link Metrics#snapshot()} for people or as a JSON object.
+ */
+class MetricsWriter {
+    
+    /**
+     * Writes a list like the stats of the text report.
+     * A timer's count and nanos are shown together in milliseconds.
+     */
+    public static void writeText(Map<String, Long> values, Appendable out) throws IOException {
+        out.append("Metrics:\n");
+        Iterator<Map.Entry<String, Long>> it = values.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            String name = e.getKey();
+            if (name.endsWith(".count") && it.hasNext()) {
+                // The nanos of a timer always follow its count.
+                long nanos = it.next().getValue();
+                String timerName = name.substring(0, name.length() - ".count".length());
+                out.append("* " + timerName + ": " + e.getValue() + " in " + String.format(Locale.ROOT, "%.1f", nanos / 1e6) + " ms\n");
+            } else {
+                out.append("* " + name + ": " + e.getValue() + "\n");
+            }
+        }
+        out.append("\n");
+    }
+    
+    public static void writeJson(Map<String, Long> values, Appendable out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        for (Map.Entry<String, Long> e : values.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            Json.appendString(sb, e.getKey());
+            sb.append(':').append(e.getValue());
+        }
+        sb.append("}\n");
+        out.append(sb);
+    }
+}
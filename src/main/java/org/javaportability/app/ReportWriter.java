@@ -0,0 +1,27 @@
+package org.javaportability.app;
+
+import java.io.IOException;
+
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.Root;
+
+/**
+ * Writes a report of an analysis in some format while the analysis is still in progress.
+ *
+ * Call {@link #startReport}, then {@link #writeRoot} for each analyzed root,
+ * then {@link #finishReport}.
+ */
+public interface ReportWriter {
+    /**
+     * Writes the beginning of the report.
+     * The result is read later as roots are written.
+     */
+    public void startReport(Appendable output, StrictfpSafetyAnalysis result) throws IOException;
+    
+    /**
+     * Writes the unsafe paths from a root's methods. The root must have been analyzed.
+     */
+    public void writeRoot(Root root) throws IOException;
+    
+    public void finishReport() throws IOException;
+}
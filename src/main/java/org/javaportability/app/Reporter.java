@@ -1,125 +1,123 @@
 package org.javaportability.app;
 
+import java.io.Flushable;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Formatter;
 import java.util.List;
 
 import org.javaportability.analysis.results.CallPath;
 import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
-import org.javaportability.callgraph.CallGraph;
 import org.javaportability.callgraph.Root;
-import org.javaportability.callgraph.CallGraph.ClassNode;
+import org.javaportability.callgraph.RootMethods;
 import org.javaportability.callgraph.CallGraph.MethodNode;
 import org.javaportability.misc.Misc;
 
-public class Reporter {
+/**
+ * Writes the report as human readable text.
+ *
+ * Each root's unsafe paths are written as soon as they're known,
+ * and nothing about the earlier roots is kept around.
+ */
+public class Reporter implements ReportWriter {
     protected Settings settings;
     
     protected Appendable output;
-    protected List<Root> roots;
     protected StrictfpSafetyAnalysis result;
-    private List<MethodNode> rootMethods;
+    private boolean anyUnsafe;
+    private StringBuilder line; // Reused for each line of output
     
     public Reporter(Settings settings) {
         this.settings = settings;
+        this.line = new StringBuilder(256);
     }
     
     public void writeReport(Appendable output, List<Root> roots, StrictfpSafetyAnalysis result) throws IOException {
-        this.output = output;
-        this.roots = roots;
-        this.result = result;
-        findRootMethods(result.callGraph);
-        writeReport();
+        startReport(output, result);
+        for (Root root : roots) {
+            writeRoot(root);
+        }
+        finishReport();
     }
     
-    private void writeReport() throws IOException {
+    @Override
+    public void startReport(Appendable output, StrictfpSafetyAnalysis result) throws IOException {
+        this.output = output;
+        this.result = result;
+        this.anyUnsafe = false;
         writeln("Stats:");
         writeln("* Classes visited: " + result.callGraph.getClasses().size());
         writeln();
-        if (result.unsafeCallPaths.isEmpty()) {
-            writeln("All call paths seem safe.");
-        } else {
-            writeln("Unsafe call paths:");
-            writeUnsafeCallPaths();
-        }
-        writeln();
     }
-
-    private void writeUnsafeCallPaths() throws IOException {
-        for (MethodNode root : rootMethods) {
-            CallPath path = result.unsafeCallPaths.get(root);
+    
+    @Override
+    public void writeRoot(Root root) throws IOException {
+        boolean wroteAny = false;
+        for (MethodNode m : RootMethods.find(result.callGraph, root)) {
+            CallPath path = result.unsafeCallPaths.get(m);
             if (path != null) {
-                writeUnsafePath(root, path);
+                if (!anyUnsafe) {
+                    writeln("Unsafe call paths:");
+                    anyUnsafe = true;
+                }
+                writeUnsafePath(m, path);
+                wroteAny = true;
             }
         }
+        if (wroteAny) {
+            flush();
+        }
     }
-
-    private void writeUnsafePath(MethodNode root, CallPath path) throws IOException {
-        Formatter formatter = new Formatter(output);
-        ArrayList<String> leftColumn = getCallPathShortLines(path);
-        ArrayList<String> rightColumn = getCallPathLongLines(path);
-        int leftColumnWidth = maxLength(leftColumn);
-         
-        writeln("* " + root.getOwner() + "::" + root.getName() + " " + root.getDesc() + ":");
-        for (int i = 1; i < leftColumn.size(); ++i) {
-            String left = leftColumn.get(i);
-            String right = rightColumn.get(i);
-            formatter.format("  -> %-" + leftColumnWidth + "s    [%s]\n", left, right);
+    
+    @Override
+    public void finishReport() throws IOException {
+        if (result.unsafeCallPaths.isEmpty()) {
+            writeln("All call paths seem safe.");
+        } else if (!anyUnsafe) {
+            // Only inherited methods were unsafe. They aren't listed, but the report isn't all clear either.
+            writeln("Unsafe call paths:");
         }
         writeln();
+        flush();
     }
     
-    private int maxLength(ArrayList<String> strs) {
-        int max = 0;
-        for (String s : strs) {
-            int l = s.length();
-            if (l > max) {
-                max = l;
-            }
+    private void writeUnsafePath(MethodNode root, CallPath path) throws IOException {
+        int leftColumnWidth = 0;
+        for (CallPath p = path; p != null; p = p.getNext()) {
+            leftColumnWidth = Math.max(leftColumnWidth, shortDescLength(p.getMethod()));
         }
-        return max;
-    }
-
-    private ArrayList<String> getCallPathShortLines(CallPath path) {
-        ArrayList<String> lines = new ArrayList<String>();
-        for (MethodNode m : path) {
-            lines.add(shortDesc(m));
+        
+        writeln("* " + root.getOwner() + "::" + root.getName() + " " + root.getDesc() + ":");
+        for (CallPath p = path.getNext(); p != null; p = p.getNext()) {
+            MethodNode m = p.getMethod();
+            line.setLength(0);
+            line.append("  -> ");
+            int start = line.length();
+            appendShortDesc(m);
+            while (line.length() < start + leftColumnWidth) {
+                line.append(' ');
+            }
+            line.append("    [");
+            appendLongDesc(m);
+            line.append("]\n");
+            output.append(line);
         }
-        return lines;
+        writeln();
     }
-
-    private ArrayList<String> getCallPathLongLines(CallPath path) {
-        ArrayList<String> lines = new ArrayList<String>();
-        for (MethodNode m : path) {
-            lines.add(longDesc(m));
-        }
-        return lines;
+    
+    private int shortDescLength(MethodNode m) {
+        return Misc.shortClassName(m.getOwner()).length() + 2 + m.getName().length();
     }
     
-    private String shortDesc(MethodNode m) {
-        String shortClass = Misc.shortClassName(m.getOwner());
-        String shortMethod = m.getName();
-        String shortDesc = shortClass + "::" + shortMethod;
-        return shortDesc;
+    private void appendShortDesc(MethodNode m) {
+        line.append(Misc.shortClassName(m.getOwner())).append("::").append(m.getName());
     }
-
-    private String longDesc(MethodNode m) {
-        String longClass = m.getOwner().getName();
-        String longMethod = m.getName() + " " + m.getDesc();
-        String longDesc = longClass + " :: " + longMethod;
-        return longDesc;
+    
+    private void appendLongDesc(MethodNode m) {
+        line.append(m.getOwner().getName()).append(" :: ").append(m.getName()).append(' ').append(m.getDesc());
     }
     
-    private void findRootMethods(CallGraph callGraph) {
-        rootMethods = new ArrayList<MethodNode>();
-        for (Root root : roots) {
-            ClassNode cls = callGraph.getClass(root.getClassName());
-            for (MethodNode m : cls.getLocalMethods()) {
-                if (root.matchesMethod(m)) {
-                    rootMethods.add(m);
-                }
-            }
+    private void flush() throws IOException {
+        if (output instanceof Flushable) {
+            ((Flushable)output).flush();
         }
     }
     
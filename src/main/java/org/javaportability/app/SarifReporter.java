@@ -0,0 +1,98 @@
+package org.javaportability.app;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+import org.javaportability.analysis.results.CallPath;
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.RootMethods;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+
+/**
+ * Writes a SARIF 2.1.0 log with one result per unsafe root method.
+ *
+ * Methods have no source locations, so they are given as logical locations.
+ * The call path is given as a code flow.
+ * Results are written as they come, so the document is only complete after {@link #finishReport()}.
+ */
+public class SarifReporter implements ReportWriter {
+    public static final String RULE_ID = "unsafe-call-path";
+    
+    private Appendable output;
+    private StrictfpSafetyAnalysis result;
+    private boolean firstResult;
+    private StringBuilder buf; // Reused for each result
+    
+    public SarifReporter() {
+        this.buf = new StringBuilder(1024);
+    }
+    
+    @Override
+    public void startReport(Appendable output, StrictfpSafetyAnalysis result) throws IOException {
+        this.output = output;
+        this.result = result;
+        this.firstResult = true;
+        output.append("{\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\",\"version\":\"2.1.0\",\"runs\":[{");
+        output.append("\"tool\":{\"driver\":{\"name\":\"javaportability\",\"rules\":[{\"id\":\"" + RULE_ID + "\",");
+        output.append("\"shortDescription\":{\"text\":\"Method can call code whose floating point results may differ between platforms.\"}}]}},");
+        output.append("\"results\":[\n");
+    }
+    
+    @Override
+    public void writeRoot(Root root) throws IOException {
+        boolean wroteAny = false;
+        for (MethodNode m : RootMethods.find(result.callGraph, root)) {
+            CallPath path = result.unsafeCallPaths.get(m);
+            if (path != null) {
+                writeResult(m, path);
+                wroteAny = true;
+            }
+        }
+        if (wroteAny && output instanceof Flushable) {
+            ((Flushable)output).flush();
+        }
+    }
+    
+    private void writeResult(MethodNode root, CallPath path) throws IOException {
+        MethodNode unsafe = root;
+        for (CallPath p = path; p != null; p = p.getNext()) {
+            unsafe = p.getMethod();
+        }
+        
+        buf.setLength(0);
+        if (!firstResult) {
+            buf.append(",\n");
+        }
+        firstResult = false;
+        buf.append("{\"ruleId\":\"" + RULE_ID + "\",\"level\":\"warning\",\"message\":{\"text\":");
+        Json.appendString(buf, Json.qualifiedName(root) + " calls unsafe method " + Json.qualifiedName(unsafe));
+        buf.append("},\"locations\":[{");
+        appendLogicalLocation(buf, root);
+        buf.append("}],\"codeFlows\":[{\"threadFlows\":[{\"locations\":[");
+        for (CallPath p = path; p != null; p = p.getNext()) {
+            if (p != path) {
+                buf.append(',');
+            }
+            buf.append("{\"location\":{");
+            appendLogicalLocation(buf, p.getMethod());
+            buf.append("}}");
+        }
+        buf.append("]}]}]}");
+        output.append(buf);
+    }
+    
+    private void appendLogicalLocation(StringBuilder sb, MethodNode m) {
+        sb.append("\"logicalLocations\":[{\"fullyQualifiedName\":");
+        Json.appendString(sb, Json.qualifiedName(m));
+        sb.append(",\"kind\":\"function\"}]");
+    }
+    
+    @Override
+    public void finishReport() throws IOException {
+        output.append("\n]}]}\n");
+        if (output instanceof Flushable) {
+            ((Flushable)output).flush();
+        }
+    }
+}
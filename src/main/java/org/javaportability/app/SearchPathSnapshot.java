@@ -0,0 +1,71 @@
+package org.javaportability.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javaportability.loaders.JrtClassFileLoader;
+
+/**
+ * The sizes and modification times of the jars and class files on a search path,
+ * to tell whether any of them changed since.
+ *
+ * Taking a snapshot walks the directories, but checking it doesn't list them again.
+ * It only looks at the files and directories it saw, since a directory's modification time
+ * changes whenever a file is added to, removed from or renamed in it.
+ *
+ * The JVM's own classpath and runtime image, used without a search path, don't change.
+ */
+final class SearchPathSnapshot {
+    
+    private final File[] files; // Search path elements, the directories under them and their class files
+    private final long[] lengths;
+    private final long[] modifiedTimes;
+    
+    private SearchPathSnapshot(List<File> files) {
+        this.files = files.toArray(new File[files.size()]);
+        this.lengths = new long[this.files.length];
+        this.modifiedTimes = new long[this.files.length];
+        for (int i = 0; i < this.files.length; ++i) {
+            lengths[i] = this.files[i].length();
+            modifiedTimes[i] = this.files[i].lastModified();
+        }
+    }
+    
+    public static SearchPathSnapshot take(List<String> searchPath) {
+        List<File> files = new ArrayList<File>();
+        if (searchPath != null) {
+            for (String location : searchPath) {
+                if (!location.equals(JrtClassFileLoader.PATH_ELEMENT)) {
+                    addFiles(new File(location), files);
+                }
+            }
+        }
+        return new SearchPathSnapshot(files);
+    }
+    
+    private static void addFiles(File file, List<File> files) {
+        files.add(file);
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory() || child.getName().endsWith(".class")) {
+                    addFiles(child, files);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Whether every file still has the size and modification time it had.
+     * A file that didn't exist has neither, so creating it counts as a change.
+     */
+    public boolean isCurrent() {
+        for (int i = 0; i < files.length; ++i) {
+            if (files[i].lastModified() != modifiedTimes[i] || files[i].length() != lengths[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,16 +1,28 @@
 package org.javaportability.app;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.javaportability.analysis.AnalysisSettings;
 
 public class Settings {
+    public String command = null;
     public List<String> searchPath = null;
     public List<String> configFiles = null;
     public boolean help = false;
     public boolean trace = false;
+    public boolean traceOnFailure = false;
     public boolean verbose = false;
+    public int threads = 1;
+    public String cacheFile = null;
+    public String metricsFile = null;
+    public String reportFormat = "text";
+    public boolean virtualDispatch = false;
+    public boolean useDaemon = false;
+    public int daemonPort = Daemon.DEFAULT_PORT;
+    public int idleTimeoutMinutes = 60;
+    public List<String> ignorePatterns = new ArrayList<String>(); // As given in config files
     public List<String> targets = new LinkedList<String>();
     public AnalysisSettings analysisSettings = null;
 }
@@ -0,0 +1,226 @@
+package org.javaportability.callgraph;
+
+import java.util.Arrays;
+
+/**
+ * Call edges between methods numbered by {@link CallGraph.MethodNode#getId()}, in both directions.
+ *
+ * While the graph is being built each method has its own growable arrays.
+ * {@link #compact()} packs them into CSR form, where all methods share one array
+ * and each method's edges are a contiguous range of it.
+ * Adding anything after that unpacks them again.
+ *
+ * A method's outgoing edges are numbered in the order they were added.
+ * Each is stored as the callee's id, the call instruction and the number of such calls.
+ * An incoming edge is stored as the caller's id and the number of the caller's outgoing edge,
+ * so both directions lead to the same edge.
+ * A method's outgoing edges can only be removed all at once, which keeps the numbers valid.
+ */
+class CallEdges {
+    private static final int[] NO_EDGES = new int[0];
+    private static final int OUT_STRIDE = 3; // Callee, site, count
+    
+    /**
+     * Packs an opcode and a bytecode offset into one int.
+     * Offsets are below 65536 and -1 for unknown, opcodes below 256 and 0 for unknown.
+     */
+    static int site(int opcode, int offset) {
+        return ((offset + 1) << 8) | opcode;
+    }
+    
+    private int methodCount;
+    
+    // Growable form. out[m] starts with outCount[m] triples of callee id, site and count.
+    // in[m] starts with inCount[m] pairs of caller id and outgoing edge number.
+    private int[][] out;
+    private int[] outCount;
+    private int[][] in;
+    private int[] inCount;
+    
+    // Compact form. Method m's edges are at OUT_STRIDE * outStart[m] until OUT_STRIDE * outStart[m + 1],
+    // and its incoming pairs at 2 * inStart[m] until 2 * inStart[m + 1].
+    private int[] outStart;
+    private int[] outEdges;
+    private int[] inStart;
+    private int[] inPairs;
+    
+    public CallEdges() {
+        this.methodCount = 0;
+        this.out = new int[16][];
+        this.outCount = new int[16];
+        this.in = new int[16][];
+        this.inCount = new int[16];
+    }
+    
+    /**
+     * Makes room for the edges of the next method id.
+     */
+    public void addMethod() {
+        expand();
+        if (methodCount == out.length) {
+            int capacity = methodCount * 2;
+            out = Arrays.copyOf(out, capacity);
+            outCount = Arrays.copyOf(outCount, capacity);
+            in = Arrays.copyOf(in, capacity);
+            inCount = Arrays.copyOf(inCount, capacity);
+        }
+        out[methodCount] = NO_EDGES;
+        in[methodCount] = NO_EDGES;
+        ++methodCount;
+    }
+    
+    /**
+     * Adds an edge and returns its number among the caller's outgoing edges.
+     */
+    public int add(int from, int to, int site, int count) {
+        expand();
+        int index = outCount[from];
+        int pos = OUT_STRIDE * index;
+        out[from] = ensureCapacity(out[from], pos + OUT_STRIDE);
+        out[from][pos] = to;
+        out[from][pos + 1] = site;
+        out[from][pos + 2] = count;
+        outCount[from] = index + 1;
+        
+        pos = 2 * inCount[to];
+        in[to] = ensureCapacity(in[to], pos + 2);
+        in[to][pos] = from;
+        in[to][pos + 1] = index;
+        inCount[to]++;
+        return index;
+    }
+    
+    /**
+     * Removes a method's outgoing edges along with their incoming pairs at the callees.
+     * The callees keep the order of their other incoming edges.
+     */
+    public void removeOutgoing(int from) {
+        expand();
+        for (int i = 0; i < outCount[from]; ++i) {
+            int to = out[from][OUT_STRIDE * i];
+            int[] pairs = in[to];
+            for (int pos = 0; pos < 2 * inCount[to]; pos += 2) {
+                if (pairs[pos] == from && pairs[pos + 1] == i) {
+                    System.arraycopy(pairs, pos + 2, pairs, pos, 2 * inCount[to] - pos - 2);
+                    inCount[to]--;
+                    break;
+                }
+            }
+        }
+        out[from] = NO_EDGES;
+        outCount[from] = 0;
+    }
+    
+    public int getOutDegree(int method) {
+        if (isCompact()) {
+            return outStart[method + 1] - outStart[method];
+        } else {
+            return outCount[method];
+        }
+    }
+    
+    public int getCallee(int method, int index) {
+        return getOutField(method, index, 0);
+    }
+    
+    public int getOpcode(int method, int index) {
+        return getOutField(method, index, 1) & 0xff;
+    }
+    
+    public int getOffset(int method, int index) {
+        return (getOutField(method, index, 1) >>> 8) - 1;
+    }
+    
+    public int getCount(int method, int index) {
+        return getOutField(method, index, 2);
+    }
+    
+    private int getOutField(int method, int index, int field) {
+        if (isCompact()) {
+            return outEdges[OUT_STRIDE * (outStart[method] + index) + field];
+        } else {
+            return out[method][OUT_STRIDE * index + field];
+        }
+    }
+    
+    public int getInDegree(int method) {
+        if (isCompact()) {
+            return inStart[method + 1] - inStart[method];
+        } else {
+            return inCount[method];
+        }
+    }
+    
+    public int getCaller(int method, int index) {
+        if (isCompact()) {
+            return inPairs[2 * (inStart[method] + index)];
+        } else {
+            return in[method][2 * index];
+        }
+    }
+    
+    /**
+     * The number of an incoming edge among the caller's outgoing edges.
+     */
+    public int getCallerEdgeIndex(int method, int index) {
+        if (isCompact()) {
+            return inPairs[2 * (inStart[method] + index) + 1];
+        } else {
+            return in[method][2 * index + 1];
+        }
+    }
+    
+    public boolean isCompact() {
+        return out == null;
+    }
+    
+    public void compact() {
+        if (isCompact()) {
+            return;
+        }
+        outStart = new int[methodCount + 1];
+        inStart = new int[methodCount + 1];
+        for (int m = 0; m < methodCount; ++m) {
+            outStart[m + 1] = outStart[m] + outCount[m];
+            inStart[m + 1] = inStart[m] + inCount[m];
+        }
+        outEdges = new int[OUT_STRIDE * outStart[methodCount]];
+        inPairs = new int[2 * inStart[methodCount]];
+        for (int m = 0; m < methodCount; ++m) {
+            System.arraycopy(out[m], 0, outEdges, OUT_STRIDE * outStart[m], OUT_STRIDE * outCount[m]);
+            System.arraycopy(in[m], 0, inPairs, 2 * inStart[m], 2 * inCount[m]);
+        }
+        out = null;
+        outCount = null;
+        in = null;
+        inCount = null;
+    }
+    
+    private void expand() {
+        if (!isCompact()) {
+            return;
+        }
+        int capacity = Math.max(16, methodCount + 1);
+        out = new int[capacity][];
+        outCount = new int[capacity];
+        in = new int[capacity][];
+        inCount = new int[capacity];
+        for (int m = 0; m < methodCount; ++m) {
+            outCount[m] = outStart[m + 1] - outStart[m];
+            out[m] = outCount[m] == 0 ? NO_EDGES : Arrays.copyOfRange(outEdges, OUT_STRIDE * outStart[m], OUT_STRIDE * outStart[m + 1]);
+            inCount[m] = inStart[m + 1] - inStart[m];
+            in[m] = inCount[m] == 0 ? NO_EDGES : Arrays.copyOfRange(inPairs, 2 * inStart[m], 2 * inStart[m + 1]);
+        }
+        outStart = null;
+        outEdges = null;
+        inStart = null;
+        inPairs = null;
+    }
+    
+    private static int[] ensureCapacity(int[] array, int size) {
+        if (size <= array.length) {
+            return array;
+        }
+        return Arrays.copyOf(array, Math.max(size, Math.max(4, array.length * 2)));
+    }
+}
@@ -1,11 +1,13 @@
 package org.javaportability.callgraph;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.RandomAccess;
 
 import org.javaportability.misc.MethodPath;
 import org.objectweb.asm.MethodType;
@@ -14,16 +16,34 @@ import org.objectweb.asm.Type;
 public class CallGraph {
     
     public class ClassNode {
+        private int id;
         private String name;          // The "internal name" of the class
         private ClassNode superclass; // Possibly null
         private List<ClassNode> interfaces;
         private List<MethodNode> methods;
+        private MethodTable localMethodTable;
+        private volatile MethodTable resolvedMethodTable; // Lazily built, includes inherited methods. Readers may race to build it.
+        private List<ClassNode> directSubtypes;  // Whose resolved tables depend on ours
         
-        private ClassNode(String name, ClassNode superclass) {
+        private ClassNode(int id, String name, ClassNode superclass) {
+            this.id = id;
             this.name = name;
             this.superclass = superclass;
             this.interfaces = new LinkedList<ClassNode>();
             this.methods = new ArrayList<MethodNode>();
+            this.localMethodTable = new MethodTable();
+            this.resolvedMethodTable = null;
+            this.directSubtypes = new ArrayList<ClassNode>(0);
+            if (superclass != null) {
+                superclass.directSubtypes.add(this);
+            }
+        }
+        
+        /**
+         * A number from 0 to {@link CallGraph#getClassCount()}, unique within the call graph.
+         */
+        public int getId() {
+            return id;
         }
         
         public String getName() {
@@ -36,12 +56,21 @@ public class CallGraph {
         
         public void addInterface(ClassNode interfaceNode) {
             this.interfaces.add(interfaceNode);
+            interfaceNode.directSubtypes.add(this);
+            invalidateResolvedMethods();
         }
         
         public List<ClassNode> getLocalInterfaces() {
             return Collections.unmodifiableList(interfaces);
         }
         
+        /**
+         * The classes extending this class or implementing this interface directly.
+         */
+        public List<ClassNode> getDirectSubtypes() {
+            return Collections.unmodifiableList(directSubtypes);
+        }
+        
         public List<ClassNode> getHierarchy() {
             List<ClassNode> result = new LinkedList<ClassNode>();
             ClassNode cls = this;
@@ -59,19 +88,71 @@ public class CallGraph {
             if (hasLocalMethod(name, type)) {
                 throw new IllegalArgumentException("Method already added to class: " + name + " " + type.getDescriptor());
             }
-            MethodNode method = new MethodNode(name, type, this);
+            MethodNode method = new MethodNode(methodsById.size(), internName(name), internType(type), this);
+            methodsById.add(method);
+            edges.addMethod();
             methods.add(method);
+            localMethodTable.addIfAbsent(method);
+            invalidateResolvedMethods();
             return method;
         }
         
+        /**
+         * Takes a method out of the class, as when a changed class file no longer declares it.
+         * 
+         * The method's node stays in the graph so that ids stay dense, but lookups
+         * no longer find it and its outgoing calls are removed. Its callers must have
+         * had their calls cleared first, since calls can only be removed by caller.
+         */
+        public void removeMethod(MethodNode method) {
+            if (method.owner != this || !methods.contains(method)) {
+                throw new IllegalArgumentException("Not a method of " + name + ": " + method);
+            }
+            if (edges.getInDegree(method.id) > 0) {
+                throw new IllegalStateException("Method still has callers: " + method);
+            }
+            edges.removeOutgoing(method.id);
+            methods.remove(method);
+            localMethodTable.remove(method);
+            if (resolvedMethodTable != null) {
+                resolvedMethodTable = null;
+                for (ClassNode sub : directSubtypes) {
+                    sub.invalidateResolvedMethods();
+                }
+            }
+        }
+        
         public MethodNode tryGetMethod(String name, MethodType type) {
-            for (ClassNode cls : getHierarchy()) {
-                MethodNode m = cls.tryGetLocalMethod(name, type);
-                if (m != null) {
-                    return m;
+            return getResolvedMethodTable().get(name, type);
+        }
+        
+        /**
+         * Maps each method name and type to the first matching method in {@link #getHierarchy()}.
+         */
+        private MethodTable getResolvedMethodTable() {
+            if (resolvedMethodTable == null) {
+                MethodTable table = new MethodTable();
+                table.addAllIfAbsent(localMethodTable);
+                for (ClassNode iface : interfaces) {
+                    table.addAllIfAbsent(iface.getResolvedMethodTable());
+                }
+                if (superclass != null) {
+                    table.addAllIfAbsent(superclass.getResolvedMethodTable());
+                }
+                resolvedMethodTable = table;
+            }
+            return resolvedMethodTable;
+        }
+        
+        private void invalidateResolvedMethods() {
+            // A subtype's table is only ever built after ours,
+            // so if ours is already gone then so are theirs.
+            if (resolvedMethodTable != null) {
+                resolvedMethodTable = null;
+                for (ClassNode sub : directSubtypes) {
+                    sub.invalidateResolvedMethods();
                 }
             }
-            return null;
         }
         
         public MethodNode getMethod(String name, MethodType type) {
@@ -87,12 +168,7 @@ public class CallGraph {
         }
         
         public MethodNode tryGetLocalMethod(String name, MethodType type) {
-            for (MethodNode m : methods) {
-                if (m.getName().equals(name) && m.getType().equals(type)) {
-                    return m;
-                }
-            }
-            return null;
+            return localMethodTable.get(name, type);
         }
         
         public MethodNode getLocalMethod(String name, MethodType type) {
@@ -125,19 +201,28 @@ public class CallGraph {
         }
     }
     
+    /**
+     * Calls are kept as numbers in {@link CallEdges}, not as objects.
+     * The lists returned here create a {@link CallSite} for each element they are asked for.
+     */
     public class MethodNode {
+        private int id;
         private String name;
         private MethodType type;
         private ClassNode owner;
-        private List<CallSite> outgoingCalls;
-        private List<CallSite> incomingCalls;
         
-        private MethodNode(String name, MethodType type, ClassNode owner) {
+        private MethodNode(int id, String name, MethodType type, ClassNode owner) {
+            this.id = id;
             this.name = name;
             this.type = type;
             this.owner = owner;
-            this.outgoingCalls = new ArrayList<CallSite>();
-            this.incomingCalls = new ArrayList<CallSite>();
+        }
+        
+        /**
+         * A number from 0 to {@link CallGraph#getMethodCount()}, unique within the call graph.
+         */
+        public int getId() {
+            return id;
         }
         
         public String getName() {
@@ -161,11 +246,11 @@ public class CallGraph {
         }
         
         public List<CallSite> getOutgoingCalls() {
-            return Collections.unmodifiableList(outgoingCalls);
+            return new OutgoingCalls(this);
         }
         
         public List<CallSite> getIncomingCalls() {
-            return Collections.unmodifiableList(incomingCalls);
+            return new IncomingCalls(this);
         }
         
         @Override
@@ -174,13 +259,24 @@ public class CallGraph {
         }
     }
     
+    /**
+     * A call from one method to another.
+     *
+     * Identical call instructions in the same method make up a single call site,
+     * which knows how many of them there are and where the first one is.
+     *
+     * Call sites are made on demand, so the same call may be represented by several
+     * instances. Use {@link #equals(Object)} to compare them.
+     */
     public class CallSite {
         private MethodNode from;
         private MethodNode to;
+        private int index; // Among the outgoing calls of 'from'
         
-        private CallSite(MethodNode from, MethodNode to) {
+        private CallSite(MethodNode from, MethodNode to, int index) {
             this.from = from;
             this.to = to;
+            this.index = index;
         }
         
         public MethodNode getFrom() {
@@ -191,16 +287,106 @@ public class CallGraph {
             return to;
         }
         
+        /**
+         * The call instruction, such as {@link org.objectweb.asm.Opcodes#INVOKEVIRTUAL}, or 0 if unknown.
+         */
+        public int getOpcode() {
+            return edges.getOpcode(from.id, index);
+        }
+        
+        /**
+         * The bytecode offset of the first call instruction within the calling method, or -1 if unknown.
+         */
+        public int getOffset() {
+            return edges.getOffset(from.id, index);
+        }
+        
+        /**
+         * The number of call instructions this call site stands for.
+         */
+        public int getCount() {
+            return edges.getCount(from.id, index);
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof CallSite) {
+                CallSite other = (CallSite)obj;
+                return from == other.from && index == other.index;
+            } else {
+                return false;
+            }
+        }
+        
+        @Override
+        public int hashCode() {
+            return from.id * 31 + index;
+        }
+        
         @Override
         public String toString() {
             return "call from " + from.getName() + " to " + to.getName();
         }
     }
     
+    private class OutgoingCalls extends AbstractList<CallSite> implements RandomAccess {
+        private MethodNode from;
+        
+        public OutgoingCalls(MethodNode from) {
+            this.from = from;
+        }
+        
+        @Override
+        public CallSite get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return new CallSite(from, methodsById.get(edges.getCallee(from.id, index)), index);
+        }
+        
+        @Override
+        public int size() {
+            return edges.getOutDegree(from.id);
+        }
+    }
+    
+    private class IncomingCalls extends AbstractList<CallSite> implements RandomAccess {
+        private MethodNode to;
+        
+        public IncomingCalls(MethodNode to) {
+            this.to = to;
+        }
+        
+        @Override
+        public CallSite get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            MethodNode from = methodsById.get(edges.getCaller(to.id, index));
+            return new CallSite(from, to, edges.getCallerEdgeIndex(to.id, index));
+        }
+        
+        @Override
+        public int size() {
+            return edges.getInDegree(to.id);
+        }
+    }
+    
     private HashMap<String, ClassNode> classes;
+    private ArrayList<ClassNode> classesById;
+    private ArrayList<MethodNode> methodsById;
+    private CallEdges edges;
+    // Method names and types repeat across classes, so the graph keeps one copy of each.
+    private HashMap<String, String> names;
+    private HashMap<String, MethodType> types;
     
     public CallGraph() {
         this.classes = new HashMap<String, CallGraph.ClassNode>();
+        this.classesById = new ArrayList<ClassNode>();
+        this.methodsById = new ArrayList<MethodNode>();
+        this.edges = new CallEdges();
+        this.names = new HashMap<String, String>();
+        this.types = new HashMap<String, MethodType>();
     }
     
     public ClassNode addClass(String internalName) {
@@ -211,8 +397,9 @@ public class CallGraph {
         if (hasClass(internalName)) {
             throw new IllegalArgumentException("Class already added: " + internalName);
         }
-        ClassNode cls = new ClassNode(internalName, superclass);
+        ClassNode cls = new ClassNode(classesById.size(), internalName, superclass);
         classes.put(internalName, cls);
+        classesById.add(cls);
         return cls;
     }
     
@@ -244,10 +431,76 @@ public class CallGraph {
         return classes.get(internalName);
     }
     
+    public int getClassCount() {
+        return classesById.size();
+    }
+    
+    public ClassNode getClassById(int id) {
+        return classesById.get(id);
+    }
+    
+    public int getMethodCount() {
+        return methodsById.size();
+    }
+    
+    public MethodNode getMethodById(int id) {
+        return methodsById.get(id);
+    }
+    
+    /**
+     * Tells whether a method node was created by this call graph.
+     */
+    public boolean contains(MethodNode method) {
+        return method.id < methodsById.size() && methodsById.get(method.id) == method;
+    }
+    
     public CallSite addCall(MethodNode from, MethodNode to) {
-        CallSite cs = new CallSite(from, to);
-        from.outgoingCalls.add(cs);
-        to.incomingCalls.add(cs);
-        return cs;
+        return addCall(from, to, 0, -1, 1);
+    }
+    
+    /**
+     * Adds a call site standing for count call instructions with the given opcode,
+     * the first of which is at the given bytecode offset.
+     */
+    public CallSite addCall(MethodNode from, MethodNode to, int opcode, int offset, int count) {
+        int index = edges.add(from.id, to.id, CallEdges.site(opcode, offset), count);
+        return new CallSite(from, to, index);
+    }
+    
+    /**
+     * Removes all calls made by a method, so they can be added again from a changed class file.
+     * The remaining calls of its callees keep their order.
+     */
+    public void clearOutgoingCalls(MethodNode from) {
+        edges.removeOutgoing(from.id);
+    }
+    
+    /**
+     * Packs the calls into as little memory as possible.
+     * Call this once the graph is complete. The graph can still be modified afterwards,
+     * but the first modification unpacks it again.
+     */
+    public void compact() {
+        edges.compact();
+        methodsById.trimToSize();
+        classesById.trimToSize();
+    }
+    
+    private String internName(String name) {
+        String interned = names.get(name);
+        if (interned == null) {
+            names.put(name, name);
+            interned = name;
+        }
+        return interned;
+    }
+    
+    private MethodType internType(MethodType type) {
+        MethodType interned = types.get(type.getDescriptor());
+        if (interned == null) {
+            types.put(type.getDescriptor(), type);
+            interned = type;
+        }
+        return interned;
     }
 }
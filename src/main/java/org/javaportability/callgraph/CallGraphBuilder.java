@@ -3,77 +3,462 @@ package org.javaportability.callgraph;
 import static org.objectweb.asm.Opcodes.*;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.javaportability.analysis.AnalysisSettings;
 import org.javaportability.analysis.results.BasicCallGraphAnalysis;
+import org.javaportability.callgraph.CallGraph.CallSite;
 import org.javaportability.callgraph.CallGraph.ClassNode;
 import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.ClassFacts.CallFacts;
+import org.javaportability.callgraph.ClassFacts.MethodFacts;
 import org.javaportability.callgraph.nodeset.MinimalIgnoreSet;
 import org.javaportability.callgraph.nodeset.NodeSet;
 import org.javaportability.callgraph.nodeset.NodeSets;
 import org.javaportability.loaders.ClassFileLoader;
+import org.javaportability.loaders.IndexedClassPathClassFileLoader;
 import org.javaportability.misc.CheckedExceptionWrapper;
 import org.javaportability.misc.MethodPath;
+import org.javaportability.misc.MethodPathInterner;
+import org.javaportability.misc.Metrics;
+import org.javaportability.misc.Metrics.Counter;
+import org.javaportability.misc.Metrics.Timer;
+import org.javaportability.misc.Trace;
+import org.javaportability.misc.Trace.Level;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.MethodType;
 import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.EmptyVisitor;
 
 public class CallGraphBuilder extends EmptyVisitor {
-
-    private boolean traceEnabled;
+    
+    private Trace trace;
     private ClassFileLoader classFileLoader;
     private NodeSet ignoreSet;
     private CallGraph callGraph;
     private BasicCallGraphAnalysis result;
     private Queue<String> classDiscoveryQueue;
-    private Queue<MethodPath> methodQueue;
-    private HashMap<MethodNode, List<MethodPath>> unanalyzedCalls;
+    private HashSet<String> requestedClasses; // Ever put in classDiscoveryQueue
+    private Queue<MethodNode> methodQueue; // Methods whose callee classes have all been discovered
+    private MethodNodeSet scheduledMethods; // Put in methodQueue or waiting for classes
+    private int[] missingClassCounts; // By method id, for scheduled methods waiting for classes
+    private HashMap<String, List<MethodNode>> waitingForClass;
+    private HashMap<MethodNode, MethodFacts> methodFacts; // Dropped once the calls are recorded, unless incremental
+    private HashMap<ClassNode, UnparsedClass> unparsedClasses; // Read in this pass, with method bodies not yet parsed
+    private Queue<ParsingMethod> parsingMethods; // Scheduled, with their bodies to be parsed together
+    private HashMap<MethodPath, MethodNode> resolvedMethods; // Once resolved, the same until a class is replaced
+    private MethodPathInterner calleePaths; // Used by parsing threads too
+    private boolean virtualDispatch;
+    private HashMap<MethodPath, List<CallSite>> virtualCalls; // By statically called method
+    private MethodNodeSet undispatchableMethods; // Static, private and constructors
+    private ThreadPoolExecutor discoveryExecutor; // Null when discovering on the calling thread only
+    private ConcurrentHashMap<String, FutureTask<LoadedClass>> prefetchedClasses;
+    private ClassFactsCache factsCache; // Possibly null
+    private Meters meters;
+    private boolean incremental;
+    private LinkedHashSet<Root> addedRoots; // Kept when incremental
+    private Set<MethodNode> changedMethods; // While replacing a class
     
     public CallGraphBuilder(AnalysisSettings settings) {
+        this.trace = Trace.OFF;
         this.classFileLoader = settings.classFileLoader;
         this.ignoreSet = NodeSets.union(new MinimalIgnoreSet(), settings.ignoreSet);
         this.callGraph = new CallGraph();
         this.result = new BasicCallGraphAnalysis(settings, callGraph);
         this.classDiscoveryQueue = new LinkedList<String>();
-        this.methodQueue = new LinkedList<MethodPath>();
-        this.unanalyzedCalls = new HashMap<MethodNode, List<MethodPath>>();
+        this.requestedClasses = new HashSet<String>();
+        this.methodQueue = new LinkedList<MethodNode>();
+        this.parsingMethods = new LinkedList<ParsingMethod>();
+        this.scheduledMethods = new MethodNodeSet(callGraph);
+        this.missingClassCounts = new int[64];
+        this.waitingForClass = new HashMap<String, List<MethodNode>>();
+        this.methodFacts = new HashMap<MethodNode, MethodFacts>();
+        this.unparsedClasses = new HashMap<ClassNode, UnparsedClass>();
+        this.resolvedMethods = new HashMap<MethodPath, MethodNode>();
+        this.calleePaths = new MethodPathInterner();
+        this.virtualDispatch = false;
+        this.virtualCalls = new HashMap<MethodPath, List<CallSite>>();
+        this.undispatchableMethods = new MethodNodeSet(callGraph);
+        this.discoveryExecutor = null;
+        this.prefetchedClasses = new ConcurrentHashMap<String, FutureTask<LoadedClass>>();
+        this.factsCache = null;
+        this.meters = new Meters(new Metrics());
+        this.incremental = false;
+        this.addedRoots = new LinkedHashSet<Root>();
+        this.changedMethods = null;
+    }
+    
+    /**
+     * Sets where to trace what the builder does. Classes and methods are traced at
+     * {@link Level#INFO}, individual calls at {@link Level#DEBUG}.
+     */
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+    
+    /**
+     * Sets the number of threads that read and parse class files.
+     * 
+     * With more than one thread, class files that the builder will soon need
+     * are prefetched and the bodies of reached methods are parsed in the background,
+     * the latter on no more threads than there are processors. The call graph itself
+     * is only ever modified by the thread calling {@link #addRoot(Root)}, in the same
+     * order as with a single thread, so the result is identical.
+     * 
+     * The {@link ClassFileLoader} must be thread-safe if this is more than one.
+     * Should be called before adding any roots.
+     */
+    public void setDiscoveryThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one discovery thread");
+        }
+        if (discoveryExecutor != null) {
+            discoveryExecutor.shutdown();
+            discoveryExecutor = null;
+        }
+        if (threads > 1) {
+            discoveryExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DiscoveryThreadFactory());
+            discoveryExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+    
+    /**
+     * Sets a cache to take class facts from instead of parsing unchanged class files.
+     * Newly parsed classes are added to it.
+     */
+    public void setFactsCache(ClassFactsCache cache) {
+        factsCache = cache;
+    }
+    
+    /**
+     * Enables class hierarchy analysis of virtual and interface calls.
+     * 
+     * When enabled, a call made with INVOKEVIRTUAL or INVOKEINTERFACE also gets an edge
+     * to every override of the called method in a discovered subtype of its owner.
+     * Subtypes discovered after the call was recorded get their edges as they are discovered,
+     * so the result doesn't depend on the order in which classes are found.
+     * Classes that are never discovered contribute nothing.
+     * 
+     * Should be called before adding any roots.
+     */
+    public void setVirtualDispatch(boolean enabled) {
+        virtualDispatch = enabled;
+    }
+    
+    /**
+     * Sets where to count the work done, under names starting with
+     * "discovery.", "load.", "parse." and "nodeset.ignore.".
+     * Should be called before adding any roots.
+     */
+    public void setMetrics(Metrics metrics) {
+        meters = new Meters(metrics);
     }
     
-    public void setDebugTrace(boolean enabled) {
-        traceEnabled = enabled;
+    /**
+     * Keeps what {@link #replaceClass(String)} needs, which is mostly the calls of every
+     * method whose calls have been recorded. Costs some memory for each such method.
+     * Should be called before adding any roots.
+     */
+    public void setIncremental(boolean enabled) {
+        incremental = enabled;
     }
     
     public void addRoot(Root root) throws Exception {
-        String className = root.getClassName();
+        addRoots(Collections.singletonList(root));
+    }
+    
+    /**
+     * Adds many roots in one go. Each root class is discovered and its methods are
+     * matched against all of its roots at once, and then everything the roots reach
+     * is processed together. With several discovery threads, the root classes are
+     * all prefetched up front.
+     * 
+     * If a root class doesn't exist, the other roots are still added before
+     * {@link RootClassNotFoundException} is thrown, and the graph stays usable.
+     */
+    public void addRoots(Collection<Root> roots) throws Exception {
+        long start = meters.build.start();
         try {
-            if (!shouldIgnoreClass(className)) {
+            Map<String, List<Root>> rootsByClass = RootMethods.byClass(roots);
+            for (String className : rootsByClass.keySet()) {
                 if (classNotYetDiscovered(className)) {
-                    discoverClass(className);
+                    prefetchClass(className);
                 }
-                enqueueMethodsInRoot(root);
             }
-        } catch (ClassNotFoundException e) {
-            throw new IllegalArgumentException("Class not found: " + className, e);
+            
+            ClassNotFoundException missing = null;
+            String missingName = null;
+            for (Map.Entry<String, List<Root>> entry : rootsByClass.entrySet()) {
+                String className = entry.getKey();
+                if (shouldIgnoreClass(className)) {
+                    continue;
+                }
+                try {
+                    if (!callGraph.hasClass(className)) {
+                        discoverClass(className);
+                    }
+                } catch (ClassNotFoundException e) {
+                    if (missing == null) {
+                        missing = e;
+                        missingName = className;
+                    }
+                    continue;
+                }
+                enqueueMethodsInRoots(callGraph.getClass(className), entry.getValue());
+                if (incremental) {
+                    addedRoots.addAll(entry.getValue());
+                }
+            }
+            
+            mainLoop();
+            if (missing != null) {
+                throw new RootClassNotFoundException(missingName, missing);
+            }
+        } finally {
+            releaseClassFiles();
+            meters.flush();
+            meters.build.stop(start);
+            trace.flush();
         }
-        
-        mainLoop();
     }
     
     public BasicCallGraphAnalysis getResult() {
         return result;
     }
     
+    /**
+     * Updates the graph after a class file has changed, instead of building it again.
+     * 
+     * The class is read again from the class file loader, which must not return the old bytes.
+     * Methods keep their nodes if their name and descriptor stay the same, and their calls
+     * are recorded again from the new bytecode. Methods the class no longer declares are
+     * taken out of it. Calls from other methods that now resolve differently, such as to a
+     * method the class added or dropped, are recorded again too. Anything newly reachable
+     * is discovered as by {@link #addRoot(Root)}. Methods that are no longer called keep
+     * their calls, since the graph never forgets what a root once reached.
+     * 
+     * Returns the methods whose calls or flags may have changed, for
+     * {@link org.javaportability.analysis.StrictfpSafetyAnalyzer#invalidate(Collection)}.
+     * Does nothing for a class that isn't in the graph.
+     * 
+     * Requires {@link #setIncremental(boolean)}. A class whose superclass or interfaces
+     * changed can't be replaced, nor can one that other classes call in ways it no longer
+     * supports. Both throw {@link IllegalArgumentException}, after which the graph must be
+     * built again, as it must after any other exception.
+     */
+    public Set<MethodNode> replaceClass(String internalName) throws ClassNotFoundException, IOException {
+        if (!incremental) {
+            throw new IllegalStateException("Replacing classes requires incremental mode");
+        }
+        Set<MethodNode> changed = new MethodNodeSet(callGraph);
+        ClassNode cls = callGraph.tryGetClass(internalName);
+        if (cls == null) {
+            return changed;
+        }
+        
+        long start = meters.build.start();
+        changedMethods = changed;
+        try {
+            LoadedClass loaded = readClass(internalName);
+            if (hierarchyChanged(cls, loaded.facts)) {
+                throw new IllegalArgumentException("Superclass or interfaces of " + internalName + " changed");
+            }
+            trace.log(Level.INFO, "Replacing class {}", internalName);
+            
+            MethodNodeSet redo = new MethodNodeSet(callGraph); // Methods whose calls get recorded again
+            HashMap<String, MethodNode> oldMethods = new HashMap<String, MethodNode>();
+            for (MethodNode method : cls.getLocalMethods()) {
+                oldMethods.put(method.getName() + method.getDesc(), method);
+            }
+            List<MethodNode> newlyDispatchable = new ArrayList<MethodNode>();
+            unparsedClasses.remove(cls);
+            for (MethodFacts mf : loaded.facts.methods) {
+                if (shouldIgnoreMethod(new MethodPath(internalName, mf.name, mf.desc))) {
+                    continue;
+                }
+                MethodNode method = oldMethods.remove(mf.name + mf.desc);
+                boolean wasDispatchable = false;
+                if (method == null) {
+                    method = cls.addMethod(mf.name, new MethodType(mf.desc));
+                } else {
+                    wasDispatchable = !undispatchableMethods.contains(method);
+                    if (scheduledMethods.contains(method)) {
+                        redo.add(method);
+                    }
+                    forgetMethodFacts(method);
+                }
+                recordMethodFacts(method, mf, loaded.reader);
+                boolean dispatchable = !undispatchableMethods.contains(method);
+                if (dispatchable && !wasDispatchable) {
+                    newlyDispatchable.add(method);
+                } else if (wasDispatchable && !dispatchable) {
+                    addCallers(method, redo); // Their calls to it as an override are gone
+                }
+                changed.add(method);
+            }
+            Collection<MethodNode> removed = oldMethods.values();
+            
+            for (MethodNode method : removed) {
+                addCallers(method, redo);
+            }
+            addCallersOfChangedPaths(cls, removed, redo);
+            
+            for (MethodNode method : removed) {
+                redo.remove(method);
+                forgetMethodFacts(method);
+                callGraph.clearOutgoingCalls(method);
+                changed.add(method);
+            }
+            for (MethodNode method : redo) {
+                callGraph.clearOutgoingCalls(method);
+                scheduledMethods.remove(method);
+                result.basicAnalysisDoneMethods.remove(method);
+                changed.add(method);
+            }
+            if (virtualDispatch) {
+                forgetVirtualCalls(changed);
+            }
+            for (MethodNode method : removed) {
+                cls.removeMethod(method);
+            }
+            
+            if (virtualDispatch) {
+                addCallsFromEarlierVirtualCallers(cls, newlyDispatchable);
+            }
+            for (MethodNode method : redo) {
+                enqueueMethod(method);
+            }
+            for (Map.Entry<String, List<Root>> entry : RootMethods.byClass(addedRoots).entrySet()) {
+                ClassNode rootClass = callGraph.tryGetClass(entry.getKey());
+                if (rootClass != null && rootClass.getHierarchy().contains(cls)) {
+                    enqueueMethodsInRoots(rootClass, entry.getValue());
+                }
+            }
+            mainLoop();
+        } finally {
+            changedMethods = null;
+            releaseClassFiles();
+            meters.flush();
+            meters.build.stop(start);
+            trace.flush();
+        }
+        return changed;
+    }
+    
+    private boolean hierarchyChanged(ClassNode cls, ClassFacts facts) {
+        List<String> before = new ArrayList<String>();
+        if (cls.getSuperclass() != null) {
+            before.add(cls.getSuperclass().getName());
+        }
+        for (ClassNode iface : cls.getLocalInterfaces()) {
+            before.add(iface.getName());
+        }
+        List<String> after = new ArrayList<String>();
+        if (facts.superName != null && !shouldIgnoreClass(facts.superName)) {
+            after.add(facts.superName);
+        }
+        for (String interfaceName : facts.interfaces) {
+            if (!shouldIgnoreClass(interfaceName)) {
+                after.add(interfaceName);
+            }
+        }
+        return !before.equals(after);
+    }
+    
+    private static void addCallers(MethodNode method, Set<MethodNode> callers) {
+        for (CallSite call : method.getIncomingCalls()) {
+            callers.add(call.getFrom());
+        }
+    }
+    
+    /**
+     * Finds the calls made through a replaced class or its subtypes that resolve
+     * to a different method now, forgets how they resolved and adds their callers.
+     * The removed methods are still in the class at this point.
+     */
+    private void addCallersOfChangedPaths(ClassNode cls, Collection<MethodNode> removed, Set<MethodNode> callers) {
+        HashSet<String> affectedClasses = new HashSet<String>();
+        LinkedList<ClassNode> queue = new LinkedList<ClassNode>();
+        queue.add(cls);
+        while (!queue.isEmpty()) {
+            ClassNode c = queue.remove();
+            if (affectedClasses.add(c.getName())) {
+                queue.addAll(c.getDirectSubtypes());
+            }
+        }
+        
+        HashSet<MethodPath> changedPaths = new HashSet<MethodPath>();
+        MethodNodeSet oldTargets = new MethodNodeSet(callGraph);
+        for (Iterator<Map.Entry<MethodPath, MethodNode>> it = resolvedMethods.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<MethodPath, MethodNode> entry = it.next();
+            MethodPath path = entry.getKey();
+            if (!affectedClasses.contains(path.getOwner())) {
+                continue;
+            }
+            ClassNode owner = callGraph.getClass(path.getOwner());
+            MethodNode target = owner.tryGetMethod(path.getName(), new MethodType(path.getDesc()));
+            if (target != entry.getValue() || removed.contains(target)) {
+                changedPaths.add(path);
+                oldTargets.add(entry.getValue());
+                it.remove();
+            }
+        }
+        
+        for (MethodNode target : oldTargets) {
+            for (CallSite call : target.getIncomingCalls()) {
+                MethodNode caller = call.getFrom();
+                for (CallFacts cf : methodFacts.get(caller).calls) {
+                    if (changedPaths.contains(cf.callee)) {
+                        callers.add(caller);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Forgets the virtual calls made by methods whose calls are about to be recorded again.
+     */
+    private void forgetVirtualCalls(Set<MethodNode> callers) {
+        for (List<CallSite> callSites : virtualCalls.values()) {
+            for (Iterator<CallSite> it = callSites.iterator(); it.hasNext(); ) {
+                if (callers.contains(it.next().getFrom())) {
+                    it.remove();
+                }
+            }
+        }
+    }
+    
     private void mainLoop() throws ClassNotFoundException, IOException {
         try {
             while (true) {
-                if (!classDiscoveryQueue.isEmpty()) {
+                if (!parsingMethods.isEmpty()) {
+                    finishParsingMethods();
+                } else if (!classDiscoveryQueue.isEmpty()) {
                     workClassDiscoveryQueue();
                 } else if (!methodQueue.isEmpty()) {
                     workMethodQueue();
@@ -88,8 +473,160 @@ public class CallGraphBuilder extends EmptyVisitor {
                 throw (IOException)e.getCause();
             }
         }
+        if (!waitingForClass.isEmpty()) {
+            throw new IllegalStateException("Methods still waiting for classes " + waitingForClass.keySet());
+        }
     }
-
+    
+    private void enqueueClassDiscovery(String internalName) {
+        if (requestedClasses.add(internalName)) {
+            classDiscoveryQueue.add(internalName);
+            meters.classQueueMax = Math.max(meters.classQueueMax, classDiscoveryQueue.size());
+            prefetchClass(internalName);
+        }
+    }
+    
+    /**
+     * Schedules a method to have its calls recorded once the classes it calls are all discovered.
+     * 
+     * Discovery of the missing classes is requested right away, and the method waits with a count
+     * of how many are still missing. Each discovered class counts down its waiting methods,
+     * so no method's calls are scanned more than once.
+     * 
+     * With discovery threads, the method waits in {@link #parsingMethods} so that
+     * {@link #finishParsingMethods()} can parse the bodies of several methods at once.
+     */
+    private void enqueueMethod(MethodNode node) throws ClassNotFoundException, IOException {
+        MethodFacts facts = methodFacts.get(node);
+        if (facts == null || scheduledMethods.contains(node)) {
+            return; // Already analyzed or scheduled
+        }
+        scheduledMethods.add(node);
+        if (discoveryExecutor != null) {
+            parsingMethods.add(new ParsingMethod(node, facts, startParsingBody(node, facts)));
+        } else {
+            ensureBodyParsed(node, facts);
+            enqueueParsedMethod(node, facts);
+        }
+    }
+    
+    /**
+     * Parses the bodies of the methods enqueued since the last call and schedules the methods.
+     * 
+     * The bodies are split into a share for each discovery thread. The building thread parses
+     * the first share itself, so one body alone is never handed to another thread.
+     * The methods are scheduled in the order they were enqueued, and before the graph
+     * gains another class, so the queues end up just as if each body had been parsed
+     * when its method was enqueued.
+     */
+    private void finishParsingMethods() throws ClassNotFoundException, IOException {
+        if (parsingMethods.isEmpty()) {
+            return;
+        }
+        List<ParsingMethod> unparsed = new ArrayList<ParsingMethod>();
+        for (ParsingMethod parsing : parsingMethods) {
+            if (parsing.unparsed != null) {
+                unparsed.add(parsing);
+            }
+        }
+        // Parsing only takes processor time, unlike loading, so more shares than processors don't help.
+        int threads = Math.min(discoveryExecutor.getCorePoolSize(), Runtime.getRuntime().availableProcessors());
+        int share = (unparsed.size() + threads - 1) / threads;
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+        for (int from = share; from < unparsed.size(); from += share) {
+            FutureTask<Void> task = new FutureTask<Void>(new BodyParser(unparsed.subList(from, Math.min(from + share, unparsed.size()))), null);
+            discoveryExecutor.execute(task);
+            tasks.add(task);
+            meters.backgroundBodies.add(Math.min(share, unparsed.size() - from));
+        }
+        new BodyParser(unparsed.subList(0, Math.min(share, unparsed.size()))).run();
+        
+        long start = meters.parseWait.start();
+        try {
+            for (FutureTask<Void> task : tasks) {
+                join(task, "method bodies");
+            }
+        } finally {
+            meters.parseWait.stop(start);
+        }
+        
+        while (!parsingMethods.isEmpty()) {
+            ParsingMethod parsing = parsingMethods.remove();
+            if (parsing.unparsed != null) {
+                finishParsingBody(parsing.method, parsing.facts, parsing.unparsed, parsing.parsed);
+            }
+            enqueueParsedMethod(parsing.method, parsing.facts);
+        }
+    }
+    
+    /**
+     * Parses a share of the bodies waiting in {@link #parsingMethods}.
+     */
+    private class BodyParser implements Runnable {
+        private final List<ParsingMethod> methods;
+        
+        public BodyParser(List<ParsingMethod> methods) {
+            this.methods = methods;
+        }
+        
+        @Override
+        public void run() {
+            for (ParsingMethod parsing : methods) {
+                parsing.parsed = parseBody(parsing.method.getOwner().getName(), parsing.unparsed.reader, parsing.facts);
+            }
+        }
+    }
+    
+    private void enqueueParsedMethod(MethodNode node, MethodFacts facts) {
+        int missing = 0;
+        for (CallFacts call : facts.calls) {
+            String owner = call.callee.getOwner();
+            if (!classNotYetDiscovered(owner)) {
+                continue;
+            }
+            List<MethodNode> waiting = waitingForClass.get(owner);
+            if (waiting == null) {
+                waiting = new ArrayList<MethodNode>(2);
+                waitingForClass.put(owner, waiting);
+            } else if (waiting.get(waiting.size() - 1) == node) {
+                continue; // Another call to the same class
+            }
+            waiting.add(node);
+            ++missing;
+            enqueueClassDiscovery(owner);
+        }
+        
+        if (missing == 0) {
+            methodQueue.add(node);
+            meters.methodQueueMax = Math.max(meters.methodQueueMax, methodQueue.size());
+        } else {
+            ++meters.deferredMethods;
+            if (trace.isEnabled(Level.DEBUG)) {
+                trace.log(Level.DEBUG, "Undiscovered callee classes for {}: {}", node, missing);
+            }
+            if (node.getId() >= missingClassCounts.length) {
+                missingClassCounts = Arrays.copyOf(missingClassCounts, Math.max(node.getId() + 1, missingClassCounts.length * 2));
+            }
+            missingClassCounts[node.getId()] = missing;
+        }
+    }
+    
+    /**
+     * Lets the methods waiting for a newly discovered class proceed if it was the last one they needed.
+     */
+    private void classDiscovered(String internalName) {
+        List<MethodNode> waiting = waitingForClass.remove(internalName);
+        if (waiting == null) {
+            return;
+        }
+        for (MethodNode node : waiting) {
+            if (--missingClassCounts[node.getId()] == 0) {
+                methodQueue.add(node);
+                meters.methodQueueMax = Math.max(meters.methodQueueMax, methodQueue.size());
+            }
+        }
+    }
+    
     private void workClassDiscoveryQueue() throws ClassNotFoundException, IOException {
         String internalName = classDiscoveryQueue.remove();
         if (!callGraph.hasClass(internalName)) {
@@ -97,12 +634,11 @@ public class CallGraphBuilder extends EmptyVisitor {
         }
     }
     
-    private void workMethodQueue() {
-        MethodPath m = methodQueue.peek();
-        trace("Trying to process " + m);
-        if (tryProcessMethod(m)) {
-            methodQueue.remove();
-        }
+    private void workMethodQueue() throws ClassNotFoundException, IOException {
+        MethodNode m = methodQueue.remove();
+        ++meters.processedMethods;
+        trace.log(Level.INFO, "Processing {}", m);
+        processCallsFromMethod(m);
     }
     
     private boolean classNotYetDiscovered(String className) {
@@ -110,259 +646,663 @@ public class CallGraphBuilder extends EmptyVisitor {
     }
     
     private boolean shouldIgnoreClass(String className) {
-        return ignoreSet.containsClass(className);
+        return countIgnoreCheck(ignoreSet.containsClass(className));
     }
     
     private boolean shouldIgnoreMethod(MethodPath path) {
-        return ignoreSet.containsMethod(path);
+        return countIgnoreCheck(ignoreSet.containsMethod(path));
     }
     
-    private void enqueueMethodsInRoot(Root root) {
-        for (MethodNode method : callGraph.getClass(root.getClassName()).getMethodsIncludingInherited()) {
-            boolean nameMatches = root.getMethodPattern().matcher(method.getName()).matches();
-            boolean descMatches = root.getMethodDescPattern().matcher(method.getDesc()).matches();
-            if (nameMatches && descMatches) {
-                methodQueue.add(method.getPath());
-                trace("Enqueued method " + method);
-            }
+    private boolean countIgnoreCheck(boolean ignored) {
+        ++meters.ignoreChecks;
+        if (ignored) {
+            ++meters.ignoreHits;
+        }
+        return ignored;
+    }
+    
+    private void enqueueMethodsInRoots(ClassNode cls, List<Root> classRoots) throws ClassNotFoundException, IOException {
+        for (MethodNode method : RootMethods.findIncludingInherited(cls, classRoots)) {
+            enqueueMethod(method);
+            trace.log(Level.INFO, "Enqueued method {}", method);
         }
     }
     
     private ClassNode discoverClass(String internalName) throws ClassNotFoundException, IOException {
         if (!isBasicArrayClass(internalName) && !shouldIgnoreClass(internalName)) {
-            trace("Discovering class " + internalName);
+            trace.log(Level.INFO, "Discovering class {}", internalName);
+            return addClassToGraph(obtainClass(internalName));
+        } else {
+            return null;
+        }
+    }
+    
+    private ClassNode addClassToGraph(LoadedClass loaded) throws ClassNotFoundException, IOException {
+        ClassFacts facts = loaded.facts;
+        ClassNode superNode = getDependency(facts.superName);
+        finishParsingMethods(); // Methods enqueued so far count this class as missing
+        ClassNode cls = callGraph.addClass(facts.name, superNode);
+        ++meters.discoveredClasses;
+        for (String interfaceName : facts.interfaces) {
+            ClassNode interfaceNode = getDependency(interfaceName);
+            if (interfaceNode != null) { // Null if ignored
+                cls.addInterface(interfaceNode);
+            }
+        }
+        
+        for (MethodFacts mf : facts.methods) {
+            if (shouldIgnoreMethod(new MethodPath(facts.name, mf.name, mf.desc))) {
+                trace.log(Level.DEBUG, "Ignored method {} :: {} {}", facts.name, mf.name, mf.desc);
+                continue;
+            }
+            
+            trace.log(Level.DEBUG, "Discovered method {} :: {} {}", facts.name, mf.name, mf.desc);
             
-            ClassReader reader = classFileLoader.loadClass(internalName);
-            ClassDiscoverer discoverer = new ClassDiscoverer();
-            reader.accept(discoverer, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-            return discoverer.getClassNode();
+            MethodNode method = cls.addMethod(mf.name, new MethodType(mf.desc));
+            recordMethodFacts(method, mf, loaded.reader);
+        }
+        
+        finishParsingMethods(); // Interfaces may have enqueued methods waiting for this class
+        classDiscovered(facts.name);
+        if (virtualDispatch) {
+            addCallsFromEarlierVirtualCallers(cls, cls.getLocalMethods());
+        }
+        
+        return cls;
+    }
+    
+    private void recordMethodFacts(MethodNode method, MethodFacts mf, ClassReader reader) {
+        if (isStrictfp(mf.access)) {
+            result.strictfpMethods.add(method);
+        }
+        if (isNative(mf.access)) {
+            result.nativeMethods.add(method);
+        }
+        if (mf.bodyParsed) {
+            recordBodyFacts(method, mf);
         } else {
+            UnparsedClass unparsed = unparsedClasses.get(method.getOwner());
+            if (unparsed == null || unparsed.reader != reader) {
+                unparsed = new UnparsedClass(reader);
+                unparsedClasses.put(method.getOwner(), unparsed);
+            }
+            unparsed.methods++;
+        }
+        if (!isDispatchable(mf.name, mf.access)) {
+            undispatchableMethods.add(method);
+        }
+        methodFacts.put(method, mf);
+    }
+    
+    /**
+     * Undoes {@link #recordMethodFacts} and forgets that the method's calls were recorded.
+     */
+    private void forgetMethodFacts(MethodNode method) {
+        result.strictfpMethods.remove(method);
+        result.nativeMethods.remove(method);
+        result.localFpMathMethods.remove(method);
+        result.basicAnalysisDoneMethods.remove(method);
+        undispatchableMethods.remove(method);
+        scheduledMethods.remove(method);
+        methodFacts.remove(method);
+    }
+    
+    private ClassNode getDependency(String superName) throws ClassNotFoundException, IOException {
+        ClassNode depNode = null;
+        if (superName != null) {
+            if (callGraph.hasClass(superName)) {
+                depNode = callGraph.getClass(superName);
+            } else {
+                depNode = discoverClass(superName);
+            }
+        }
+        return depNode;
+    }
+    
+    private boolean isDispatchable(String name, int access) {
+        return (access & (ACC_STATIC | ACC_PRIVATE)) == 0 && !name.equals("<init>") && !name.equals("<clinit>");
+    }
+    
+    private boolean isStrictfp(int access) {
+        return (access & ACC_STRICT) != 0;
+    }
+    
+    private boolean isNative(int access) {
+        return (access & ACC_NATIVE) != 0;
+    }
+    
+    private void recordBodyFacts(MethodNode method, MethodFacts mf) {
+        if (mf.localFpMath) {
+            result.localFpMathMethods.add(method);
+        }
+    }
+    
+    /**
+     * Parses a method's body if that hasn't been done yet.
+     * 
+     * Discovering a class only reads its method signatures.
+     * Most methods of most classes are never reached, so their bodies are never parsed.
+     * The body is read straight from the method's code, without visiting the rest of the class.
+     */
+    private void ensureBodyParsed(MethodNode method, MethodFacts mf) throws ClassNotFoundException, IOException {
+        if (mf.bodyParsed) {
+            return;
+        }
+        trace.log(Level.INFO, "Parsing body of {}", method);
+        UnparsedClass unparsed = getUnparsedClass(method.getOwner());
+        finishParsingBody(method, mf, unparsed, parseBody(method.getOwner().getName(), unparsed.reader, mf));
+    }
+    
+    /**
+     * Finds or reads again the class file for parsing a method's body later,
+     * or returns null if the body has already been parsed.
+     */
+    private UnparsedClass startParsingBody(MethodNode method, MethodFacts mf) throws ClassNotFoundException, IOException {
+        if (mf.bodyParsed) {
             return null;
         }
+        trace.log(Level.INFO, "Parsing body of {}", method);
+        return getUnparsedClass(method.getOwner());
     }
     
-    private static final Pattern arrayClassRegex = Pattern.compile("^\\[+.$");
+    private UnparsedClass getUnparsedClass(ClassNode cls) throws ClassNotFoundException, IOException {
+        UnparsedClass unparsed = unparsedClasses.get(cls);
+        if (unparsed == null) {
+            unparsed = rereadClass(cls);
+        }
+        return unparsed;
+    }
     
-    private boolean isBasicArrayClass(String internalName) {
-        return arrayClassRegex.matcher(internalName).matches();
+    /**
+     * Parses a method's body into new facts, leaving the method's own facts alone.
+     * May be called from any thread.
+     */
+    private MethodFacts parseBody(String owner, ClassReader reader, MethodFacts mf) {
+        long start = meters.parseBodies.start();
+        int methodPos = MethodCode.findMethod(reader, mf.index);
+        if (methodPos == -1 || !MethodCode.hasSignature(reader, methodPos, mf.name, mf.desc)) {
+            throw new IllegalStateException("Class file of " + owner + " changed since the class was discovered");
+        }
+        MethodFacts parsed = new MethodFacts(mf.name, mf.desc, mf.access);
+        MethodCode.parse(reader, methodPos, parsed, calleePaths);
+        meters.parseBodies.stop(start);
+        return parsed;
     }
     
-    private boolean tryProcessMethod(MethodPath methodPath) {
-        if (!callGraph.hasClass(methodPath.getOwner())) {
-            trace("Class owning method " + methodPath + " not yet discovered");
-            classDiscoveryQueue.add(methodPath.getOwner());
-            return false;
+    private void finishParsingBody(MethodNode method, MethodFacts mf, UnparsedClass unparsed, MethodFacts parsed) {
+        if (trace.isEnabled(Level.DEBUG)) {
+            for (CallFacts call : parsed.calls) {
+                trace.log(Level.DEBUG, "Found call from {} to {}", method, call.callee);
+            }
         }
         
-        MethodNode methodNode = getMethodNode(methodPath);
+        // Cached facts may be shared with other builders, so fill them in all at once.
+        mf.calls = parsed.calls;
+        mf.localFpMath = parsed.localFpMath;
+        mf.bodyParsed = true;
+        if (factsCache != null) {
+            factsCache.markModified();
+        }
+        recordBodyFacts(method, mf);
+        if (--unparsed.methods <= 0) {
+            unparsedClasses.remove(method.getOwner());
+        }
+    }
+    
+    /**
+     * Reads a class file again to parse bodies that weren't reached in the pass that discovered it.
+     * Keeps it until the end of this pass or until its remaining bodies are parsed.
+     */
+    private UnparsedClass rereadClass(ClassNode cls) throws ClassNotFoundException, IOException {
+        long start = meters.load.start();
+        UnparsedClass unparsed = new UnparsedClass(classFileLoader.loadClass(cls.getName()));
+        meters.load.stop(start);
+        meters.loadedBytes.add(unparsed.reader.b.length);
+        meters.countLoad(loadSource(cls.getName()));
+        meters.rereadClasses.increment();
+        for (MethodNode method : cls.getLocalMethods()) {
+            MethodFacts mf = methodFacts.get(method);
+            if (mf != null && !mf.bodyParsed) {
+                unparsed.methods++;
+            }
+        }
+        unparsedClasses.put(cls, unparsed);
+        return unparsed;
+    }
+    
+    /**
+     * Releases the class files kept for parsing bodies. Called at the end of each pass,
+     * so a resident builder doesn't keep every class file it has read.
+     * Methods whose bodies are about to be parsed are only left over if the pass failed.
+     */
+    private void releaseClassFiles() {
+        unparsedClasses.clear();
+        parsingMethods.clear();
+    }
+    
+    /**
+     * A class file kept while some of its methods' bodies haven't been parsed.
+     */
+    private static class UnparsedClass {
+        public final ClassReader reader;
+        public int methods; // Unparsed bodies of recorded methods
+        
+        public UnparsedClass(ClassReader reader) {
+            this.reader = reader;
+            this.methods = 0;
+        }
+    }
+    
+    /**
+     * A scheduled method whose body is about to be parsed, or was already parsed if its class file is null.
+     */
+    private static class ParsingMethod {
+        public final MethodNode method;
+        public final MethodFacts facts;
+        public final UnparsedClass unparsed;
+        public MethodFacts parsed; // Set by a BodyParser
+        
+        public ParsingMethod(MethodNode method, MethodFacts facts, UnparsedClass unparsed) {
+            this.method = method;
+            this.facts = facts;
+            this.unparsed = unparsed;
+        }
+    }
+    
+    /**
+     * A class file's bytes and what has been read out of it so far.
+     */
+    private static class LoadedClass {
+        public final ClassFacts facts;
+        public final ClassReader reader;
         
-        if (result.basicAnalysisDoneMethods.contains(methodNode)) {
-            trace("Already analyzed method " + methodPath);
-            return true;
+        public LoadedClass(ClassFacts facts, ClassReader reader) {
+            this.facts = facts;
+            this.reader = reader;
+        }
+    }
+    
+    private LoadedClass obtainClass(String internalName) throws ClassNotFoundException, IOException {
+        FutureTask<LoadedClass> task = null;
+        if (discoveryExecutor != null) {
+            task = prefetchedClasses.put(internalName, DISCOVERED);
+        }
+        if (task == null || task == DISCOVERED) {
+            return readClass(internalName);
+        }
+        
+        meters.prefetched.increment();
+        long start = meters.prefetchWait.start();
+        try {
+            return join(task, "class " + internalName);
+        } finally {
+            meters.prefetchWait.stop(start);
+        }
+    }
+    
+    /**
+     * Gets the result of work handed to the discovery threads,
+     * doing it on this thread if no worker has started it yet.
+     */
+    private static <T> T join(FutureTask<T> task, String what) throws ClassNotFoundException, IOException {
+        task.run(); // No-op if a worker has already started it
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + what);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException)cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new CheckedExceptionWrapper(cause);
+            }
+        }
+    }
+    
+    /**
+     * Names where a loaded class came from, for counting loads per loader.
+     * The indexed loader stands in for the runtime image, jars, jmods and directories,
+     * so its classes are counted by which of those they come from.
+     */
+    private String loadSource(String internalName) {
+        if (classFileLoader instanceof IndexedClassPathClassFileLoader) {
+            String source = ((IndexedClassPathClassFileLoader)classFileLoader).getSource(internalName);
+            if (source != null) {
+                return source;
+            }
+        }
+        String name = classFileLoader.getClass().getSimpleName();
+        return (name.length() > 0) ? name : classFileLoader.getClass().getName();
+    }
+    
+    private LoadedClass readClass(String internalName) throws ClassNotFoundException, IOException {
+        long start = meters.load.start();
+        ClassReader reader = classFileLoader.loadClass(internalName);
+        meters.load.stop(start);
+        meters.loadedBytes.add(reader.b.length);
+        meters.countLoad(loadSource(internalName));
+        if (factsCache == null) {
+            return new LoadedClass(parseClassFacts(reader), reader);
         }
         
-        if (enqueueUndiscoveredCalleeClasses(methodNode) == 0) {
-            processCallsFromMethod(methodNode);
-            return true;
+        byte[] hash = ClassFactsCache.hash(reader.b);
+        ClassFacts facts = factsCache.get(internalName, hash);
+        if (facts != null) {
+            meters.cachedFacts.increment();
+            trace.log(Level.INFO, "Using cached facts for class {}", internalName);
         } else {
-            trace("Undiscovered callee classes for " + methodPath);
-            return false;
+            facts = parseClassFacts(reader);
+            factsCache.put(internalName, hash, facts);
         }
+        return new LoadedClass(facts, reader);
     }
     
-    private MethodNode getMethodNode(MethodPath methodPath) {
-        ClassNode cls = callGraph.getClass(methodPath.getOwner());
-        return cls.getMethod(methodPath.getName(), new MethodType(methodPath.getDesc()));
+    /**
+     * Reads a class's header and method signatures, leaving the method bodies for later.
+     */
+    private ClassFacts parseClassFacts(ClassReader reader) {
+        long start = meters.parseClasses.start();
+        ClassDiscoverer discoverer = new ClassDiscoverer();
+        reader.accept(discoverer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        meters.parseClasses.stop(start);
+        return discoverer.getClassFacts();
     }
-
-    private int enqueueUndiscoveredCalleeClasses(MethodNode methodNode) {
-        List<MethodPath> calls = unanalyzedCalls.get(methodNode);
-        if (calls == null) {
-            return 0;
+    
+    /**
+     * Starts reading a class in the background if not already started.
+     * May be called from any thread.
+     */
+    private void prefetchClass(final String internalName) {
+        // Not counted in the metrics, since this may run on a discovery thread.
+        if (discoveryExecutor == null || isBasicArrayClass(internalName) || ignoreSet.containsClass(internalName)) {
+            return;
+        }
+        if (prefetchedClasses.containsKey(internalName)) {
+            return;
+        }
+        
+        FutureTask<LoadedClass> task = new FutureTask<LoadedClass>(new Callable<LoadedClass>() {
+            @Override
+            public LoadedClass call() throws Exception {
+                LoadedClass loaded = readClass(internalName);
+                ClassFacts facts = loaded.facts;
+                // Superclasses and interfaces will certainly be needed too.
+                if (facts.superName != null) {
+                    prefetchClass(facts.superName);
+                }
+                for (String interfaceName : facts.interfaces) {
+                    prefetchClass(interfaceName);
+                }
+                return loaded;
+            }
+        });
+        if (prefetchedClasses.putIfAbsent(internalName, task) == null) {
+            discoveryExecutor.execute(task);
+        }
+    }
+    
+    private static final FutureTask<LoadedClass> DISCOVERED = new FutureTask<LoadedClass>(new Runnable() {
+        @Override
+        public void run() {
+        }
+    }, null);
+    
+    static {
+        DISCOVERED.run();
+    }
+    
+    private static class DiscoveryThreadFactory implements ThreadFactory {
+        private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = defaultFactory.newThread(r);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+    
+    /**
+     * The builder's counters, looked up in the {@link Metrics} once.
+     * 
+     * Loading classes and parsing their headers and method bodies may happen on discovery threads,
+     * so those count straight into the metrics. The rest is counted in plain fields
+     * by the building thread, which are added to the metrics after each root.
+     */
+    private static class Meters {
+        public final Timer build;
+        public final Timer load;
+        public final Counter loadedBytes;
+        public final Counter cachedFacts;
+        public final Timer parseClasses;
+        public final Timer parseBodies;
+        public final Counter rereadClasses;
+        public final Counter prefetched;
+        public final Timer prefetchWait;
+        public final Timer parseWait;
+        public final Counter backgroundBodies;
+        
+        public long discoveredClasses;
+        public long processedMethods;
+        public long deferredMethods; // Had to wait for callee classes
+        public long hierarchyLookups;
+        public long ignoreChecks;
+        public long ignoreHits;
+        public long classQueueMax;
+        public long methodQueueMax;
+        private final Counter discoveredClassesTotal;
+        private final Counter processedMethodsTotal;
+        private final Counter deferredMethodsTotal;
+        private final Counter hierarchyLookupsTotal;
+        private final Counter ignoreChecksTotal;
+        private final Counter ignoreHitsTotal;
+        private final Counter classQueueMaxTotal;
+        private final Counter methodQueueMaxTotal;
+        private final Metrics metrics;
+        private final ConcurrentHashMap<String, Counter> loadsBySource;
+        
+        public Meters(Metrics m) {
+            this.metrics = m;
+            this.loadsBySource = new ConcurrentHashMap<String, Counter>();
+            this.build = m.timer("discovery.time");
+            this.load = m.timer("load.classes");
+            this.loadedBytes = m.counter("load.bytes");
+            this.cachedFacts = m.counter("load.cachedFacts");
+            this.parseClasses = m.timer("parse.classHeaders");
+            this.parseBodies = m.timer("parse.methodBodies");
+            this.rereadClasses = m.counter("load.rereadClasses");
+            this.prefetched = m.counter("discovery.prefetched");
+            this.prefetchWait = m.timer("discovery.prefetchWait");
+            this.parseWait = m.timer("discovery.parseWait");
+            this.backgroundBodies = m.counter("discovery.backgroundBodies");
+            this.discoveredClassesTotal = m.counter("discovery.classes");
+            this.processedMethodsTotal = m.counter("discovery.methods");
+            this.deferredMethodsTotal = m.counter("discovery.deferredMethods");
+            this.hierarchyLookupsTotal = m.counter("discovery.hierarchyLookups");
+            this.ignoreChecksTotal = m.counter("nodeset.ignore.checks");
+            this.ignoreHitsTotal = m.counter("nodeset.ignore.hits");
+            this.classQueueMaxTotal = m.counter("discovery.classQueue.max");
+            this.methodQueueMaxTotal = m.counter("discovery.methodQueue.max");
         }
         
-        int count = 0;
-        for (MethodPath callee : calls) {
-            if (classNotYetDiscovered(callee.getOwner())) {
-                classDiscoveryQueue.add(callee.getOwner());
-                count += 1;
+        /**
+         * Counts a class loaded by a loader, under "load.from." and the loader's name.
+         * Called from discovery threads too.
+         */
+        public void countLoad(String source) {
+            Counter counter = loadsBySource.get(source);
+            if (counter == null) {
+                counter = metrics.counter("load.from." + source);
+                loadsBySource.put(source, counter);
             }
+            counter.increment();
         }
         
-        return count;
+        public void flush() {
+            discoveredClassesTotal.add(discoveredClasses);
+            processedMethodsTotal.add(processedMethods);
+            deferredMethodsTotal.add(deferredMethods);
+            hierarchyLookupsTotal.add(hierarchyLookups);
+            ignoreChecksTotal.add(ignoreChecks);
+            ignoreHitsTotal.add(ignoreHits);
+            classQueueMaxTotal.recordMax(classQueueMax);
+            methodQueueMaxTotal.recordMax(methodQueueMax);
+            discoveredClasses = 0;
+            processedMethods = 0;
+            deferredMethods = 0;
+            hierarchyLookups = 0;
+            ignoreChecks = 0;
+            ignoreHits = 0;
+        }
     }
     
-    private void processCallsFromMethod(MethodNode methodNode) {
+    private static final Pattern arrayClassRegex = Pattern.compile("^\\[+.$");
+    
+    private boolean isBasicArrayClass(String internalName) {
+        return arrayClassRegex.matcher(internalName).matches();
+    }
+    
+    /**
+     * Finds the method a call resolves to. The class must have been discovered.
+     * 
+     * A class's hierarchy and methods are complete as soon as it's in the graph,
+     * so each path is only looked up in the hierarchy once.
+     */
+    private MethodNode getMethodNode(MethodPath methodPath) {
+        MethodNode node = resolvedMethods.get(methodPath);
+        if (node == null) {
+            ++meters.hierarchyLookups;
+            ClassNode cls = callGraph.getClass(methodPath.getOwner());
+            node = cls.getMethod(methodPath.getName(), new MethodType(methodPath.getDesc()));
+            resolvedMethods.put(methodPath, node);
+        }
+        return node;
+    }
+    
+    private void processCallsFromMethod(MethodNode methodNode) throws ClassNotFoundException, IOException {
         result.basicAnalysisDoneMethods.add(methodNode);
         
-        List<MethodPath> calls = unanalyzedCalls.remove(methodNode);
+        MethodFacts facts = incremental ? methodFacts.get(methodNode) : methodFacts.remove(methodNode);
         
-        for (MethodPath callee : calls) {
+        for (CallFacts call : facts.calls) {
+            MethodPath callee = call.callee;
             if (shouldIgnoreMethod(callee)) {
                 continue;
             }
             
             MethodNode calleeNode = getMethodNode(callee);
-            callGraph.addCall(methodNode, calleeNode);
+            CallSite callSite = callGraph.addCall(methodNode, calleeNode, call.opcode, call.offset, call.count);
             
-            if (!result.basicAnalysisDoneMethods.contains(calleeNode)) {
-                methodQueue.add(callee);
-            }
+            enqueueMethod(calleeNode);
+            
+            trace.log(Level.DEBUG, "Recorded call from {} to {}", methodNode, calleeNode);
             
-            trace("Recorded call from " + methodNode + " to " + calleeNode);
+            if (virtualDispatch && call.isVirtual()) {
+                addVirtualCall(callSite, callee);
+            }
         }
     }
-
-    private class ClassDiscoverer extends EmptyVisitor {
-        
-        private ClassNode cls;
-        
-        public ClassDiscoverer() {
-            this.cls = null;
-        }
-
-        public ClassNode getClassNode() {
-            return cls;
+    
+    /**
+     * Remembers a virtual call for subtypes discovered later
+     * and adds calls to the overrides in the subtypes discovered so far.
+     */
+    private void addVirtualCall(CallSite callSite, MethodPath callee) throws ClassNotFoundException, IOException {
+        List<CallSite> callSites = virtualCalls.get(callee);
+        if (callSites == null) {
+            callSites = new ArrayList<CallSite>(1);
+            virtualCalls.put(callee, callSites);
         }
-
-        @Override
-        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-            if ((version & Opcodes.ACC_INTERFACE) == 0) { // Interfaces have Object as their superclass. We don't need that info in our callgraph.
-                ClassNode superNode = getDependency(superName);
-                cls = callGraph.addClass(name, superNode);
+        callSites.add(callSite);
+        
+        MethodType type = new MethodType(callee.getDesc());
+        HashSet<ClassNode> visited = new HashSet<ClassNode>();
+        LinkedList<ClassNode> queue = new LinkedList<ClassNode>(callGraph.getClass(callee.getOwner()).getDirectSubtypes());
+        while (!queue.isEmpty()) {
+            ClassNode sub = queue.remove();
+            if (!visited.add(sub)) {
+                continue;
             }
-            for (String interfaceName : interfaces) {
-                cls.addInterface(getDependency(interfaceName));
+            MethodNode override = sub.tryGetLocalMethod(callee.getName(), type);
+            if (override != null && !undispatchableMethods.contains(override)) {
+                addOverrideCall(callSite, override);
             }
+            queue.addAll(sub.getDirectSubtypes());
         }
-
-        private ClassNode getDependency(String superName) {
-            ClassNode depNode = null;
-            if (superName != null) {
-                if (callGraph.hasClass(superName)) {
-                    depNode = callGraph.getClass(superName);
-                } else {
-                    try {
-                        depNode = discoverClass(superName);
-                    } catch (ClassNotFoundException e) {
-                        throw new CheckedExceptionWrapper(e);
-                    } catch (IOException e) {
-                        throw new CheckedExceptionWrapper(e);
-                    }
-                }
-            }
-            return depNode;
+    }
+    
+    /**
+     * Adds calls to a class's newly discovered methods from virtual calls
+     * to the methods they override.
+     */
+    private void addCallsFromEarlierVirtualCallers(ClassNode cls, Collection<MethodNode> methods) throws ClassNotFoundException, IOException {
+        if (virtualCalls.isEmpty()) {
+            return;
         }
-        
-        @Override
-        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-            MethodPath path = new MethodPath(cls.getName(), name, desc);
-            if (shouldIgnoreMethod(path)) {
-                trace("Ignored method " + path);
-                return new EmptyVisitor();
-            }
-            
-            trace("Discovered method " + path);
-            
-            MethodNode method = cls.addMethod(name, new MethodType(desc));
-            if (isStrictfp(access)) {
-                result.strictfpMethods.add(method);
+        LinkedHashSet<ClassNode> ancestors = new LinkedHashSet<ClassNode>(cls.getHierarchy());
+        ancestors.remove(cls);
+        for (MethodNode method : methods) {
+            if (undispatchableMethods.contains(method)) {
+                continue;
             }
-            if (isNative(access)) {
-                result.nativeMethods.add(method);
+            for (ClassNode ancestor : ancestors) {
+                List<CallSite> callSites = virtualCalls.get(new MethodPath(ancestor.getName(), method.getName(), method.getDesc()));
+                if (callSites != null) {
+                    for (CallSite callSite : callSites) {
+                        addOverrideCall(callSite, method);
+                    }
+                }
             }
-            
-            return new MethodDiscoverer(method);
-        }
-        
-        private boolean isStrictfp(int access) {
-            return (access & ACC_STRICT) != 0;
-        }
-        
-        private boolean isNative(int access) {
-            return (access & ACC_NATIVE) != 0;
         }
     }
     
+    /**
+     * Adds a call to an override, standing for the same instructions as the call to the overridden method.
+     */
+    private void addOverrideCall(CallSite callSite, MethodNode override) throws ClassNotFoundException, IOException {
+        MethodNode caller = callSite.getFrom();
+        callGraph.addCall(caller, override, callSite.getOpcode(), callSite.getOffset(), callSite.getCount());
+        if (changedMethods != null) {
+            changedMethods.add(caller);
+        }
+        enqueueMethod(override);
+        trace.log(Level.DEBUG, "Recorded virtual call from {} to {}", caller, override);
+    }
     
-    private class MethodDiscoverer extends EmptyVisitor {
+    private class ClassDiscoverer extends EmptyVisitor {
         
-        private MethodNode methodNode;
-        private boolean foundFpMath;
-        private List<MethodPath> unanalyzedCallsForThis;
+        private ClassFacts facts;
+        private int methodIndex;
         
-        public MethodDiscoverer(MethodNode methodNode) {
-            this.methodNode = methodNode;
-            this.foundFpMath = false;
-            unanalyzedCallsForThis = new LinkedList<MethodPath>();
-            unanalyzedCalls.put(methodNode, unanalyzedCallsForThis);
+        public ClassDiscoverer() {
+            this.facts = null;
+            this.methodIndex = 0;
         }
         
-        @Override
-        public void visitMethodInsn(int opcode, String owner, String name, String desc) {
-            trace("Found call from " + methodNode + "  to  " + owner + " " + name + " " + desc);
-            MethodPath to = new MethodPath(owner, name, desc);
-            unanalyzedCallsForThis.add(to);
+        public ClassFacts getClassFacts() {
+            return facts;
         }
-
+        
         @Override
-        public void visitInsn(int opcode) {
-            if (!foundFpMath && hasFloatResult(opcode)) {
-                result.localFpMathMethods.add(methodNode);
-                foundFpMath = true;
-            }
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            facts = new ClassFacts(name, superName, interfaces, access);
         }
         
-        private boolean hasFloatResult(int opcode) {
-            
-            /*
-             * Only operations that produce floating point results
-             * can be non-strictfp. Operations that take floats and produce
-             * something else are innocuous.
-             * 
-             * It's also safe to load and save floats as long as no arithmetic is
-             * performed on them. A float converted to the extended value set can always
-             * be converted back to its original value:
-             * 
-             *   "Note that the constraints in Table 4.1 are designed so that every element of the
-             *    ﬂoat value set is necessarily also an element of the ﬂoat-extended-exponent value
-             *    set, the double value set, and the double-extended-exponent value set. Likewise,
-             *    each element of the double value set is necessarily also an element of the doubleextended-exponent value set. Each extended-exponent value set has a larger range
-             *    of exponent values than the corresponding standard value set, but does not have
-             *    more precision"
-             *   -- [http://java.sun.com/docs/books/jls/strictfp-changes.pdf]
-             * 
-             */
-            
-            switch (opcode) {
-            case DADD:
-            case FADD:
-            case DSUB:
-            case FSUB:
-            case DMUL:
-            case FMUL:
-            case DDIV:
-            case FDIV:
-            case DREM:
-            case FREM:
-            case DNEG:
-            case FNEG:
-            case I2D:
-            case I2F:
-            case L2D:
-            case L2F:
-            case F2D:
-            case D2F:
-                return true;
-            default:
-                return false;
-            }
-        }
-    }
-    
-    private final void trace(String msg) {
-        if (traceEnabled) {
-            System.out.println(msg);
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodFacts method = new MethodFacts(name, desc, access);
+            method.index = methodIndex++;
+            method.bodyParsed = (access & (ACC_ABSTRACT | ACC_NATIVE)) != 0; // Nothing to parse
+            facts.methods.add(method);
+            return null;
         }
     }
 }
@@ -0,0 +1,96 @@
+package org.javaportability.callgraph;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javaportability.misc.MethodPath;
+
+/**
+ * What {@link CallGraphBuilder} reads out of a single class file.
+ *
+ * Reading these doesn't touch the call graph, so it can be done on any thread.
+ *
+ * A method's body is read separately, once the method is reached,
+ * so the facts about unreached methods are only their signatures.
+ */
+public class ClassFacts {
+    public String name;
+    public String superName; // Possibly null
+    public String[] interfaces;
+    public int access;
+    public List<MethodFacts> methods;
+    
+    public ClassFacts(String name, String superName, String[] interfaces, int access) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.access = access;
+        this.methods = new ArrayList<MethodFacts>();
+    }
+    
+    public static class MethodFacts {
+        public String name;
+        public String desc;
+        public int access;
+        public int index; // Position in the class file's method table
+        public volatile boolean bodyParsed; // Whether localFpMath and calls are known yet
+        public boolean localFpMath;
+        public List<CallFacts> calls; // Each distinct call once, in order of first appearance
+        
+        public MethodFacts(String name, String desc, int access) {
+            this.name = name;
+            this.desc = desc;
+            this.access = access;
+            this.index = 0;
+            this.bodyParsed = false;
+            this.localFpMath = false;
+            this.calls = new ArrayList<CallFacts>();
+        }
+    }
+    
+    /**
+     * All the call instructions in a method with the same opcode and callee.
+     */
+    public static class CallFacts {
+        public MethodPath callee;
+        public int opcode;
+        public int offset; // Of the first call instruction, or -1 if unknown
+        public int count;
+        
+        public CallFacts(MethodPath callee, int opcode, int offset, int count) {
+            this.callee = callee;
+            this.opcode = opcode;
+            this.offset = offset;
+            this.count = count;
+        }
+        
+        public boolean isVirtual() {
+            return opcode == INVOKEVIRTUAL || opcode == INVOKEINTERFACE;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof CallFacts) {
+                CallFacts that = (CallFacts)obj;
+                return this.callee.equals(that.callee) &&
+                       this.opcode == that.opcode &&
+                       this.offset == that.offset &&
+                       this.count == that.count;
+            } else {
+                return false;
+            }
+        }
+        
+        @Override
+        public int hashCode() {
+            return callee.hashCode() * 31 + opcode;
+        }
+        
+        @Override
+        public String toString() {
+            return callee + " (opcode " + opcode + " at " + offset + ", " + count + "x)";
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.javaportability.callgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.javaportability.callgraph.ClassFacts.CallFacts;
+import org.javaportability.callgraph.ClassFacts.MethodFacts;
+import org.javaportability.misc.MethodPath;
+import org.javaportability.misc.MethodPathInterner;
+
+/**
+ * Remembers {@link ClassFacts} across runs, keyed by class name and a hash of the class file.
+ *
+ * When a class file hasn't changed since the facts were cached,
+ * {@link CallGraphBuilder} uses the cached facts instead of parsing the class again.
+ *
+ * Facts are cached before any ignore lists are applied,
+ * so a cache stays valid when the configuration changes.
+ */
+public class ClassFactsCache {
+    
+    private static final int MAGIC = 0x4a504643; // "JPFC"
+    private static final int FORMAT_VERSION = 4; // Bump whenever ClassFacts or their extraction changes
+    private static final String HASH_ALGORITHM = "SHA-1";
+    
+    private static class Entry {
+        public final byte[] hash;
+        public final ClassFacts facts;
+        
+        public Entry(byte[] hash, ClassFacts facts) {
+            this.hash = hash;
+            this.facts = facts;
+        }
+    }
+    
+    private ConcurrentHashMap<String, Entry> entries;
+    private volatile boolean modified;
+    
+    public ClassFactsCache() {
+        this.entries = new ConcurrentHashMap<String, Entry>();
+        this.modified = false;
+    }
+    
+    /**
+     * Loads a cache file, or returns an empty cache if the file doesn't exist
+     * or was written by an incompatible version.
+     */
+    public static ClassFactsCache load(File file) throws IOException {
+        ClassFactsCache cache = new ClassFactsCache();
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION) {
+                    new Reader(in).readEntries(cache.entries);
+                }
+            } catch (EOFException e) {
+                cache.entries.clear(); // Truncated file. Start over.
+            } catch (CorruptCacheException e) {
+                cache.entries.clear();
+            } finally {
+                in.close();
+            }
+        }
+        return cache;
+    }
+    
+    /**
+     * Writes the cache to a file if anything was added since it was loaded.
+     */
+    public void saveIfModified(File file) throws IOException {
+        if (!modified) {
+            return;
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            new Writer(out).writeEntries(entries);
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            // Windows won't rename over an existing file.
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+        }
+        modified = false;
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Returns the cached facts for a class if its hash matches, or null.
+     */
+    public ClassFacts get(String internalName, byte[] hash) {
+        Entry entry = entries.get(internalName);
+        if (entry != null && Arrays.equals(entry.hash, hash)) {
+            return entry.facts;
+        } else {
+            return null;
+        }
+    }
+    
+    public void put(String internalName, byte[] hash, ClassFacts facts) {
+        entries.put(internalName, new Entry(hash, facts));
+        modified = true;
+    }
+    
+    /**
+     * Tells the cache that facts it holds have been filled in further,
+     * such as by parsing a method body, so they are worth saving again.
+     */
+    public void markModified() {
+        modified = true;
+    }
+    
+    public static byte[] hash(byte[] classFile) {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(classFile);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " not available", e);
+        }
+    }
+    
+    /**
+     * Writes each distinct string once and refers back to it by index afterwards.
+     * Class names and descriptors repeat a lot.
+     */
+    private static class Writer {
+        private DataOutputStream out;
+        private HashMap<String, Integer> stringIds;
+        
+        public Writer(DataOutputStream out) {
+            this.out = out;
+            this.stringIds = new HashMap<String, Integer>();
+        }
+        
+        public void writeEntries(Map<String, Entry> entries) throws IOException {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writeString(e.getKey());
+                out.writeShort(e.getValue().hash.length);
+                out.write(e.getValue().hash);
+                writeFacts(e.getValue().facts);
+            }
+        }
+        
+        private void writeFacts(ClassFacts facts) throws IOException {
+            writeString(facts.name);
+            writeString(facts.superName);
+            out.writeInt(facts.access);
+            out.writeInt(facts.interfaces.length);
+            for (String iface : facts.interfaces) {
+                writeString(iface);
+            }
+            out.writeInt(facts.methods.size());
+            for (MethodFacts mf : facts.methods) {
+                writeString(mf.name);
+                writeString(mf.desc);
+                out.writeInt(mf.access);
+                out.writeShort(mf.index);
+                boolean bodyParsed = mf.bodyParsed; // May change concurrently
+                out.writeBoolean(bodyParsed);
+                if (!bodyParsed) {
+                    continue;
+                }
+                out.writeBoolean(mf.localFpMath);
+                out.writeInt(mf.calls.size());
+                for (CallFacts call : mf.calls) {
+                    writeString(call.callee.getOwner());
+                    writeString(call.callee.getName());
+                    writeString(call.callee.getDesc());
+                    out.writeByte(call.opcode);
+                    out.writeInt(call.offset);
+                    out.writeInt(call.count);
+                }
+            }
+        }
+        
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer id = stringIds.get(s);
+            if (id != null) {
+                out.writeInt(id);
+            } else {
+                out.writeInt(stringIds.size());
+                out.writeUTF(s);
+                stringIds.put(s, stringIds.size());
+            }
+        }
+    }
+    
+    private static class CorruptCacheException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    private static class Reader {
+        private DataInputStream in;
+        private ArrayList<String> strings;
+        private MethodPathInterner calleePaths;
+        
+        public Reader(DataInputStream in) {
+            this.in = in;
+            this.strings = new ArrayList<String>();
+            this.calleePaths = new MethodPathInterner();
+        }
+        
+        public void readEntries(Map<String, Entry> entries) throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                String name = readString();
+                byte[] hash = new byte[in.readUnsignedShort()];
+                in.readFully(hash);
+                entries.put(name, new Entry(hash, readFacts()));
+            }
+        }
+        
+        private ClassFacts readFacts() throws IOException {
+            String name = readString();
+            String superName = readString();
+            int access = in.readInt();
+            String[] interfaces = new String[in.readInt()];
+            for (int i = 0; i < interfaces.length; ++i) {
+                interfaces[i] = readString();
+            }
+            ClassFacts facts = new ClassFacts(name, superName, interfaces, access);
+            int methodCount = in.readInt();
+            for (int i = 0; i < methodCount; ++i) {
+                MethodFacts mf = new MethodFacts(readString(), readString(), in.readInt());
+                mf.index = in.readUnsignedShort();
+                mf.bodyParsed = in.readBoolean();
+                facts.methods.add(mf);
+                if (!mf.bodyParsed) {
+                    continue;
+                }
+                mf.localFpMath = in.readBoolean();
+                int callCount = in.readInt();
+                for (int j = 0; j < callCount; ++j) {
+                    MethodPath callee = calleePaths.intern(new MethodPath(readString(), readString(), readString()));
+                    mf.calls.add(new CallFacts(callee, in.readUnsignedByte(), in.readInt(), in.readInt()));
+                }
+            }
+            return facts;
+        }
+        
+        private String readString() throws IOException {
+            int id = in.readInt();
+            if (id == -1) {
+                return null;
+            } else if (id == strings.size()) {
+                String s = in.readUTF();
+                strings.add(s);
+                return s;
+            } else if (id >= 0 && id < strings.size()) {
+                return strings.get(id);
+            } else {
+                throw new CorruptCacheException();
+            }
+        }
+    }
+}
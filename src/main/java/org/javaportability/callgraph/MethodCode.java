@@ -0,0 +1,245 @@
+package org.javaportability.callgraph;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.IdentityHashMap;
+
+import org.javaportability.callgraph.ClassFacts.CallFacts;
+import org.javaportability.callgraph.ClassFacts.MethodFacts;
+import org.javaportability.misc.MethodPath;
+import org.javaportability.misc.MethodPathInterner;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Reads a method's calls and floating point math straight from its code in the class file.
+ *
+ * ASM's visitors walk the whole class and don't tell where an instruction is,
+ * so this seeks to the one method and walks its instructions directly.
+ * The calls come out in the same order in which {@link ClassReader#accept} reports them.
+ *
+ * Only reads the class file, so several threads may parse methods of the same class at once.
+ * ASM's string cache may be filled in twice, with equal strings.
+ */
+final class MethodCode {
+    
+    // Instruction lengths by opcode, or 0 for those whose length varies.
+    private static final byte[] LENGTHS = new byte[256];
+    
+    static {
+        for (int op = 0; op < 256; ++op) {
+            LENGTHS[op] = 1;
+        }
+        int[] twoBytes = { BIPUSH, LDC, ILOAD, LLOAD, FLOAD, DLOAD, ALOAD,
+                           ISTORE, LSTORE, FSTORE, DSTORE, ASTORE, RET, NEWARRAY };
+        int[] threeBytes = { SIPUSH, 19 /* LDC_W */, 20 /* LDC2_W */, IINC,
+                             GETSTATIC, PUTSTATIC, GETFIELD, PUTFIELD,
+                             INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC,
+                             NEW, ANEWARRAY, CHECKCAST, INSTANCEOF, IFNULL, IFNONNULL };
+        for (int op : twoBytes) {
+            LENGTHS[op] = 2;
+        }
+        for (int op : threeBytes) {
+            LENGTHS[op] = 3;
+        }
+        for (int op = IFEQ; op <= JSR; ++op) {
+            LENGTHS[op] = 3;
+        }
+        LENGTHS[MULTIANEWARRAY] = 4;
+        LENGTHS[INVOKEINTERFACE] = 5;
+        LENGTHS[INVOKEDYNAMIC] = 5;
+        LENGTHS[200 /* GOTO_W */] = 5;
+        LENGTHS[201 /* JSR_W */] = 5;
+        LENGTHS[TABLESWITCH] = 0;
+        LENGTHS[LOOKUPSWITCH] = 0;
+        LENGTHS[196 /* WIDE */] = 0;
+    }
+    
+    private MethodCode() {
+    }
+    
+    /**
+     * Returns where the method at the given position in the class file's method table starts,
+     * or -1 if the class has fewer methods.
+     */
+    public static int findMethod(ClassReader reader, int methodIndex) {
+        int pos = reader.header + 6;
+        pos += 2 + 2 * reader.readUnsignedShort(pos); // Interfaces
+        int fieldCount = reader.readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < fieldCount; ++i) {
+            pos = skipAttributes(reader, pos + 6);
+        }
+        
+        int methodCount = reader.readUnsignedShort(pos);
+        pos += 2;
+        if (methodIndex >= methodCount) {
+            return -1;
+        }
+        for (int i = 0; i < methodIndex; ++i) {
+            pos = skipAttributes(reader, pos + 6);
+        }
+        return pos;
+    }
+    
+    /**
+     * Whether the method starting at the position has the name and descriptor.
+     */
+    public static boolean hasSignature(ClassReader reader, int methodPos, String name, String desc) {
+        return readUtf8(reader, methodPos + 2).equals(name) && readUtf8(reader, methodPos + 4).equals(desc);
+    }
+    
+    /**
+     * Adds the calls of the method starting at the position to its facts,
+     * each distinct call once with the offset of its first instruction,
+     * and tells whether it does floating point math. Callee paths go through the interner.
+     */
+    public static void parse(ClassReader reader, int methodPos, MethodFacts method, MethodPathInterner paths) {
+        int attributeCount = reader.readUnsignedShort(methodPos + 6);
+        int pos = methodPos + 8;
+        for (int j = 0; j < attributeCount; ++j) {
+            if (isCodeAttribute(reader, pos)) {
+                parseCode(reader, pos + 14, reader.readInt(pos + 10), method, paths);
+                return;
+            }
+            pos += 6 + reader.readInt(pos + 2);
+        }
+    }
+    
+    private static boolean isCodeAttribute(ClassReader reader, int pos) {
+        int item = reader.getItem(reader.readUnsignedShort(pos)); // A UTF8 constant: length and bytes
+        byte[] b = reader.b;
+        return reader.readUnsignedShort(item) == 4 &&
+               b[item + 2] == 'C' && b[item + 3] == 'o' && b[item + 4] == 'd' && b[item + 5] == 'e';
+    }
+    
+    private static int skipAttributes(ClassReader reader, int pos) {
+        int attributeCount = reader.readUnsignedShort(pos);
+        pos += 2;
+        for (int j = 0; j < attributeCount; ++j) {
+            pos += 6 + reader.readInt(pos + 2);
+        }
+        return pos;
+    }
+    
+    private static void parseCode(ClassReader reader, int codeStart, int codeLength, MethodFacts method, MethodPathInterner paths) {
+        byte[] b = reader.b;
+        IdentityHashMap<MethodPath, CallFacts> callsByCallee = new IdentityHashMap<MethodPath, CallFacts>(); // The first distinct call to each callee
+        int offset = 0;
+        while (offset < codeLength) {
+            int opcode = b[codeStart + offset] & 0xff;
+            if (opcode >= INVOKEVIRTUAL && opcode <= INVOKEINTERFACE) {
+                // A Methodref or InterfaceMethodref: class and NameAndType.
+                int item = reader.getItem(reader.readUnsignedShort(codeStart + offset + 1));
+                int nameAndType = reader.getItem(reader.readUnsignedShort(item + 2));
+                String owner = readUtf8(reader, reader.getItem(reader.readUnsignedShort(item)));
+                MethodPath to = paths.intern(new MethodPath(owner, readUtf8(reader, nameAndType), readUtf8(reader, nameAndType + 2)));
+                addCall(method, callsByCallee, to, opcode, offset);
+            } else if (!method.localFpMath && hasFloatResult(opcode)) {
+                method.localFpMath = true;
+            }
+            offset += instructionLength(b, codeStart, offset, opcode);
+        }
+    }
+    
+    private static void addCall(MethodFacts method, IdentityHashMap<MethodPath, CallFacts> callsByCallee, MethodPath to, int opcode, int offset) {
+        CallFacts call = callsByCallee.get(to);
+        if (call != null && call.opcode != opcode) {
+            // The same method called with different opcodes, like super.foo() and foo().
+            // Rare enough to just search.
+            call = null;
+            for (CallFacts c : method.calls) {
+                if (c.opcode == opcode && c.callee.equals(to)) {
+                    call = c;
+                    break;
+                }
+            }
+        }
+        if (call != null) {
+            call.count++;
+        } else {
+            call = new CallFacts(to, opcode, offset, 1);
+            method.calls.add(call);
+            if (!callsByCallee.containsKey(to)) {
+                callsByCallee.put(to, call);
+            }
+        }
+    }
+    
+    /**
+     * Reads the UTF8 constant whose index is at the position.
+     */
+    private static String readUtf8(ClassReader reader, int pos) {
+        int item = reader.getItem(reader.readUnsignedShort(pos));
+        return reader.readUTF8(pos, new char[reader.readUnsignedShort(item)]);
+    }
+    
+    private static boolean hasFloatResult(int opcode) {
+        
+        /*
+         * Only operations that produce floating point results
+         * can be non-strictfp. Operations that take floats and produce
+         * something else are innocuous.
+         * 
+         * It's also safe to load and save floats as long as no arithmetic is
+         * performed on them. A float converted to the extended value set can always
+         * be converted back to its original value:
+         * 
+         *   "Note that the constraints in Table 4.1 are designed so that every element of the
+         *    float value set is necessarily also an element of the float-extended-exponent value
+         *    set, the double value set, and the double-extended-exponent value set. Likewise,
+         *    each element of the double value set is necessarily also an element of the double-extended-exponent value set. Each extended-exponent value set has a larger range
+         *    of exponent values than the corresponding standard value set, but does not have
+         *    more precision"
+         *   -- [http://java.sun.com/docs/books/jls/strictfp-changes.pdf]
+         * 
+         */
+        
+        switch (opcode) {
+        case DADD:
+        case FADD:
+        case DSUB:
+        case FSUB:
+        case DMUL:
+        case FMUL:
+        case DDIV:
+        case FDIV:
+        case DREM:
+        case FREM:
+        case DNEG:
+        case FNEG:
+        case I2D:
+        case I2F:
+        case L2D:
+        case L2F:
+        case F2D:
+        case D2F:
+            return true;
+        default:
+            return false;
+        }
+    }
+    
+    private static int instructionLength(byte[] b, int codeStart, int offset, int opcode) {
+        int length = LENGTHS[opcode];
+        if (length != 0) {
+            return length;
+        }
+        int padding = 3 - (offset & 3); // Operands are 4-byte aligned within the code
+        int operands = codeStart + offset + 1 + padding;
+        switch (opcode) {
+        case TABLESWITCH:
+            int low = readInt(b, operands + 4);
+            int high = readInt(b, operands + 8);
+            return 1 + padding + 12 + 4 * (high - low + 1);
+        case LOOKUPSWITCH:
+            int pairs = readInt(b, operands + 4);
+            return 1 + padding + 8 + 8 * pairs;
+        default: // WIDE
+            return (b[codeStart + offset + 1] & 0xff) == IINC ? 6 : 4;
+        }
+    }
+    
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+}
@@ -0,0 +1,102 @@
+package org.javaportability.callgraph;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.javaportability.callgraph.CallGraph.MethodNode;
+
+/**
+ * A set of methods of one call graph, stored as one bit per {@link MethodNode#getId()}.
+ *
+ * Iterates in order of method id, i.e. in the order the methods were added to the graph.
+ */
+public class MethodNodeSet extends AbstractSet<MethodNode> {
+    private CallGraph callGraph;
+    private BitSet bits;
+    private int size;
+    
+    public MethodNodeSet(CallGraph callGraph) {
+        this.callGraph = callGraph;
+        this.bits = new BitSet();
+        this.size = 0;
+    }
+    
+    @Override
+    public boolean add(MethodNode method) {
+        if (!callGraph.contains(method)) {
+            throw new IllegalArgumentException("Not a method of this call graph: " + method);
+        }
+        if (bits.get(method.getId())) {
+            return false;
+        }
+        bits.set(method.getId());
+        ++size;
+        return true;
+    }
+    
+    @Override
+    public boolean contains(Object obj) {
+        if (obj instanceof MethodNode) {
+            MethodNode method = (MethodNode)obj;
+            return bits.get(method.getId()) && callGraph.contains(method);
+        } else {
+            return false;
+        }
+    }
+    
+    @Override
+    public boolean remove(Object obj) {
+        if (contains(obj)) {
+            bits.clear(((MethodNode)obj).getId());
+            --size;
+            return true;
+        } else {
+            return false;
+        }
+    }
+    
+    @Override
+    public void clear() {
+        bits.clear();
+        size = 0;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public Iterator<MethodNode> iterator() {
+        return new Iterator<MethodNode>() {
+            private int next = bits.nextSetBit(0);
+            private int last = -1;
+            
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+            
+            @Override
+            public MethodNode next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = bits.nextSetBit(next + 1);
+                return callGraph.getMethodById(last);
+            }
+            
+            @Override
+            public void remove() {
+                if (last < 0 || !bits.get(last)) {
+                    throw new IllegalStateException();
+                }
+                bits.clear(last);
+                --size;
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package org.javaportability.callgraph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.objectweb.asm.MethodType;
+
+/**
+ * Methods hashed by name, with the few overloads of each name scanned linearly.
+ *
+ * Lookups don't allocate.
+ */
+class MethodTable {
+    private HashMap<String, ArrayList<MethodNode>> byName;
+
+    public MethodTable() {
+        this.byName = new HashMap<String, ArrayList<MethodNode>>();
+    }
+
+    public MethodNode get(String name, MethodType type) {
+        ArrayList<MethodNode> overloads = byName.get(name);
+        if (overloads != null) {
+            for (int i = 0; i < overloads.size(); ++i) {
+                MethodNode m = overloads.get(i);
+                if (m.getType().equals(type)) {
+                    return m;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the method unless one with the same name and type is already present.
+     * Returns whether the method was added.
+     */
+    public boolean addIfAbsent(MethodNode method) {
+        if (get(method.getName(), method.getType()) != null) {
+            return false;
+        }
+        ArrayList<MethodNode> overloads = byName.get(method.getName());
+        if (overloads == null) {
+            overloads = new ArrayList<MethodNode>(1);
+            byName.put(method.getName(), overloads);
+        }
+        overloads.add(method);
+        return true;
+    }
+
+    /**
+     * Removes the method itself, not another with the same name and type.
+     */
+    public void remove(MethodNode method) {
+        ArrayList<MethodNode> overloads = byName.get(method.getName());
+        if (overloads != null && overloads.remove(method) && overloads.isEmpty()) {
+            byName.remove(method.getName());
+        }
+    }
+    
+    public void addAllIfAbsent(MethodTable other) {
+        for (Map.Entry<String, ArrayList<MethodNode>> entry : other.byName.entrySet()) {
+            for (MethodNode m : entry.getValue()) {
+                addIfAbsent(m);
+            }
+        }
+    }
+}
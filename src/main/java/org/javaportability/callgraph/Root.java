@@ -57,4 +57,30 @@ public class Root {
         return methodPattern.matcher(m.getName()).matches() &&
                methodDescPattern.matcher(m.getDesc()).matches();
     }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Root) {
+            Root other = (Root)obj;
+            return className.equals(other.className) &&
+                   samePattern(methodPattern, other.methodPattern) &&
+                   samePattern(methodDescPattern, other.methodDescPattern);
+        } else {
+            return false;
+        }
+    }
+    
+    private static boolean samePattern(Pattern a, Pattern b) {
+        return a.pattern().equals(b.pattern()) && a.flags() == b.flags();
+    }
+    
+    @Override
+    public int hashCode() {
+        return (className.hashCode() * 31 + methodPattern.pattern().hashCode()) * 31 + methodDescPattern.pattern().hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return className + "::" + methodPattern.pattern() + methodDescPattern.pattern();
+    }
 }
\ No newline at end of file
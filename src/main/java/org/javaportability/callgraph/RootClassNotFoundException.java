@@ -0,0 +1,13 @@
+package org.javaportability.callgraph;
+
+/**
+ * Thrown by {@link CallGraphBuilder#addRoots} when a root class doesn't exist.
+ * The other roots have still been added, and the graph stays usable.
+ */
+public class RootClassNotFoundException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+    
+    public RootClassNotFoundException(String className, ClassNotFoundException cause) {
+        super("Class not found: " + className, cause);
+    }
+}
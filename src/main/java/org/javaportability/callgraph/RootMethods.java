@@ -0,0 +1,76 @@
+package org.javaportability.callgraph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.javaportability.callgraph.CallGraph.ClassNode;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+
+/**
+ * Finds the methods roots stand for.
+ *
+ * Roots tend to come in bulk, often many for the same class.
+ * The methods taking several roots look at each class's methods only once.
+ */
+public class RootMethods {
+    /**
+     * The methods a report lists for a root: those declared in the root class that the root matches.
+     */
+    public static List<MethodNode> find(CallGraph callGraph, Root root) {
+        List<MethodNode> result = new ArrayList<MethodNode>();
+        ClassNode cls = callGraph.getClass(root.getClassName());
+        for (MethodNode m : cls.getLocalMethods()) {
+            if (root.matchesMethod(m)) {
+                result.add(m);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * The methods to analyze for roots whose classes are all in the call graph:
+     * those of the root classes, inherited ones included, that any of their roots matches.
+     */
+    public static List<MethodNode> findIncludingInherited(CallGraph callGraph, Collection<Root> roots) {
+        List<MethodNode> result = new ArrayList<MethodNode>();
+        for (Map.Entry<String, List<Root>> entry : byClass(roots).entrySet()) {
+            result.addAll(findIncludingInherited(callGraph.getClass(entry.getKey()), entry.getValue()));
+        }
+        return result;
+    }
+    
+    /**
+     * The methods of a class, inherited ones included, that any of the roots matches.
+     */
+    public static List<MethodNode> findIncludingInherited(ClassNode cls, List<Root> roots) {
+        List<MethodNode> result = new ArrayList<MethodNode>();
+        for (MethodNode m : cls.getMethodsIncludingInherited()) {
+            for (Root root : roots) {
+                if (root.matchesMethod(m)) {
+                    result.add(m);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * The roots by class name, in the order the classes first appear.
+     */
+    public static Map<String, List<Root>> byClass(Collection<Root> roots) {
+        Map<String, List<Root>> result = new LinkedHashMap<String, List<Root>>();
+        for (Root root : roots) {
+            List<Root> classRoots = result.get(root.getClassName());
+            if (classRoots == null) {
+                classRoots = new ArrayList<Root>(1);
+                result.put(root.getClassName(), classRoots);
+            }
+            classRoots.add(root);
+        }
+        return result;
+    }
+}
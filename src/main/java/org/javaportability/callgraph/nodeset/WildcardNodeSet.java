@@ -1,43 +1,368 @@
 package org.javaportability.callgraph.nodeset;
 
-import java.util.regex.Pattern;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import org.javaportability.misc.MethodPath;
 
+/**
+ * Classes and methods matching any of a number of wildcard patterns.
+ *
+ * A pattern is a class name like {@code java.lang.String}, optionally followed by
+ * {@code ::methodName}, where {@code *} matches any sequence of characters.
+ *
+ * Patterns without wildcards are kept in hash sets.
+ * The others are put in a trie by the text before their first wildcard,
+ * so a lookup only looks at the patterns whose beginning matches.
+ * Patterns that begin with a wildcard are instead found by the text up to their second wildcard,
+ * using an Aho-Corasick automaton that finds all such texts in one pass over the name.
+ * This keeps lookups fast even with thousands of patterns.
+ */
 public class WildcardNodeSet implements NodeSet {
-    private Pattern pattern;
+    
+    private HashSet<String> exactClasses;
+    private HashMap<String, HashSet<String>> exactMethods; // Owner -> method names
+    private TrieNode trie;
+    private TrieNode infixes; // Patterns beginning with a wildcard
+    private volatile boolean infixesLinked;
+    
+    public WildcardNodeSet() {
+        this.exactClasses = new HashSet<String>();
+        this.exactMethods = new HashMap<String, HashSet<String>>();
+        this.trie = new TrieNode();
+        this.infixes = new TrieNode();
+        this.infixesLinked = true;
+    }
     
     public WildcardNodeSet(String pattern) {
-        String[] parts = pattern.replace('.', '/').split("\\*");
-        StringBuilder regex = new StringBuilder(128);
-        for (int i = 0; i < parts.length - 1; ++i) {
-            if (!parts[i].isEmpty()) {
-                regex.append(Pattern.quote(parts[i]));
+        this();
+        addPattern(pattern);
+    }
+    
+    public void addPattern(String pattern) {
+        pattern = pattern.replace('.', '/');
+        int firstStar = pattern.indexOf('*');
+        if (firstStar == -1) {
+            int sep = pattern.indexOf("::");
+            if (sep == -1) {
+                exactClasses.add(pattern);
+            } else {
+                String owner = pattern.substring(0, sep);
+                HashSet<String> names = exactMethods.get(owner);
+                if (names == null) {
+                    names = new HashSet<String>();
+                    exactMethods.put(owner, names);
+                }
+                names.add(pattern.substring(sep + 2));
+            }
+        } else {
+            Suffix suffix = new Suffix(pattern.substring(firstStar + 1));
+            if (suffix.matchesAnything()) {
+                trie.getOrAddDescendant(pattern, firstStar).matchesAnything = true;
+            } else if (firstStar == 0) {
+                String first = suffix.parts[0];
+                infixes.getOrAddDescendant(first, first.length()).suffixes.add(suffix.withoutFirstPart());
+                infixesLinked = false;
+            } else {
+                trie.getOrAddDescendant(pattern, firstStar).suffixes.add(suffix);
             }
-            regex.append(".*");
-        }
-        if (parts.length > 0) {
-            regex.append(Pattern.quote(parts[parts.length - 1]));
-        }
-        
-        if (!pattern.isEmpty() && pattern.charAt(pattern.length() - 1) == '*') {
-            regex.append(".*");
         }
-        
-        this.pattern = Pattern.compile(regex.toString());
     }
     
     @Override
-    public boolean containsClass(String cls) {
-        return matches(cls);
+    public boolean containsClass(String className) {
+        return exactClasses.contains(className) || matchesWildcards(new Subject(className, null));
     }
     
     @Override
     public boolean containsMethod(MethodPath path) {
-        return containsClass(path.getOwner()) || matches(path.getOwner() + "::" + path.getName());
+        if (containsClass(path.getOwner())) {
+            return true;
+        }
+        HashSet<String> names = exactMethods.get(path.getOwner());
+        if (names != null && names.contains(path.getName())) {
+            return true;
+        }
+        return matchesWildcards(new Subject(path.getOwner(), path.getName()));
     }
     
-    private boolean matches(String s) {
-        return pattern.matcher(s).matches();
+    private boolean matchesWildcards(Subject subject) {
+        if (trie.matchesPrefixes(subject)) {
+            return true;
+        }
+        if (!infixesLinked) {
+            synchronized (this) {
+                if (!infixesLinked) {
+                    infixes.linkAhoCorasick();
+                    infixesLinked = true;
+                }
+            }
+        }
+        return infixes.matchesInfixes(subject);
+    }
+    
+    /**
+     * The string being matched, either a class name or "owner::name",
+     * without actually concatenating anything.
+     */
+    private static final class Subject {
+        private final String owner;
+        private final String name;
+        public final int length;
+        
+        public Subject(String owner, String name) {
+            this.owner = owner;
+            this.name = name;
+            this.length = (name == null) ? owner.length() : owner.length() + 2 + name.length();
+        }
+        
+        public char charAt(int i) {
+            int ownerLength = owner.length();
+            if (i < ownerLength) {
+                return owner.charAt(i);
+            } else if (i < ownerLength + 2) {
+                return ':';
+            } else {
+                return name.charAt(i - ownerLength - 2);
+            }
+        }
+        
+        public boolean regionMatches(int start, String s) {
+            if (start + s.length() > length) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); ++i) {
+                if (charAt(start + i) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Returns the first position at or after start where s occurs, or -1.
+         */
+        public int indexOf(String s, int start) {
+            for (int i = start; i + s.length() <= length; ++i) {
+                if (regionMatches(i, s)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    /**
+     * What's left of a pattern after its first wildcard.
+     *
+     * Consists of literal parts, each of which follows a wildcard.
+     * The first occurrence of each part is as good a match as any,
+     * except for the last part, which must be at the end if the pattern doesn't end in a wildcard.
+     */
+    private static final class Suffix {
+        public final String[] parts;
+        private final boolean endsWithWildcard;
+        
+        private Suffix(String[] parts, boolean endsWithWildcard) {
+            this.parts = parts;
+            this.endsWithWildcard = endsWithWildcard;
+        }
+        
+        public Suffix(String rest) {
+            ArrayList<String> parts = new ArrayList<String>();
+            int start = 0;
+            int star;
+            while ((star = rest.indexOf('*', start)) != -1) {
+                if (star > start) {
+                    parts.add(rest.substring(start, star));
+                }
+                start = star + 1;
+            }
+            this.endsWithWildcard = (start == rest.length());
+            if (!endsWithWildcard) {
+                parts.add(rest.substring(start));
+            }
+            this.parts = parts.toArray(new String[parts.size()]);
+        }
+        
+        public boolean matchesAnything() {
+            return parts.length == 0 && endsWithWildcard;
+        }
+        
+        /**
+         * What's left to match once the first part has been found.
+         */
+        public Suffix withoutFirstPart() {
+            String[] rest = new String[parts.length - 1];
+            System.arraycopy(parts, 1, rest, 0, rest.length);
+            return new Suffix(rest, endsWithWildcard);
+        }
+        
+        public boolean matches(Subject subject, int start) {
+            if (parts.length == 0) {
+                return endsWithWildcard || start == subject.length;
+            }
+            int pos = start;
+            int lastFloating = endsWithWildcard ? parts.length : parts.length - 1;
+            for (int i = 0; i < lastFloating; ++i) {
+                pos = subject.indexOf(parts[i], pos);
+                if (pos == -1) {
+                    return false;
+                }
+                pos += parts[i].length();
+            }
+            if (!endsWithWildcard) {
+                String last = parts[parts.length - 1];
+                int lastStart = subject.length - last.length();
+                return lastStart >= pos && subject.regionMatches(lastStart, last);
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Indexes wildcard patterns by a literal part of them.
+     *
+     * Used both as a plain trie of the text before the first wildcard,
+     * and as an Aho-Corasick automaton of the text between the first and second wildcard.
+     */
+    private static final class TrieNode {
+        private char[] keys;
+        private TrieNode[] children;
+        private int childCount;
+        public boolean matchesAnything;  // A pattern ends in a wildcard here
+        public ArrayList<Suffix> suffixes; // Patterns that continue after the text leading here
+        private TrieNode fail;        // Aho-Corasick: longest proper suffix of our text that is in the trie
+        private TrieNode outputLink;  // Aho-Corasick: nearest node along fail links with suffixes
+        
+        public TrieNode() {
+            this.keys = new char[0];
+            this.children = new TrieNode[0];
+            this.childCount = 0;
+            this.matchesAnything = false;
+            this.suffixes = new ArrayList<Suffix>(0);
+            this.fail = null;
+            this.outputLink = null;
+        }
+        
+        public TrieNode getOrAddDescendant(String s, int length) {
+            TrieNode node = this;
+            for (int i = 0; i < length; ++i) {
+                TrieNode next = node.getChild(s.charAt(i));
+                if (next == null) {
+                    next = node.addChild(s.charAt(i));
+                }
+                node = next;
+            }
+            return node;
+        }
+        
+        /**
+         * Matches the subject against the patterns whose beginning leads to some node from here.
+         */
+        public boolean matchesPrefixes(Subject subject) {
+            TrieNode node = this;
+            for (int i = 0; ; ++i) {
+                if (node.matchesAnything) {
+                    return true;
+                }
+                for (int j = 0; j < node.suffixes.size(); ++j) {
+                    if (node.suffixes.get(j).matches(subject, i)) {
+                        return true;
+                    }
+                }
+                if (i == subject.length) {
+                    return false;
+                }
+                node = node.getChild(subject.charAt(i));
+                if (node == null) {
+                    return false;
+                }
+            }
+        }
+        
+        /**
+         * Sets up the fail and output links from this root.
+         * Must be called again after adding to the trie.
+         */
+        public void linkAhoCorasick() {
+            ArrayDeque<TrieNode> queue = new ArrayDeque<TrieNode>();
+            this.fail = null;
+            this.outputLink = null;
+            for (int i = 0; i < childCount; ++i) {
+                children[i].fail = this;
+                children[i].outputLink = null;
+                queue.add(children[i]);
+            }
+            while (!queue.isEmpty()) {
+                TrieNode node = queue.remove();
+                for (int i = 0; i < node.childCount; ++i) {
+                    TrieNode child = node.children[i];
+                    TrieNode f = node.fail;
+                    while (f != this && f.getChild(node.keys[i]) == null) {
+                        f = f.fail;
+                    }
+                    TrieNode target = f.getChild(node.keys[i]);
+                    child.fail = (target != null) ? target : this;
+                    child.outputLink = child.fail.suffixes.isEmpty() ? child.fail.outputLink : child.fail;
+                    queue.add(child);
+                }
+            }
+        }
+        
+        /**
+         * Finds each occurrence of a pattern's text anywhere in the subject
+         * and matches the rest of the pattern after it.
+         */
+        public boolean matchesInfixes(Subject subject) {
+            TrieNode node = this;
+            for (int i = 0; i < subject.length; ++i) {
+                char c = subject.charAt(i);
+                TrieNode next = node.getChild(c);
+                while (next == null && node != this) {
+                    node = node.fail;
+                    next = node.getChild(c);
+                }
+                node = (next != null) ? next : this;
+                TrieNode out = node.suffixes.isEmpty() ? node.outputLink : node;
+                while (out != null) {
+                    for (int j = 0; j < out.suffixes.size(); ++j) {
+                        if (out.suffixes.get(j).matches(subject, i + 1)) {
+                            return true;
+                        }
+                    }
+                    out = out.outputLink;
+                }
+            }
+            return false;
+        }
+        
+        private TrieNode getChild(char c) {
+            for (int i = 0; i < childCount; ++i) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+        
+        private TrieNode addChild(char c) {
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                char[] newKeys = new char[capacity];
+                TrieNode[] newChildren = new TrieNode[capacity];
+                System.arraycopy(keys, 0, newKeys, 0, childCount);
+                System.arraycopy(children, 0, newChildren, 0, childCount);
+                keys = newKeys;
+                children = newChildren;
+            }
+            TrieNode child = new TrieNode();
+            keys[childCount] = c;
+            children[childCount] = child;
+            ++childCount;
+            return child;
+        }
     }
 }
@@ -0,0 +1,145 @@
+package org.javaportability.loaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Keeps the bytes of recently loaded class files so they don't have to be read again.
+ *
+ * Meant to be shared by several analyses in one JVM, which mostly load the same
+ * standard library classes. The cache holds at most a given number of class file bytes
+ * and evicts the least recently used classes to stay under it.
+ *
+ * The bytes may be kept off the Java heap in direct buffers,
+ * at the cost of copying them back for every hit.
+ * On the heap, the readers of a class share one array, which must not be modified.
+ *
+ * Classes that couldn't be found aren't cached.
+ */
+public class CachingClassFileLoader implements ClassFileLoader {
+    
+    private final ClassFileLoader delegate;
+    private final long maxBytes;
+    private final boolean offHeap;
+    
+    // All guarded by this.
+    private final LinkedHashMap<String, Entry> entries; // In least recently used first order
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    public CachingClassFileLoader(ClassFileLoader delegate, long maxBytes) {
+        this(delegate, maxBytes, false);
+    }
+    
+    public CachingClassFileLoader(ClassFileLoader delegate, long maxBytes, boolean offHeap) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.cachedBytes = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+    
+    @Override
+    public ClassReader loadClass(String internalName) throws ClassNotFoundException, IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(internalName);
+            if (entry != null) {
+                ++hits;
+            } else {
+                ++misses;
+            }
+        }
+        if (entry != null) {
+            return new ClassReader(entry.getBytes());
+        }
+        
+        // Concurrent misses of one class may both go to the delegate. The first to finish is kept.
+        ClassReader reader = delegate.loadClass(internalName);
+        if (reader != null && reader.b.length <= maxBytes) {
+            add(internalName, offHeap ? new Entry(copyOffHeap(reader.b)) : new Entry(reader.b));
+        }
+        return reader;
+    }
+    
+    private synchronized void add(String internalName, Entry entry) {
+        if (entries.containsKey(internalName)) {
+            return;
+        }
+        entries.put(internalName, entry);
+        cachedBytes += entry.size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (cachedBytes > maxBytes) {
+            cachedBytes -= eldest.next().size;
+            eldest.remove();
+            ++evictions;
+        }
+    }
+    
+    private static ByteBuffer copyOffHeap(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes);
+        buf.flip();
+        return buf;
+    }
+    
+    public synchronized long getHitCount() {
+        return hits;
+    }
+    
+    public synchronized long getMissCount() {
+        return misses;
+    }
+    
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+    
+    public synchronized int getCachedClassCount() {
+        return entries.size();
+    }
+    
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    private static final class Entry {
+        public final int size;
+        private final byte[] bytes;
+        private final ByteBuffer offHeapBytes;
+        
+        public Entry(byte[] bytes) {
+            this.size = bytes.length;
+            this.bytes = bytes;
+            this.offHeapBytes = null;
+        }
+        
+        public Entry(ByteBuffer offHeapBytes) {
+            this.size = offHeapBytes.remaining();
+            this.bytes = null;
+            this.offHeapBytes = offHeapBytes;
+        }
+        
+        public byte[] getBytes() {
+            if (bytes != null) {
+                return bytes;
+            }
+            byte[] copy = new byte[size];
+            offHeapBytes.duplicate().get(copy); // A duplicate has its own position, so this is thread-safe
+            return copy;
+        }
+    }
+}
@@ -4,6 +4,12 @@ import java.io.IOException;
 
 import org.objectweb.asm.ClassReader;
 
+/**
+ * Finds class files by their internal name.
+ * 
+ * Implementations should be thread-safe, since class files may be loaded
+ * from several threads at once.
+ */
 public interface ClassFileLoader {
     public ClassReader loadClass(String internalName) throws ClassNotFoundException, IOException;
 }
@@ -56,7 +56,7 @@ public class ClassPathClassFileLoader implements ClassFileLoader {
         }
     }
 
-    private JarFile getJarFile(String location) throws IOException {
+    private synchronized JarFile getJarFile(String location) throws IOException {
         if (jarCache.containsKey(location)) {
             return jarCache.get(location);
         } else {
@@ -0,0 +1,589 @@
+package org.javaportability.loaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Like {@link ClassPathClassFileLoader} but indexes the whole search path up front.
+ *
+ * Every class in every jar and directory is put into one hash table when the loader
+ * is created, so a lookup doesn't walk the search path. Each jar's central directory
+ * is read in one go and class file bytes are read or inflated straight into the array
+ * given to {@link ClassReader}.
+ *
+ * Jars stay open until the loader is closed, so close it before the jars are deleted or replaced.
+ *
+ * Besides jars and directories, the search path may contain {@code .jmod} files and
+ * {@value JrtClassFileLoader#PATH_ELEMENT} for the running JVM's runtime image.
+ * Multi-release jars give the version of a class for the targeted Java release.
+ *
+ * As with a JVM classpath, the first search path element containing a class wins,
+ * except that the runtime image always wins for the packages in it,
+ * because the JVM doesn't let the class path split a package of a module.
+ */
+public class IndexedClassPathClassFileLoader implements ClassFileLoader, Closeable {
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private static final String JMOD_CLASSES_DIR = "classes/";
+    private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+    private static final String VERSIONS_DIR = "META-INF/versions/";
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    private static final int FIRST_VERSIONED_RELEASE = 9;
+    
+    /**
+     * What {@link #getSource(String)} returns for each kind of search path element.
+     */
+    public static final String SOURCE_RUNTIME_IMAGE = "runtimeImage";
+    public static final String SOURCE_JAR = "jar";
+    public static final String SOURCE_JMOD = "jmod";
+    public static final String SOURCE_DIRECTORY = "directory";
+    
+    private final int release;
+    private final HashMap<String, ClassLocation> index;
+    private final JrtClassFileLoader runtimeImage;
+    private final List<RandomAccessFile> openJars;
+    private volatile boolean closed;
+    private String[] sortedNames; // The index's keys, sorted on first listing
+    
+    /**
+     * Takes classes from multi-release jars as the running JVM would.
+     */
+    public IndexedClassPathClassFileLoader(String[] searchPath) throws IOException {
+        this(searchPath, getRunningRelease());
+    }
+    
+    /**
+     * Takes classes from multi-release jars as a JVM of the given release, like 8 or 11, would.
+     */
+    public IndexedClassPathClassFileLoader(String[] searchPath, int release) throws IOException {
+        this.release = release;
+        this.index = new HashMap<String, ClassLocation>();
+        this.openJars = new ArrayList<RandomAccessFile>();
+        this.closed = false;
+        JrtClassFileLoader image = null;
+        try {
+            for (String location : searchPath) {
+                if (location.equals(JrtClassFileLoader.PATH_ELEMENT)) {
+                    if (image == null) {
+                        image = new JrtClassFileLoader();
+                    }
+                    continue;
+                }
+                File file = new File(location);
+                if (!file.exists()) {
+                    continue;
+                }
+                if (location.endsWith(".jar")) {
+                    indexJar(file, "");
+                } else if (location.endsWith(".jmod")) {
+                    indexJar(file, JMOD_CLASSES_DIR);
+                } else {
+                    indexDirectory(file, "");
+                }
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        } catch (RuntimeException e) {
+            closeQuietly();
+            throw e;
+        }
+        this.runtimeImage = image;
+        this.sortedNames = null;
+    }
+    
+    public IndexedClassPathClassFileLoader(List<String> searchPath) throws IOException {
+        this(searchPath.toArray(new String[searchPath.size()]));
+    }
+    
+    /**
+     * The Java release of the running JVM, like 6 for "1.6" or 17 for "17".
+     */
+    static int getRunningRelease() {
+        String spec = System.getProperty("java.specification.version", "1.6");
+        if (spec.startsWith("1.")) {
+            spec = spec.substring(2);
+        }
+        try {
+            return Integer.parseInt(spec);
+        } catch (NumberFormatException e) {
+            return FIRST_VERSIONED_RELEASE - 1; // Ignore versioned entries
+        }
+    }
+    
+    /**
+     * The number of distinct classes found on the search path.
+     */
+    public int getClassCount() {
+        return index.size();
+    }
+    
+    /**
+     * The internal names of the classes on the search path that start with the prefix, in order.
+     * Classes of the runtime image aren't listed.
+     *
+     * The first call sorts the names of all classes, so later calls only do a binary search.
+     */
+    public List<String> getClassNames(String prefix) {
+        String[] names = getSortedNames();
+        int from = Arrays.binarySearch(names, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < names.length && names[to].startsWith(prefix)) {
+            ++to;
+        }
+        return Arrays.asList(names).subList(from, to);
+    }
+    
+    private synchronized String[] getSortedNames() {
+        if (sortedNames == null) {
+            sortedNames = index.keySet().toArray(new String[index.size()]);
+            Arrays.sort(sortedNames);
+        }
+        return sortedNames;
+    }
+    
+    /**
+     * The kind of search path element the class is loaded from, such as {@link #SOURCE_JAR},
+     * or null if it isn't on the search path.
+     */
+    public String getSource(String internalName) {
+        if (runtimeImage != null && runtimeImage.getModuleName(internalName) != null) {
+            return SOURCE_RUNTIME_IMAGE;
+        }
+        ClassLocation location = index.get(internalName);
+        return (location != null) ? location.getSource() : null;
+    }
+    
+    @Override
+    public ClassReader loadClass(String internalName) throws ClassNotFoundException, IOException {
+        if (closed) {
+            throw new IOException("The class file loader is closed");
+        }
+        if (runtimeImage != null && runtimeImage.getModuleName(internalName) != null) {
+            return runtimeImage.loadClass(internalName);
+        }
+        ClassLocation location = index.get(internalName);
+        if (location != null) {
+            return new ClassReader(location.readBytes());
+        } else {
+            throw new ClassNotFoundException("Could not find class: " + internalName);
+        }
+    }
+    
+    /**
+     * Closes the jars on the search path. Classes can't be loaded afterwards.
+     * The runtime image belongs to the JVM, so it stays open.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        IOException failure = null;
+        for (RandomAccessFile jar : openJars) {
+            try {
+                jar.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        openJars.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Already failing with a better reason.
+        }
+    }
+    
+    private void addToIndex(String path, ClassLocation location) {
+        if (path.endsWith(".class")) {
+            String internalName = toInternalName(path);
+            if (!index.containsKey(internalName)) {
+                index.put(internalName, location);
+            }
+        }
+    }
+    
+    private static String toInternalName(String path) {
+        return path.substring(0, path.length() - ".class".length());
+    }
+    
+    private void indexDirectory(File dir, String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                indexDirectory(file, prefix + file.getName() + "/");
+            } else {
+                addToIndex(prefix + file.getName(), new FileLocation(file));
+            }
+        }
+    }
+    
+    // Zip format constants. See the .ZIP File Format Specification by PKWARE.
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_EOCD_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    
+    /**
+     * Indexes the classes in a jar or other zip file that are under the given directory.
+     */
+    private void indexJar(File file, String classesDir) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        openJars.add(raf); // Closed by the constructor if indexing fails
+        indexJar(file, classesDir, raf.getChannel());
+    }
+    
+    private void indexJar(File file, String classesDir, FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        
+        long eocdPos = findEndOfCentralDirectory(channel, fileSize, file);
+        ByteBuffer eocd = readFully(channel, eocdPos, EOCD_SIZE);
+        long entryCount = eocd.getShort(10) & 0xffff;
+        long cenSize = eocd.getInt(12) & 0xffffffffL;
+        long cenPos = eocd.getInt(16) & 0xffffffffL;
+        long cenEnd = eocdPos;
+        
+        if (cenPos == 0xffffffffL || cenSize == 0xffffffffL || entryCount == 0xffff) {
+            if (eocdPos < ZIP64_EOCD_LOCATOR_SIZE) {
+                throw new IOException("Corrupt ZIP64 jar: " + file);
+            }
+            ByteBuffer locator = readFully(channel, eocdPos - ZIP64_EOCD_LOCATOR_SIZE, ZIP64_EOCD_LOCATOR_SIZE);
+            if (locator.getInt(0) != ZIP64_EOCD_LOCATOR_SIG) {
+                throw new IOException("Corrupt ZIP64 jar: " + file);
+            }
+            cenEnd = locator.getLong(8);
+            ByteBuffer eocd64 = readFully(channel, cenEnd, 56);
+            if (eocd64.getInt(0) != ZIP64_EOCD_SIG) {
+                throw new IOException("Corrupt ZIP64 jar: " + file);
+            }
+            entryCount = eocd64.getLong(32);
+            cenSize = eocd64.getLong(40);
+            cenPos = eocd64.getLong(48);
+        }
+        
+        if (cenSize > Integer.MAX_VALUE) {
+            throw new IOException("Central directory too large in " + file);
+        }
+        // Zip offsets don't count data before the zip itself, like the header of a .jmod file.
+        long base = cenEnd - cenSize - cenPos;
+        if (base < 0) {
+            throw new IOException("Corrupt central directory in " + file);
+        }
+        // Read rather than mapped, since a mapping would keep the jar open after close().
+        ByteBuffer cen = readFully(channel, base + cenPos, (int)cenSize);
+        
+        JarSource jar = new JarSource(file, classesDir.equals(JMOD_CLASSES_DIR) ? SOURCE_JMOD : SOURCE_JAR, channel, cen, base);
+        HashMap<String, VersionedEntry> versioned = new HashMap<String, VersionedEntry>();
+        JarEntryLocation manifest = null;
+        int pos = 0;
+        for (long i = 0; i < entryCount; ++i) {
+            if (cen.getInt(pos) != CEN_SIG) {
+                throw new IOException("Corrupt central directory in " + file);
+            }
+            int nameLength = cen.getShort(pos + 28) & 0xffff;
+            int extraLength = cen.getShort(pos + 30) & 0xffff;
+            int commentLength = cen.getShort(pos + 32) & 0xffff;
+            
+            byte[] nameBytes = new byte[nameLength];
+            for (int j = 0; j < nameLength; ++j) {
+                nameBytes[j] = cen.get(pos + CEN_SIZE + j);
+            }
+            String name = new String(nameBytes, UTF8);
+            JarEntryLocation location = new JarEntryLocation(jar, pos);
+            if (name.startsWith(VERSIONS_DIR)) {
+                addVersionedEntry(versioned, name, location);
+            } else if (name.equals(MANIFEST_NAME)) {
+                manifest = location;
+            } else if (name.startsWith(classesDir)) {
+                addToIndex(name.substring(classesDir.length()), location);
+            }
+            
+            pos += CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+        
+        if (!versioned.isEmpty() && manifest != null && isMultiRelease(manifest)) {
+            for (VersionedEntry entry : versioned.values()) {
+                // Replace the jar's own unversioned class, but not one from an earlier search path element.
+                ClassLocation previous = index.get(entry.internalName);
+                if (previous == null || (previous instanceof JarEntryLocation && ((JarEntryLocation)previous).jar == jar)) {
+                    index.put(entry.internalName, entry.location);
+                }
+            }
+        }
+    }
+    
+    private static class VersionedEntry {
+        public final String internalName;
+        public final int version;
+        public final JarEntryLocation location;
+        
+        public VersionedEntry(String internalName, int version, JarEntryLocation location) {
+            this.internalName = internalName;
+            this.version = version;
+            this.location = location;
+        }
+    }
+    
+    /**
+     * Remembers a class under META-INF/versions/N/ if it's the one for the highest N up to our release.
+     */
+    private void addVersionedEntry(HashMap<String, VersionedEntry> versioned, String name, JarEntryLocation location) {
+        int slash = name.indexOf('/', VERSIONS_DIR.length());
+        if (slash == -1 || !name.endsWith(".class")) {
+            return;
+        }
+        int version;
+        try {
+            version = Integer.parseInt(name.substring(VERSIONS_DIR.length(), slash));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (version < FIRST_VERSIONED_RELEASE || version > release) {
+            return;
+        }
+        String internalName = toInternalName(name.substring(slash + 1));
+        VersionedEntry previous = versioned.get(internalName);
+        if (previous == null || previous.version < version) {
+            versioned.put(internalName, new VersionedEntry(internalName, version, location));
+        }
+    }
+    
+    private static boolean isMultiRelease(JarEntryLocation manifestLocation) throws IOException {
+        Manifest manifest = new Manifest(new ByteArrayInputStream(manifestLocation.readBytes()));
+        return "true".equalsIgnoreCase(manifest.getMainAttributes().getValue(MULTI_RELEASE));
+    }
+    
+    private long findEndOfCentralDirectory(FileChannel channel, long fileSize, File file) throws IOException {
+        // The EOCD record is at the end, followed by a comment of at most 64k.
+        int searchLength = (int)Math.min(fileSize, EOCD_SIZE + 0xffff);
+        long searchStart = fileSize - searchLength;
+        ByteBuffer tail = readFully(channel, searchStart, searchLength);
+        for (int i = searchLength - EOCD_SIZE; i >= 0; --i) {
+            if (tail.getInt(i) == EOCD_SIG) {
+                return searchStart + i;
+            }
+        }
+        throw new IOException("Not a jar file: " + file);
+    }
+    
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        readFully(channel, position, buf);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+    
+    private static void readFully(FileChannel channel, long position, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            position += n;
+        }
+        buf.flip();
+    }
+    
+    private static abstract class ClassLocation {
+        public abstract byte[] readBytes() throws IOException;
+        
+        public abstract String getSource();
+    }
+    
+    private static class FileLocation extends ClassLocation {
+        private final File file;
+        
+        public FileLocation(File file) {
+            this.file = file;
+        }
+        
+        @Override
+        public String getSource() {
+            return SOURCE_DIRECTORY;
+        }
+        
+        @Override
+        public byte[] readBytes() throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Class file too large: " + file);
+                }
+                ByteBuffer buf = ByteBuffer.allocate((int)size);
+                readFully(channel, 0, buf);
+                return buf.array();
+            } finally {
+                in.close();
+            }
+        }
+    }
+    
+    private static class JarSource {
+        public final File file;
+        public final String source;       // SOURCE_JAR or SOURCE_JMOD
+        public final FileChannel channel; // Only used for positional reads, which are thread-safe
+        public final ByteBuffer cen;      // Only used with absolute gets, which are thread-safe
+        public final long base;           // Where the zip starts in the file
+        
+        public JarSource(File file, String source, FileChannel channel, ByteBuffer cen, long base) {
+            this.file = file;
+            this.source = source;
+            this.channel = channel;
+            this.cen = cen;
+            this.base = base;
+        }
+    }
+    
+    private static class JarEntryLocation extends ClassLocation {
+        public final JarSource jar;
+        private final int cenOffset;
+        
+        public JarEntryLocation(JarSource jar, int cenOffset) {
+            this.jar = jar;
+            this.cenOffset = cenOffset;
+        }
+        
+        @Override
+        public String getSource() {
+            return jar.source;
+        }
+        
+        @Override
+        public byte[] readBytes() throws IOException {
+            ByteBuffer cen = jar.cen;
+            int method = cen.getShort(cenOffset + 10) & 0xffff;
+            long compressedSize = cen.getInt(cenOffset + 20) & 0xffffffffL;
+            long size = cen.getInt(cenOffset + 24) & 0xffffffffL;
+            long localHeaderPos = cen.getInt(cenOffset + 42) & 0xffffffffL;
+            
+            if (size == 0xffffffffL || compressedSize == 0xffffffffL || localHeaderPos == 0xffffffffL) {
+                long[] zip64 = readZip64Extra(size, compressedSize, localHeaderPos);
+                size = zip64[0];
+                compressedSize = zip64[1];
+                localHeaderPos = zip64[2];
+            }
+            localHeaderPos += jar.base;
+            if (size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE) {
+                throw new IOException("Class file too large in " + jar.file);
+            }
+            
+            // The local header's name and extra fields may differ from the central directory's.
+            ByteBuffer localHeader = readFully(jar.channel, localHeaderPos, LOC_SIZE);
+            if (localHeader.getInt(0) != LOC_SIG) {
+                throw new IOException("Corrupt local header in " + jar.file);
+            }
+            long dataPos = localHeaderPos + LOC_SIZE + (localHeader.getShort(26) & 0xffff) + (localHeader.getShort(28) & 0xffff);
+            
+            if (method == STORED) {
+                ByteBuffer data = ByteBuffer.allocate((int)size);
+                readFully(jar.channel, dataPos, data);
+                return data.array();
+            } else if (method == DEFLATED) {
+                // Inflater needs an extra dummy byte in nowrap mode.
+                ByteBuffer compressed = ByteBuffer.allocate((int)compressedSize + 1);
+                compressed.limit((int)compressedSize);
+                readFully(jar.channel, dataPos, compressed);
+                return inflate(compressed.array(), (int)size);
+            } else {
+                throw new IOException("Unsupported compression method " + method + " in " + jar.file);
+            }
+        }
+        
+        private long[] readZip64Extra(long size, long compressedSize, long localHeaderPos) throws IOException {
+            ByteBuffer cen = jar.cen;
+            int nameLength = cen.getShort(cenOffset + 28) & 0xffff;
+            int extraLength = cen.getShort(cenOffset + 30) & 0xffff;
+            int pos = cenOffset + CEN_SIZE + nameLength;
+            int end = pos + extraLength;
+            while (pos + 4 <= end) {
+                int id = cen.getShort(pos) & 0xffff;
+                int length = cen.getShort(pos + 2) & 0xffff;
+                if (id == ZIP64_EXTRA_ID) {
+                    // Only the fields that overflowed are present, in this order.
+                    int p = pos + 4;
+                    if (size == 0xffffffffL) {
+                        size = cen.getLong(p);
+                        p += 8;
+                    }
+                    if (compressedSize == 0xffffffffL) {
+                        compressedSize = cen.getLong(p);
+                        p += 8;
+                    }
+                    if (localHeaderPos == 0xffffffffL) {
+                        localHeaderPos = cen.getLong(p);
+                    }
+                    return new long[] { size, compressedSize, localHeaderPos };
+                }
+                pos += 4 + length;
+            }
+            throw new IOException("Missing ZIP64 extra field in " + jar.file);
+        }
+        
+        private byte[] inflate(byte[] compressed, int size) throws IOException {
+            byte[] result = new byte[size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                int n = 0;
+                while (n < size) {
+                    int k = inflater.inflate(result, n, size - n);
+                    if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += k;
+                }
+                if (n != size) {
+                    throw new IOException("Truncated entry in " + jar.file);
+                }
+                return result;
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt entry in " + jar.file, e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.javaportability.loaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Loads the platform classes of the running JVM from its {@code jrt:/} runtime image.
+ *
+ * Needs Java 9 or later to run. Every package of every system module is indexed
+ * when the loader is created, so a lookup goes straight to the module holding the class.
+ *
+ * The module system is used by reflection, so this still compiles for older Java versions.
+ */
+public class JrtClassFileLoader implements ClassFileLoader {
+    
+    /**
+     * How the runtime image is written on a search path.
+     */
+    public static final String PATH_ELEMENT = "jrt:/";
+    
+    private final ModuleApi api;
+    private final HashMap<String, SystemModule> modulesByPackage; // Internal package name -> module
+    
+    public JrtClassFileLoader() throws IOException {
+        this.api = ModuleApi.get();
+        this.modulesByPackage = new HashMap<String, SystemModule>();
+        
+        Object finder = api.invoke(api.ofSystem, null);
+        for (Object reference : (Set<?>)api.invoke(api.findAll, finder)) {
+            Object descriptor = api.invoke(api.descriptor, reference);
+            SystemModule module = new SystemModule((String)api.invoke(api.name, descriptor), reference);
+            for (Object pkg : (Set<?>)api.invoke(api.packages, descriptor)) {
+                modulesByPackage.put(((String)pkg).replace('.', '/'), module);
+            }
+        }
+    }
+    
+    /**
+     * Whether this JVM has a runtime image to load from.
+     */
+    public static boolean isAvailable() {
+        try {
+            ModuleApi.get();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * The name of the module whose package the class is in, or null if no module has the package.
+     */
+    public String getModuleName(String internalName) {
+        SystemModule module = findModule(internalName);
+        return (module != null) ? module.name : null;
+    }
+    
+    @Override
+    public ClassReader loadClass(String internalName) throws ClassNotFoundException, IOException {
+        SystemModule module = findModule(internalName);
+        InputStream in = (module != null) ? module.open(internalName + ".class") : null;
+        if (in == null) {
+            throw new ClassNotFoundException("Could not find class: " + internalName);
+        }
+        try {
+            return new ClassReader(in);
+        } finally {
+            in.close();
+        }
+    }
+    
+    private SystemModule findModule(String internalName) {
+        int lastSlash = internalName.lastIndexOf('/');
+        if (lastSlash == -1) {
+            return null; // Modules can't have classes in the unnamed package
+        }
+        return modulesByPackage.get(internalName.substring(0, lastSlash));
+    }
+    
+    private class SystemModule {
+        public final String name;
+        private final Object reference; // A ModuleReference
+        private Object reader;          // Its ModuleReader, opened on first use
+        
+        public SystemModule(String name, Object reference) {
+            this.name = name;
+            this.reference = reference;
+            this.reader = null;
+        }
+        
+        /**
+         * Returns a stream of the resource, or null if the module doesn't have it.
+         */
+        public InputStream open(String resource) throws IOException {
+            Object optional = api.invoke(api.openResource, getReader(), resource);
+            if ((Boolean)api.invoke(api.isPresent, optional)) {
+                return (InputStream)api.invoke(api.get, optional);
+            } else {
+                return null;
+            }
+        }
+        
+        private synchronized Object getReader() throws IOException {
+            if (reader == null) {
+                reader = api.invoke(api.openReader, reference);
+            }
+            return reader;
+        }
+    }
+    
+    /**
+     * The parts of java.lang.module and java.util.Optional that we call.
+     */
+    private static final class ModuleApi {
+        private static ModuleApi instance;
+        
+        public final Method ofSystem;     // ModuleFinder.ofSystem()
+        public final Method findAll;      // ModuleFinder.findAll()
+        public final Method descriptor;   // ModuleReference.descriptor()
+        public final Method openReader;   // ModuleReference.open()
+        public final Method name;         // ModuleDescriptor.name()
+        public final Method packages;     // ModuleDescriptor.packages()
+        public final Method openResource; // ModuleReader.open(String)
+        public final Method isPresent;    // Optional.isPresent()
+        public final Method get;          // Optional.get()
+        
+        private ModuleApi() throws ClassNotFoundException, NoSuchMethodException {
+            Class<?> finderClass = Class.forName("java.lang.module.ModuleFinder");
+            Class<?> referenceClass = Class.forName("java.lang.module.ModuleReference");
+            Class<?> descriptorClass = Class.forName("java.lang.module.ModuleDescriptor");
+            Class<?> readerClass = Class.forName("java.lang.module.ModuleReader");
+            Class<?> optionalClass = Class.forName("java.util.Optional");
+            this.ofSystem = finderClass.getMethod("ofSystem");
+            this.findAll = finderClass.getMethod("findAll");
+            this.descriptor = referenceClass.getMethod("descriptor");
+            this.openReader = referenceClass.getMethod("open");
+            this.name = descriptorClass.getMethod("name");
+            this.packages = descriptorClass.getMethod("packages");
+            this.openResource = readerClass.getMethod("open", String.class);
+            this.isPresent = optionalClass.getMethod("isPresent");
+            this.get = optionalClass.getMethod("get");
+        }
+        
+        public static synchronized ModuleApi get() throws IOException {
+            if (instance == null) {
+                try {
+                    instance = new ModuleApi();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("The jrt:/ image needs Java 9 or later");
+                } catch (NoSuchMethodException e) {
+                    throw new IOException("Unexpected module system API", e);
+                }
+            }
+            return instance;
+        }
+        
+        public Object invoke(Method method, Object target, Object... args) throws IOException {
+            try {
+                return method.invoke(target, args);
+            } catch (IllegalAccessException e) {
+                throw new IOException("Failed to call " + method, e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException("Failed to call " + method, e.getCause());
+            }
+        }
+    }
+}
@@ -6,11 +6,14 @@ public final class MethodPath implements Comparable<MethodPath> {
     private final String cls;
     private final String name;
     private final String desc;
+    private final int hash;
     
     public MethodPath(String cls, String name, String desc) {
         this.cls = cls;
         this.name = name;
         this.desc = desc;
+        // Names like <init> and get are everywhere, so all three parts matter.
+        this.hash = (cls.hashCode() * 31 + name.hashCode()) * 31 + desc.hashCode();
     }
     
     public MethodPath(Class<?> cls, String name, String desc) {
@@ -31,9 +34,13 @@ public final class MethodPath implements Comparable<MethodPath> {
     
     @Override
     public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
         if (obj instanceof MethodPath) {
             MethodPath that = (MethodPath)obj;
-            return this.cls.equals(that.cls) &&
+            return this.hash == that.hash &&
+                   this.cls.equals(that.cls) &&
                    this.name.equals(that.name) &&
                    this.desc.equals(that.desc);
         }
@@ -42,7 +49,7 @@ public final class MethodPath implements Comparable<MethodPath> {
     
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return hash;
     }
     
     @Override
@@ -50,8 +57,19 @@ public final class MethodPath implements Comparable<MethodPath> {
         return cls + " :: " + name + " " + desc;
     }
 
+    /**
+     * Orders by owner, then name, then descriptor.
+     * Since names don't contain spaces, this is the same as ordering by {@link #toString()}.
+     */
     @Override
     public int compareTo(MethodPath that) {
-        return this.toString().compareTo(that.toString());
+        int c = this.cls.compareTo(that.cls);
+        if (c == 0) {
+            c = this.name.compareTo(that.name);
+        }
+        if (c == 0) {
+            c = this.desc.compareTo(that.desc);
+        }
+        return c;
     }
 }
@@ -0,0 +1,32 @@
+package org.javaportability.misc;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one shared instance of each distinct {@link MethodPath} it is given.
+ *
+ * Only grows with the number of distinct methods referred to, which is far smaller
+ * than the number of calls. Each call graph builder and loaded facts cache has its own,
+ * so the paths go away with the graph or cache that needed them.
+ *
+ * May be used from any thread.
+ */
+public final class MethodPathInterner {
+    private final ConcurrentHashMap<MethodPath, MethodPath> paths;
+    
+    public MethodPathInterner() {
+        this.paths = new ConcurrentHashMap<MethodPath, MethodPath>();
+    }
+    
+    /**
+     * Returns the one instance equal to the path, which is the path itself if it's new.
+     */
+    public MethodPath intern(MethodPath path) {
+        MethodPath existing = paths.putIfAbsent(path, path);
+        return (existing != null) ? existing : path;
+    }
+    
+    public int size() {
+        return paths.size();
+    }
+}
@@ -0,0 +1,130 @@
+package org.javaportability.misc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timers of the work done while verifying, cheap enough to keep always.
+ *
+ * Code that does the work gets its counters once by name and then only adds to them.
+ * Names are dotted and start with the phase, like "load.bytes" or "analysis.methods".
+ * Asking for an existing name returns the same counter, so several components may add to it.
+ * Counter names mustn't end in ".count" or ".nanos", which are taken by timers in snapshots.
+ *
+ * Everything is thread-safe.
+ */
+public class Metrics {
+    
+    private final LinkedHashMap<String, Counter> counters; // In the order first asked for
+    private final LinkedHashMap<String, Timer> timers;
+    
+    public Metrics() {
+        this.counters = new LinkedHashMap<String, Counter>();
+        this.timers = new LinkedHashMap<String, Timer>();
+    }
+    
+    public synchronized Counter counter(String name) {
+        Counter c = counters.get(name);
+        if (c == null) {
+            c = new Counter();
+            counters.put(name, c);
+        }
+        return c;
+    }
+    
+    public synchronized Timer timer(String name) {
+        Timer t = timers.get(name);
+        if (t == null) {
+            t = new Timer();
+            timers.put(name, t);
+        }
+        return t;
+    }
+    
+    /**
+     * The current values by name. A timer gives two values,
+     * "name.count" for the times it was stopped and "name.nanos" for their total.
+     */
+    public synchronized Map<String, Long> snapshot() {
+        LinkedHashMap<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            values.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            values.put(e.getKey() + ".count", e.getValue().getCount());
+            values.put(e.getKey() + ".nanos", e.getValue().getNanos());
+        }
+        return values;
+    }
+    
+    /**
+     * What changed between two snapshots. Maximums are kept as they are in the later one.
+     */
+    public static Map<String, Long> difference(Map<String, Long> before, Map<String, Long> after) {
+        LinkedHashMap<String, Long> values = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> e : after.entrySet()) {
+            Long old = before.get(e.getKey());
+            if (old == null || e.getKey().endsWith(".max")) {
+                values.put(e.getKey(), e.getValue());
+            } else {
+                values.put(e.getKey(), e.getValue() - old);
+            }
+        }
+        return values;
+    }
+    
+    public static class Counter {
+        private final AtomicLong value = new AtomicLong();
+        
+        public void increment() {
+            value.incrementAndGet();
+        }
+        
+        public void add(long n) {
+            value.addAndGet(n);
+        }
+        
+        /**
+         * Raises the value to n if it's lower. For counters named "something.max".
+         */
+        public void recordMax(long n) {
+            long current;
+            while (n > (current = value.get())) {
+                if (value.compareAndSet(current, n)) {
+                    return;
+                }
+            }
+        }
+        
+        public long get() {
+            return value.get();
+        }
+    }
+    
+    /**
+     * Totals how long something took and how often. Use as
+     * <code>long start = timer.start(); ...; timer.stop(start);</code>
+     */
+    public static class Timer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        
+        public long start() {
+            return System.nanoTime();
+        }
+        
+        public void stop(long start) {
+            nanos.addAndGet(System.nanoTime() - start);
+            count.incrementAndGet();
+        }
+        
+        public long getCount() {
+            return count.get();
+        }
+        
+        public long getNanos() {
+            return nanos.get();
+        }
+    }
+}
@@ -8,7 +8,7 @@ public class Misc {
     }
 
     private static String shortClassName(String className) {
-        String[] parts = className.split("[/.]");
-        return parts[parts.length - 1];
+        int sep = Math.max(className.lastIndexOf('/'), className.lastIndexOf('.'));
+        return className.substring(sep + 1);
     }
 }
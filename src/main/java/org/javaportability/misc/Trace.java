@@ -0,0 +1,140 @@
+package org.javaportability.misc;
+
+import java.io.PrintWriter;
+
+/**
+ * Debug messages that cost nothing to leave in hot code while they're off.
+ *
+ * A message is a template with "{}" for each argument, which is only turned into
+ * a string if the message is actually written. Check {@link #isEnabled(Level)}
+ * before computing arguments that aren't at hand anyway.
+ *
+ * Enabled messages go to a writer, which is only flushed when asked,
+ * and/or into a ring buffer of the latest messages that can be dumped after a failure.
+ *
+ * Thread-safe.
+ */
+public class Trace {
+    
+    public enum Level {
+        OFF,
+        INFO,  // Once per class or method
+        DEBUG  // Once per call
+    }
+    
+    public static final Trace OFF = new Trace(Level.OFF, null, 0);
+    
+    private final Level level;
+    private final PrintWriter out; // Possibly null
+    private final Event[] ring; // Empty if not kept
+    private int nextInRing;
+    private long eventCount;
+    private final StringBuilder line; // Reused for formatting
+    
+    /**
+     * @param out Where to write messages, or null to only keep them in the ring buffer.
+     * @param ringSize How many of the latest messages to keep for {@link #dump(PrintWriter)}.
+     */
+    public Trace(Level level, PrintWriter out, int ringSize) {
+        this.level = level;
+        this.out = out;
+        this.ring = new Event[ringSize];
+        this.nextInRing = 0;
+        this.eventCount = 0;
+        this.line = new StringBuilder();
+    }
+    
+    public boolean isEnabled(Level l) {
+        return l.ordinal() <= level.ordinal() && level != Level.OFF;
+    }
+    
+    public void log(Level l, String template, Object arg) {
+        if (isEnabled(l)) {
+            record(new Event(template, arg, null, null));
+        }
+    }
+    
+    public void log(Level l, String template, Object arg1, Object arg2) {
+        if (isEnabled(l)) {
+            record(new Event(template, arg1, arg2, null));
+        }
+    }
+    
+    public void log(Level l, String template, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(l)) {
+            record(new Event(template, arg1, arg2, arg3));
+        }
+    }
+    
+    private synchronized void record(Event event) {
+        ++eventCount;
+        if (out != null) {
+            line.setLength(0);
+            event.format(line);
+            out.append(line).append('\n');
+        }
+        if (ring.length > 0) {
+            ring[nextInRing] = event;
+            nextInRing = (nextInRing + 1) % ring.length;
+        }
+    }
+    
+    public synchronized void flush() {
+        if (out != null) {
+            out.flush();
+        }
+    }
+    
+    /**
+     * Writes the messages in the ring buffer, oldest first.
+     */
+    public synchronized void dump(PrintWriter to) {
+        if (ring.length == 0) {
+            return;
+        }
+        long kept = Math.min(eventCount, ring.length);
+        to.println("Last " + kept + " of " + eventCount + " trace messages:");
+        int first = (eventCount > ring.length) ? nextInRing : 0;
+        for (int i = 0; i < kept; ++i) {
+            line.setLength(0);
+            ring[(first + i) % ring.length].format(line);
+            to.append(line).append('\n');
+        }
+        to.flush();
+    }
+    
+    private static class Event {
+        private final String template;
+        private final Object arg1;
+        private final Object arg2;
+        private final Object arg3;
+        
+        public Event(String template, Object arg1, Object arg2, Object arg3) {
+            this.template = template;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.arg3 = arg3;
+        }
+        
+        public void format(StringBuilder sb) {
+            int argIndex = 0;
+            int start = 0;
+            int brace;
+            while ((brace = template.indexOf("{}", start)) != -1) {
+                sb.append(template, start, brace);
+                switch (argIndex++) {
+                case 0:
+                    sb.append(arg1);
+                    break;
+                case 1:
+                    sb.append(arg2);
+                    break;
+                default:
+                    sb.append(arg3);
+                }
+                start = brace + 2;
+            }
+            sb.append(template, start, template.length());
+        }
+    }
+}
@@ -0,0 +1,3 @@
+module one.clazz {
+    exports pkg_in_jar;
+}
@@ -0,0 +1,7 @@
+package pkg_in_jar;
+
+public class ClassInJar {
+    public String helloFromJar() {
+        return "I'm in a multi-release JAR";
+    }
+}
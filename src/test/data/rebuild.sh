@@ -3,3 +3,13 @@ cd "`dirname $0`"
 javac pkg_*/*.java
 jar cvf withOneClass.jar pkg_in_jar
 jar cvf withNoClasses.jar DummyFile
+jar cvf0M withOneClassUncompressed.jar pkg_in_jar/ClassInJar.class
+# Needs a JDK 9 or later from here on.
+javac --release 7 -d multi_release/9 multi_release/9/pkg_in_jar/*.java
+jar --create --file multiRelease.jar pkg_in_jar/ClassInJar.class --release 9 -C multi_release/9 pkg_in_jar/ClassInJar.class
+rm multi_release/9/pkg_in_jar/*.class
+javac --release 9 -d jmod/classes jmod/module-info.java pkg_in_jar/ClassInJar.java
+cp pkg_in_jar/ClassInJar.class jmod/classes/pkg_in_jar/
+rm -f withOneClass.jmod
+jmod create --class-path jmod/classes withOneClass.jmod
+rm -r jmod/classes
@@ -0,0 +1,215 @@
+package org.javaportability.analysis;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.CallGraph;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.Root;
+import org.javaportability.callgraph.RootClassNotFoundException;
+import org.javaportability.callgraph.nodeset.SimpleNodeSet;
+import org.javaportability.loaders.ClassFileLoader;
+import org.javaportability.loaders.DefaultClassFileLoader;
+import org.javaportability.misc.MethodPath;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+
+public class PortabilityServiceTest {
+    
+    public static class Unsafe {
+        public double twice(double x) {
+            return x * 2;
+        }
+    }
+    
+    public static class First {
+        public double run() {
+            return new Unsafe().twice(1);
+        }
+    }
+    
+    public static class Second {
+        public void run() {
+        }
+    }
+    
+    private AnalysisSettings graphSettings;
+    private PortabilityService service;
+    
+    @Before
+    public void setUp() {
+        graphSettings = new AnalysisSettings(new DefaultClassFileLoader());
+        graphSettings.ignoreSet = new SimpleNodeSet();
+        ((SimpleNodeSet)graphSettings.ignoreSet).addClass("java/lang/Object");
+        service = new PortabilityService(graphSettings);
+    }
+    
+    @Test
+    public void testRepeatingRequestReusesGraph() throws Exception {
+        StrictfpSafetyAnalysis first = service.verify(roots(First.class), requestSettings());
+        int classCount = first.callGraph.getClassCount();
+        assertTrue(first.unsafeCallPaths.containsKey(runMethod(first.callGraph, First.class)));
+        
+        StrictfpSafetyAnalysis again = service.verify(roots(First.class), requestSettings());
+        assertSame(first.callGraph, again.callGraph);
+        assertEquals(classCount, again.callGraph.getClassCount());
+        assertTrue(again.unsafeCallPaths.containsKey(runMethod(again.callGraph, First.class)));
+        assertEquals(1, service.getCoveredRootCount());
+    }
+    
+    @Test
+    public void testNewRootsExtendGraph() throws Exception {
+        StrictfpSafetyAnalysis first = service.verify(roots(First.class), requestSettings());
+        assertFalse(first.callGraph.hasClass(Second.class));
+        
+        StrictfpSafetyAnalysis both = service.verify(roots(First.class, Second.class), requestSettings());
+        assertSame(first.callGraph, both.callGraph);
+        assertTrue(both.callGraph.hasClass(Second.class));
+        assertFalse(both.unsafeCallPaths.containsKey(runMethod(both.callGraph, Second.class)));
+        assertEquals(2, service.getCoveredRootCount());
+    }
+    
+    @Test
+    public void testRequestsWithDifferentAnalysisSettings() throws Exception {
+        StrictfpSafetyAnalysis strict = service.verify(roots(First.class), requestSettings());
+        
+        AnalysisSettings lenient = requestSettings();
+        lenient.allowedFpMath = new SimpleNodeSet();
+        ((SimpleNodeSet)lenient.allowedFpMath).addMethod(new MethodPath(Unsafe.class, "twice", "(D)D"));
+        StrictfpSafetyAnalysis allowed = service.verify(roots(First.class), lenient);
+        
+        MethodNode run = runMethod(strict.callGraph, First.class);
+        assertTrue(allowed.unsafeCallPaths.isEmpty());
+        assertTrue(strict.unsafeCallPaths.containsKey(run));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectingDifferentIgnoreSet() throws Exception {
+        AnalysisSettings settings = requestSettings();
+        settings.ignoreSet = new SimpleNodeSet();
+        service.verify(roots(First.class), settings);
+    }
+    
+    @Test
+    public void testListenerToldAboutEachRootBeforeTheNextIsAnalyzed() throws Exception {
+        final List<String> events = new ArrayList<String>();
+        service.verify(roots(First.class, Second.class), requestSettings(), new PortabilityService.ResultListener() {
+            private StrictfpSafetyAnalysis result;
+            
+            @Override
+            public void analysisStarted(StrictfpSafetyAnalysis r) {
+                result = r;
+            }
+            
+            @Override
+            public void rootAnalyzed(Root root) {
+                MethodNode secondRun = runMethod(result.callGraph, Second.class);
+                events.add(root + " " + result.strictfpAnalysisDoneMethods.contains(secondRun));
+            }
+            
+            @Override
+            public void analysisFinished() {
+            }
+        });
+        assertEquals(Arrays.asList(new Root(First.class) + " false", new Root(Second.class) + " true"), events);
+    }
+    
+    @Test
+    public void testMissingRootClassLeavesGraphUsable() throws Exception {
+        service.verify(roots(First.class), requestSettings());
+        try {
+            service.verify(Arrays.asList(new Root("DoesNotExist")), requestSettings());
+            fail();
+        } catch (RootClassNotFoundException e) {
+        }
+        StrictfpSafetyAnalysis result = service.verify(roots(First.class), requestSettings());
+        assertFalse(result.unsafeCallPaths.isEmpty());
+        assertEquals(1, service.getCoveredRootCount());
+    }
+    
+    @Test
+    public void testOtherFailureStartsGraphOver() throws Exception {
+        final boolean[] failing = { true };
+        graphSettings.classFileLoader = new ClassFileLoader() {
+            private final ClassFileLoader loader = new DefaultClassFileLoader();
+            
+            @Override
+            public ClassReader loadClass(String internalName) throws ClassNotFoundException, IOException {
+                if (failing[0] && internalName.equals(Type.getInternalName(Unsafe.class))) {
+                    throw new IllegalArgumentException("Unreadable class file");
+                }
+                return loader.loadClass(internalName);
+            }
+        };
+        try {
+            service.verify(roots(First.class), requestSettings());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unreadable class file", e.getMessage());
+        }
+        assertEquals(0, service.getCoveredRootCount());
+        
+        failing[0] = false;
+        StrictfpSafetyAnalysis result = service.verify(roots(First.class), requestSettings());
+        assertTrue(result.unsafeCallPaths.containsKey(runMethod(result.callGraph, First.class)));
+        assertEquals(1, service.getCoveredRootCount());
+    }
+    
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 20; ++i) {
+                final Class<?> rootClass = (i % 2 == 0) ? First.class : Second.class;
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        StrictfpSafetyAnalysis result = service.verify(roots(rootClass), requestSettings());
+                        return !result.unsafeCallPaths.isEmpty();
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                assertEquals(i % 2 == 0, futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, service.getCoveredRootCount());
+    }
+    
+    private AnalysisSettings requestSettings() {
+        AnalysisSettings settings = new AnalysisSettings(graphSettings.classFileLoader);
+        settings.ignoreSet = graphSettings.ignoreSet;
+        return settings;
+    }
+    
+    private static List<Root> roots(Class<?>... classes) {
+        List<Root> roots = new ArrayList<Root>();
+        for (Class<?> cls : classes) {
+            roots.add(new Root(cls));
+        }
+        return roots;
+    }
+    
+    private static MethodNode runMethod(CallGraph cg, Class<?> cls) {
+        for (MethodNode m : cg.getClass(cls).getLocalMethods()) {
+            if (m.getName().equals("run")) {
+                return m;
+            }
+        }
+        throw new AssertionError("No run method in " + cls);
+    }
+}
@@ -2,6 +2,9 @@ package org.javaportability.analysis;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import org.javaportability.analysis.results.BasicCallGraphAnalysis;
 import org.javaportability.analysis.results.CallPath;
 import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
@@ -11,6 +14,7 @@ import org.javaportability.callgraph.CallGraph.MethodNode;
 import org.javaportability.callgraph.Root;
 import org.javaportability.callgraph.nodeset.SimpleNodeSet;
 import org.javaportability.loaders.DefaultClassFileLoader;
+import org.javaportability.misc.Metrics;
 import org.junit.Before;
 import org.junit.Test;
 import org.objectweb.asm.MethodType;
@@ -98,6 +102,30 @@ public class StrictfpSafetyAnalyzerTest {
         assertNull(result.unsafeCallPaths.get(m1));
     }
     
+    @Test
+    public void testMetricsCountSetChecks() {
+        ClassNode a = cg.addClass("A", null);
+        MethodNode m1 = a.addMethod("m1", mt);
+        MethodNode m2 = a.addMethod("m2", mt);
+        cg.addCall(m1, m2);
+        
+        settings.allowedFpMath = new SimpleNodeSet();
+        ((SimpleNodeSet)settings.allowedFpMath).addMethod(m2.getPath());
+        basic.localFpMathMethods.add(m2);
+        Metrics metrics = new Metrics();
+        analyzer.setMetrics(metrics);
+        analyzeFrom(m1);
+        
+        Map<String, Long> values = metrics.snapshot();
+        assertEquals(2L, (long)values.get("analysis.methods"));
+        assertTrue(values.get("nodeset.allowfp.checks") > 0);
+        assertTrue(values.get("nodeset.allowfp.hits") > 0);
+        assertTrue(values.get("nodeset.safe.checks") > 0);
+        assertEquals(0L, (long)values.get("nodeset.safe.hits"));
+        assertTrue(values.get("nodeset.unsafe.checks") > 0);
+        assertEquals(0L, (long)values.get("nodeset.unsafe.hits"));
+    }
+    
     @Test
     public void testCallPathsAcrossMethodMarkedInherentlySafeAreAlwaysSafe() {
         ClassNode a = cg.addClass("A", null);
@@ -187,6 +215,111 @@ public class StrictfpSafetyAnalyzerTest {
         assertEquals(CallPath.make(m1, m2), result.unsafeCallPaths.get(m1));
     }
     
+    @Test
+    public void testEveryMethodInCycleWithUnsafeExitIsUnsafe() {
+        ClassNode a = cg.addClass("A", null);
+        MethodNode m1 = a.addMethod("m1", mt);
+        MethodNode m2 = a.addMethod("m2", mt);
+        MethodNode unsafe = a.addMethod("unsafe", mt);
+        
+        // m2 is finished before m1 finds its unsafe callee.
+        cg.addCall(m1, m2);
+        cg.addCall(m2, m1);
+        cg.addCall(m1, unsafe);
+        basic.localFpMathMethods.add(unsafe);
+        
+        analyzeFrom(m1);
+        StrictfpSafetyAnalysis result = analyzeFrom(m2);
+        
+        assertEquals(CallPath.make(m1, unsafe), result.unsafeCallPaths.get(m1));
+        assertEquals(CallPath.make(m2, m1, unsafe), result.unsafeCallPaths.get(m2));
+    }
+    
+    @Test
+    public void testAnalyzingManyRootsAtOnce() {
+        ClassNode a = cg.addClass("A", null);
+        ClassNode b = cg.addClass("B", null);
+        MethodNode safe = a.addMethod("safe", mt);
+        MethodNode viaB = a.addMethod("viaB", mt);
+        MethodNode unsafe = b.addMethod("unsafe", mt);
+        MethodNode other = b.addMethod("other", mt);
+        cg.addCall(viaB, unsafe);
+        cg.addCall(unsafe, viaB);
+        basic.localFpMathMethods.add(unsafe);
+        
+        analyzer.addRoots(Arrays.asList(new Root("A", "viaB"), new Root("B", "other"), new Root("A", "safe")));
+        StrictfpSafetyAnalysis result = analyzer.getResult();
+        
+        assertEquals(CallPath.make(viaB, unsafe), result.unsafeCallPaths.get(viaB));
+        assertNull(result.unsafeCallPaths.get(safe));
+        assertTrue(result.strictfpAnalysisDoneMethods.contains(other));
+        assertEquals(4, result.strictfpAnalysisDoneMethods.size());
+    }
+    
+    @Test
+    public void testInvalidatingChangedMethodAndItsCallers() {
+        ClassNode a = cg.addClass("A", null);
+        MethodNode m1 = a.addMethod("m1", mt);
+        MethodNode m2 = a.addMethod("m2", mt);
+        MethodNode changed = a.addMethod("changed", mt);
+        MethodNode other = a.addMethod("other", mt);
+        cg.addCall(m1, m2);
+        cg.addCall(m2, changed);
+        cg.addCall(m1, other);
+        analyzeFrom(m1);
+        
+        basic.localFpMathMethods.add(changed);
+        assertEquals(3, analyzer.invalidate(Arrays.asList(changed)));
+        assertTrue(analyzer.getResult().strictfpAnalysisDoneMethods.contains(other));
+        StrictfpSafetyAnalysis result = analyzeFrom(m1);
+        
+        assertEquals(CallPath.make(m1, m2, changed), result.unsafeCallPaths.get(m1));
+        assertEquals(4, result.strictfpAnalysisDoneMethods.size());
+    }
+    
+    @Test
+    public void testInvalidationStopsAtMethodsAssumedSafe() {
+        ClassNode a = cg.addClass("A", null);
+        MethodNode root = a.addMethod("root", mt);
+        MethodNode safe = a.addMethod("safe", mt);
+        MethodNode changed = a.addMethod("changed", mt);
+        cg.addCall(root, safe);
+        cg.addCall(safe, changed);
+        
+        settings.assumedSafe = new SimpleNodeSet();
+        ((SimpleNodeSet)settings.assumedSafe).addMethod(safe.getPath());
+        analyzeFrom(root);
+        
+        basic.localFpMathMethods.add(changed);
+        assertEquals(0, analyzer.invalidate(Arrays.asList(changed)));
+        assertNull(analyzeFrom(root).unsafeCallPaths.get(root));
+    }
+    
+    @Test
+    public void testVeryDeepCallChain() {
+        ClassNode a = cg.addClass("A", null);
+        int depth = 100000;
+        MethodNode first = a.addMethod("m0", mt);
+        MethodNode prev = first;
+        for (int i = 1; i < depth; ++i) {
+            MethodNode m = a.addMethod("m" + i, mt);
+            cg.addCall(prev, m);
+            prev = m;
+        }
+        cg.addCall(prev, first);
+        MethodNode unsafe = a.addMethod("unsafe", mt);
+        cg.addCall(prev, unsafe);
+        basic.localFpMathMethods.add(unsafe);
+        
+        StrictfpSafetyAnalysis result = analyzeFrom(first);
+        
+        int length = 0;
+        for (MethodNode m : result.unsafeCallPaths.get(first)) {
+            length += 1;
+        }
+        assertEquals(depth + 1, length);
+        assertEquals(depth + 1, result.unsafeCallPaths.size());
+    }
     
 
     private StrictfpSafetyAnalysis analyzeFrom(MethodNode root) {
@@ -47,6 +47,12 @@ public class ArgParserTest {
         assertFalse(parseVerifyArgs("Target").trace);
     }
     
+    @Test
+    public void testDebugOnFailure() {
+        assertTrue(parseVerifyArgs("--debug-on-failure", "Target").traceOnFailure);
+        assertFalse(parseVerifyArgs("Target").traceOnFailure);
+    }
+    
     @Test
     public void testVerbose() {
         assertTrue(parseVerifyArgs("--verbose", "Target").verbose);
@@ -62,6 +68,15 @@ public class ArgParserTest {
         assertEquals("bar.jar", sp.get(1));
     }
     
+    @Test
+    public void testSearchPathWithRuntimeImageAndJmod() {
+        List<String> sp = parseVerifyArgs("-p", "jrt:/:/usr/foo/:bar.jmod", "Target").searchPath;
+        assertEquals(3, sp.size());
+        assertEquals("jrt:/", sp.get(0));
+        assertEquals("/usr/foo/", sp.get(1));
+        assertEquals("bar.jmod", sp.get(2));
+    }
+    
     @Test
     public void testCombined() {
         Settings settings = parseVerifyArgs("--path", "xoo/foo.jar", "One", "Two::method");
@@ -71,6 +86,49 @@ public class ArgParserTest {
         assertEquals("Two::method", settings.targets.get(1));
     }
     
+    @Test
+    public void testThreads() {
+        assertEquals(4, parseVerifyArgs("-j", "4", "Target").threads);
+        assertEquals(2, parseVerifyArgs("--threads", "2", "Target").threads);
+        assertEquals(1, parseVerifyArgs("Target").threads);
+    }
+    
+    @Test
+    public void testCacheFile() {
+        assertEquals("facts.cache", parseVerifyArgs("--cache", "facts.cache", "Target").cacheFile);
+        assertNull(parseVerifyArgs("Target").cacheFile);
+    }
+    
+    @Test
+    public void testMetricsFile() {
+        assertEquals("metrics.json", parseVerifyArgs("--metrics", "metrics.json", "Target").metricsFile);
+        assertNull(parseVerifyArgs("Target").metricsFile);
+    }
+    
+    @Test
+    public void testReportFormat() {
+        assertEquals("text", parseVerifyArgs("Target").reportFormat);
+        assertEquals("jsonl", parseVerifyArgs("--format", "jsonl", "Target").reportFormat);
+        assertEquals("sarif", parseVerifyArgs("--format", "sarif", "Target").reportFormat);
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfReportFormatUnknown() {
+        parseVerifyArgs("--format", "xml", "Target");
+    }
+    
+    @Test
+    public void testDispatchMode() {
+        assertFalse(parseVerifyArgs("Target").virtualDispatch);
+        assertFalse(parseVerifyArgs("--dispatch", "static", "Target").virtualDispatch);
+        assertTrue(parseVerifyArgs("--dispatch", "cha", "Target").virtualDispatch);
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfDispatchModeUnknown() {
+        parseVerifyArgs("--dispatch", "rta", "Target");
+    }
+    
     @Test
     public void testConfigFiles() {
         parseVerifyArgs("-c", "file1", "--config", "file2", "Target");
@@ -80,11 +138,83 @@ public class ArgParserTest {
         verifyNoMoreInteractions(configFileLoader);
     }
     
+    @Test
+    public void testRelativeFileNamesResolvedAgainstBaseDir() {
+        Settings settings = new Settings();
+        ArgParser parser = new ArgParser(settings, configFileLoader);
+        parser.setBaseDir(new File("/work"));
+        parser.parseArgs(new String[] { "verify", "-p", "jrt:/:classes/:/abs/lib.jar", "-c", "conf", "--cache", "facts.cache", "Target" });
+        
+        assertEquals("jrt:/", settings.searchPath.get(0));
+        assertEquals(new File("/work", "classes").getPath() + "/", settings.searchPath.get(1));
+        assertEquals("/abs/lib.jar", settings.searchPath.get(2));
+        assertEquals(new File("/work", "facts.cache").getPath(), settings.cacheFile);
+        verify(configFileLoader).loadConfig(new File("/work", "conf"));
+    }
+    
+    @Test
+    public void testDaemonCommands() {
+        Settings settings = parseArgs("daemon", "--port", "1234", "--idle-timeout", "5");
+        assertEquals("daemon", settings.command);
+        assertEquals(1234, settings.daemonPort);
+        assertEquals(5, settings.idleTimeoutMinutes);
+        
+        settings = parseArgs("shutdown");
+        assertEquals("shutdown", settings.command);
+        assertEquals(Daemon.DEFAULT_PORT, settings.daemonPort);
+        
+        settings = parseVerifyArgs("--daemon", "Target");
+        assertEquals("verify", settings.command);
+        assertTrue(settings.useDaemon);
+        assertFalse(parseVerifyArgs("Target").useDaemon);
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfPortOutOfRange() {
+        parseArgs("daemon", "--port", "70000");
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfIdleTimeoutNegative() {
+        parseArgs("daemon", "--idle-timeout", "-1");
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfDaemonGivenTargets() {
+        parseArgs("daemon", "Target");
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfDaemonAskedToTrace() {
+        parseVerifyArgs("--daemon", "--debug-on-failure", "Target");
+    }
+    
     @Test(expected = BadUsageException.class)
     public void testBadUsageIfSearchPathEntryMissingTrailingSlashAndJarExtension() {
         parseVerifyArgs("-p", "foo/foo:bar.jar", "Target");
     }
     
+    @Test
+    public void testWildcardTargetsWithSearchPath() {
+        assertEquals("pkg.*", parseVerifyArgs("-p", "foo.jar", "pkg.*").targets.get(0));
+        assertEquals("Target::run*", parseVerifyArgs("Target::run*").targets.get(0));
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfWildcardTargetWithoutSearchPath() {
+        parseVerifyArgs("pkg.*");
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfThreadCountNotPositive() {
+        parseVerifyArgs("-j", "0", "Target");
+    }
+    
+    @Test(expected = BadUsageException.class)
+    public void testBadUsageIfThreadCountNotANumber() {
+        parseVerifyArgs("-j", "many", "Target");
+    }
+    
     @Test(expected = BadUsageException.class)
     public void testBadUsageIfOnlyVerifyCommandGiven() {
         parseVerifyArgs(new String[0]);
@@ -0,0 +1,310 @@
+package org.javaportability.app;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.callgraph.ClassFactsCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class DaemonTest {
+    
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+    
+    public static class Unsafe {
+        public double twice(double x) {
+            return x * 2;
+        }
+    }
+    
+    public static class Caller {
+        public double run() {
+            return new Unsafe().twice(1);
+        }
+    }
+    
+    public static class Other {
+        public void run() {
+        }
+    }
+    
+    public static class Another {
+        public void run() {
+        }
+    }
+    
+    private ByteArrayOutputStream daemonLog;
+    private File tokenDir;
+    private Daemon daemon;
+    private Thread daemonThread;
+    private int port;
+    
+    @Before
+    public void setUp() throws Exception {
+        FileWriter config = new FileWriter(tmpDir.newFile("config"));
+        config.write("ignore java.lang.Object\n");
+        config.close();
+        
+        daemonLog = new ByteArrayOutputStream();
+        tokenDir = new File(tmpDir.getRoot(), "tokens");
+        daemon = new Daemon(0, 0, tokenDir);
+        port = daemon.start();
+        daemonThread = startDaemon(daemon);
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        if (daemonThread.isAlive()) {
+            new DaemonClient(port, tokenDir).shutdown();
+            daemonThread.join(10000);
+        }
+    }
+    
+    private Thread startDaemon(final Daemon d) {
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    d.run(new PrintStream(daemonLog, true));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+    
+    private List<String> verifyArgs() {
+        return Arrays.asList("verify", "-c", "config", Caller.class.getName());
+    }
+    
+    @Test
+    public void testVerifyGivesSameOutputAsDirectRun() throws Exception {
+        String direct = runDirectly(verifyArgs());
+        assertTrue(direct.contains(Caller.class.getName().replace('.', '/')));
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        DaemonClient client = new DaemonClient(port, tokenDir);
+        assertEquals(0, client.verify(tmpDir.getRoot(), verifyArgs(), new PrintStream(out), new PrintStream(err)));
+        assertEquals(direct, out.toString("UTF-8"));
+        assertEquals("", err.toString("UTF-8"));
+        
+        out.reset();
+        assertEquals(0, client.verify(tmpDir.getRoot(), verifyArgs(), new PrintStream(out), new PrintStream(err)));
+        assertEquals(direct, out.toString("UTF-8"));
+    }
+    
+    @Test
+    public void testVerifySeesChangedClassFiles() throws Exception {
+        File classes = tmpDir.newFolder("classes");
+        File unsafeFile = copyClassFile(Unsafe.class, classes);
+        copyClassFile(Caller.class, classes);
+        List<String> args = Arrays.asList("verify", "-c", "config", "-p", "classes/", Caller.class.getName());
+        String unsafeOutput = runDirectly(args);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        DaemonClient client = new DaemonClient(port, tokenDir);
+        assertEquals(0, client.verify(tmpDir.getRoot(), args, new PrintStream(out), new PrintStream(err)));
+        assertEquals(unsafeOutput, out.toString("UTF-8"));
+        
+        // Same size, so only the modification time tells.
+        long modified = unsafeFile.lastModified();
+        writeStrictfpCopy(Unsafe.class, unsafeFile);
+        assertTrue(unsafeFile.setLastModified(modified - 10000));
+        String safeOutput = runDirectly(args);
+        assertFalse(safeOutput.equals(unsafeOutput));
+        
+        out.reset();
+        assertEquals(0, client.verify(tmpDir.getRoot(), args, new PrintStream(out), new PrintStream(err)));
+        assertEquals(safeOutput, out.toString("UTF-8"));
+        assertEquals("", err.toString("UTF-8"));
+    }
+    
+    @Test
+    public void testConcurrentCommandsShareService() throws Exception {
+        final String direct = runDirectly(verifyArgs());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> outputs = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; ++i) {
+                outputs.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        ByteArrayOutputStream err = new ByteArrayOutputStream();
+                        int status = new DaemonClient(port, tokenDir).verify(tmpDir.getRoot(), verifyArgs(), new PrintStream(out), new PrintStream(err));
+                        return status + " " + out.toString("UTF-8") + err.toString("UTF-8");
+                    }
+                }));
+            }
+            for (Future<String> output : outputs) {
+                assertEquals("0 " + direct, output.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testServicesShareCacheFile() throws Exception {
+        File first = tmpDir.newFolder("first");
+        copyClassFile(Caller.class, first);
+        copyClassFile(Unsafe.class, first);
+        copyClassFile(Another.class, first);
+        File second = tmpDir.newFolder("second");
+        copyClassFile(Other.class, second);
+        
+        DaemonClient client = new DaemonClient(port, tokenDir);
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        List<String> firstArgs = Arrays.asList("verify", "-c", "config", "-p", "first/", "--cache", "facts", Caller.class.getName());
+        assertEquals(0, client.verify(tmpDir.getRoot(), firstArgs, out, out));
+        List<String> secondArgs = Arrays.asList("verify", "-c", "config", "-p", "second/", "--cache", "facts", Other.class.getName());
+        assertEquals(0, client.verify(tmpDir.getRoot(), secondArgs, out, out));
+        // The first service adds to the cache after the second saved it, so it must have seen the second's facts.
+        List<String> moreFirstArgs = Arrays.asList("verify", "-c", "config", "-p", "first/", "--cache", "facts", Another.class.getName());
+        assertEquals(0, client.verify(tmpDir.getRoot(), moreFirstArgs, out, out));
+        
+        assertEquals(4, ClassFactsCache.load(new File(tmpDir.getRoot(), "facts")).size());
+    }
+    
+    @Test
+    public void testBadUsageGivesErrorStatus() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        List<String> args = Arrays.asList("verify", "--oops", "Target");
+        assertEquals(1, new DaemonClient(port, tokenDir).verify(tmpDir.getRoot(), args, new PrintStream(out), new PrintStream(err)));
+        assertTrue(err.toString("UTF-8").startsWith("Invalid flag: --oops\n"));
+        assertEquals("", out.toString("UTF-8"));
+    }
+    
+    @Test
+    public void testRejectsTracing() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        List<String> args = Arrays.asList("verify", "--debug", "-c", "config", Caller.class.getName());
+        assertEquals(1, new DaemonClient(port, tokenDir).verify(tmpDir.getRoot(), args, new PrintStream(out), new PrintStream(err)));
+        assertEquals(Daemon.NO_TRACING_MESSAGE + "\n", err.toString("UTF-8"));
+        assertEquals("", out.toString("UTF-8"));
+    }
+    
+    @Test
+    public void testShutdown() throws Exception {
+        new DaemonClient(port, tokenDir).shutdown();
+        daemonThread.join(10000);
+        assertFalse(daemonThread.isAlive());
+        assertTrue(daemonLog.toString("UTF-8").contains("Daemon shut down"));
+        assertFalse(Daemon.getTokenFile(tokenDir, port).exists());
+    }
+    
+    @Test
+    public void testRejectsWrongToken() throws Exception {
+        assertTrue(Daemon.getTokenFile(tokenDir, port).exists());
+        File otherDir = tmpDir.newFolder("other");
+        FileWriter token = new FileWriter(Daemon.getTokenFile(otherDir, port));
+        token.write("0123456789abcdef0123456789abcdef\n");
+        token.close();
+        DaemonClient client = new DaemonClient(port, otherDir);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(1, client.verify(tmpDir.getRoot(), verifyArgs(), new PrintStream(out), new PrintStream(err)));
+        assertTrue(err.toString("UTF-8").startsWith("Wrong daemon token"));
+        assertEquals("", out.toString("UTF-8"));
+        
+        client.shutdown();
+        daemonThread.join(1500); // Longer than the daemon waits for connections at a time
+        assertTrue(daemonThread.isAlive());
+    }
+    
+    @Test(timeout = 10000)
+    public void testStopsWhenIdle() throws Exception {
+        Daemon idle = new Daemon(0, 200, tokenDir);
+        idle.start();
+        idle.run(new PrintStream(new ByteArrayOutputStream()));
+    }
+    
+    private static File copyClassFile(Class<?> cls, File classesDir) throws IOException {
+        String path = cls.getName().replace('.', '/') + ".class";
+        File file = new File(classesDir, path);
+        file.getParentFile().mkdirs();
+        InputStream in = ClassLoader.getSystemResourceAsStream(path);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return file;
+    }
+    
+    /**
+     * Writes the class file with its methods made strictfp, which makes them safe.
+     */
+    private static void writeStrictfpCopy(Class<?> cls, File file) throws IOException {
+        ClassReader reader = new ClassReader(cls.getName());
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassAdapter(writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return super.visitMethod(access | Opcodes.ACC_STRICT, name, desc, signature, exceptions);
+            }
+        }, 0);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(writer.toByteArray());
+        } finally {
+            out.close();
+        }
+    }
+    
+    private String runDirectly(List<String> args) throws Exception {
+        Settings settings = new Settings();
+        settings.analysisSettings = new AnalysisSettings(null);
+        ArgParser argParser = new ArgParser(settings, new ConfigFileLoader(settings));
+        argParser.setBaseDir(tmpDir.getRoot());
+        argParser.parseArgs(args.toArray(new String[args.size()]));
+        settings.analysisSettings.classFileLoader = Main.makeClassFileLoader(settings);
+        
+        StringWriter output = new StringWriter();
+        new Main(settings, output, new PrintWriter(output, true)).verify(Main.makeService(settings));
+        return output.toString();
+    }
+}
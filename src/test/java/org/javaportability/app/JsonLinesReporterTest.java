@@ -0,0 +1,43 @@
+package org.javaportability.app;
+
+import static org.junit.Assert.*;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.analysis.results.CallPath;
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.CallGraph;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.Root;
+import org.junit.Test;
+import org.objectweb.asm.MethodType;
+
+public class JsonLinesReporterTest {
+    
+    @Test
+    public void testOneLinePerUnsafeRootMethod() throws Exception {
+        CallGraph cg = new CallGraph();
+        StrictfpSafetyAnalysis result = new StrictfpSafetyAnalysis(new AnalysisSettings(null), cg);
+        MethodNode foo = cg.addClass("pkg/A").addMethod("foo", new MethodType("()V"));
+        MethodNode bar = cg.addClass("pkg/B\"").addMethod("bar", new MethodType("(D)V"));
+        result.unsafeCallPaths.put(foo, new CallPath(foo, new CallPath(bar)));
+        result.unsafeCallPaths.put(bar, new CallPath(bar));
+        
+        StringBuilder output = new StringBuilder();
+        JsonLinesReporter reporter = new JsonLinesReporter();
+        reporter.startReport(output, result);
+        reporter.writeRoot(new Root("pkg/A"));
+        assertEquals(
+            "{\"root\":{\"class\":\"pkg/A\",\"method\":\"foo\",\"desc\":\"()V\"}," +
+            "\"path\":[{\"class\":\"pkg/A\",\"method\":\"foo\",\"desc\":\"()V\"}," +
+            "{\"class\":\"pkg/B\\\"\",\"method\":\"bar\",\"desc\":\"(D)V\"}]}\n",
+            output.toString());
+        
+        output.setLength(0);
+        reporter.writeRoot(new Root("pkg/B\""));
+        reporter.finishReport();
+        assertEquals(
+            "{\"root\":{\"class\":\"pkg/B\\\"\",\"method\":\"bar\",\"desc\":\"(D)V\"}," +
+            "\"path\":[{\"class\":\"pkg/B\\\"\",\"method\":\"bar\",\"desc\":\"(D)V\"}]}\n",
+            output.toString());
+    }
+}
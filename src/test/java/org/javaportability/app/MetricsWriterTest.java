@@ -0,0 +1,32 @@
+package org.javaportability.app;
+
+import static org.junit.Assert.*;
+
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+public class MetricsWriterTest {
+    
+    private LinkedHashMap<String, Long> values() {
+        LinkedHashMap<String, Long> values = new LinkedHashMap<String, Long>();
+        values.put("load.bytes", 1234L);
+        values.put("load.classes.count", 2L);
+        values.put("load.classes.nanos", 1500000L);
+        return values;
+    }
+    
+    @Test
+    public void testText() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        MetricsWriter.writeText(values(), sb);
+        assertEquals("Metrics:\n* load.bytes: 1234\n* load.classes: 2 in 1.5 ms\n\n", sb.toString());
+    }
+    
+    @Test
+    public void testJson() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        MetricsWriter.writeJson(values(), sb);
+        assertEquals("{\"load.bytes\":1234,\"load.classes.count\":2,\"load.classes.nanos\":1500000}\n", sb.toString());
+    }
+}
@@ -0,0 +1,77 @@
+package org.javaportability.app;
+
+import static org.junit.Assert.*;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.analysis.results.CallPath;
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.CallGraph;
+import org.javaportability.callgraph.CallGraph.ClassNode;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.Root;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.MethodType;
+
+public class ReporterTest {
+    
+    private final MethodType mt = new MethodType("()V");
+    
+    private CallGraph cg;
+    private StrictfpSafetyAnalysis result;
+    private StringBuilder output;
+    private Reporter reporter;
+    
+    @Before
+    public void setUp() {
+        cg = new CallGraph();
+        result = new StrictfpSafetyAnalysis(new AnalysisSettings(null), cg);
+        output = new StringBuilder();
+        reporter = new Reporter(new Settings());
+    }
+    
+    @Test
+    public void testWritingPathsAsRootsAreAnalyzed() throws Exception {
+        ClassNode a = cg.addClass("pkg/A");
+        ClassNode b = cg.addClass("pkg/B");
+        MethodNode foo = a.addMethod("foo", mt);
+        MethodNode longerName = b.addMethod("longerName", mt);
+        MethodNode bar = b.addMethod("bar", mt);
+        
+        reporter.startReport(output, result);
+        assertEquals("Stats:\n* Classes visited: 2\n\n", output.toString());
+        
+        result.unsafeCallPaths.put(foo, new CallPath(foo, new CallPath(longerName, new CallPath(bar))));
+        reporter.writeRoot(new Root("pkg/A"));
+        String expectedPath =
+            "Unsafe call paths:\n" +
+            "* Class pkg/A::foo ()V:\n" +
+            "  -> B::longerName    [pkg/B :: longerName ()V]\n" +
+            "  -> B::bar           [pkg/B :: bar ()V]\n" +
+            "\n";
+        assertEquals("Stats:\n* Classes visited: 2\n\n" + expectedPath, output.toString());
+        
+        reporter.finishReport();
+        assertEquals("Stats:\n* Classes visited: 2\n\n" + expectedPath + "\n", output.toString());
+    }
+    
+    @Test
+    public void testAllSafe() throws Exception {
+        cg.addClass("A").addMethod("foo", mt);
+        reporter.startReport(output, result);
+        reporter.writeRoot(new Root("A"));
+        reporter.finishReport();
+        assertEquals("Stats:\n* Classes visited: 1\n\nAll call paths seem safe.\n\n", output.toString());
+    }
+    
+    @Test
+    public void testOnlyUnlistedMethodsUnsafe() throws Exception {
+        cg.addClass("A").addMethod("foo", mt);
+        MethodNode inherited = cg.addClass("Base").addMethod("bar", mt);
+        result.unsafeCallPaths.put(inherited, new CallPath(inherited));
+        reporter.startReport(output, result);
+        reporter.writeRoot(new Root("A"));
+        reporter.finishReport();
+        assertEquals("Stats:\n* Classes visited: 2\n\nUnsafe call paths:\n\n", output.toString());
+    }
+}
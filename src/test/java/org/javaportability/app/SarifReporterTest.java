@@ -0,0 +1,52 @@
+package org.javaportability.app;
+
+import static org.junit.Assert.*;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.analysis.results.CallPath;
+import org.javaportability.analysis.results.StrictfpSafetyAnalysis;
+import org.javaportability.callgraph.CallGraph;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.Root;
+import org.junit.Test;
+import org.objectweb.asm.MethodType;
+
+public class SarifReporterTest {
+    
+    @Test
+    public void testResultsBetweenHeaderAndFooter() throws Exception {
+        CallGraph cg = new CallGraph();
+        StrictfpSafetyAnalysis result = new StrictfpSafetyAnalysis(new AnalysisSettings(null), cg);
+        MethodNode foo = cg.addClass("pkg/A").addMethod("foo", new MethodType("()V"));
+        MethodNode bar = cg.addClass("pkg/B").addMethod("bar", new MethodType("()V"));
+        result.unsafeCallPaths.put(foo, new CallPath(foo, new CallPath(bar)));
+        result.unsafeCallPaths.put(bar, new CallPath(bar));
+        
+        StringBuilder output = new StringBuilder();
+        SarifReporter reporter = new SarifReporter();
+        reporter.startReport(output, result);
+        assertTrue(output.toString().startsWith("{\"$schema\":"));
+        assertTrue(output.toString().endsWith("\"results\":[\n"));
+        
+        reporter.writeRoot(new Root("pkg/A"));
+        reporter.writeRoot(new Root("pkg/B"));
+        reporter.finishReport();
+        String sarif = output.toString();
+        assertTrue(sarif.endsWith("\n]}]}\n"));
+        assertTrue(sarif.contains("\"message\":{\"text\":\"pkg.A::foo()V calls unsafe method pkg.B::bar()V\"}"));
+        assertTrue(sarif.contains("\"message\":{\"text\":\"pkg.B::bar()V calls unsafe method pkg.B::bar()V\"}"));
+        assertTrue(sarif.contains("]}]}]},\n{\"ruleId\""));
+        assertEquals(count(sarif, '{'), count(sarif, '}'));
+        assertEquals(count(sarif, '['), count(sarif, ']'));
+    }
+    
+    private int count(String s, char c) {
+        int n = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) == c) {
+                ++n;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,92 @@
+package org.javaportability.app;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SearchPathSnapshotTest {
+    
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+    
+    private File classes;
+    private File classFile;
+    private File jar;
+    private SearchPathSnapshot snapshot;
+    
+    @Before
+    public void setUp() throws IOException {
+        classes = tmpDir.newFolder("classes");
+        new File(classes, "pkg").mkdir();
+        classFile = new File(classes, "pkg/A.class");
+        write(classFile, "A");
+        jar = new File(tmpDir.getRoot(), "lib.jar");
+        write(jar, "jar");
+        snapshot = SearchPathSnapshot.take(Arrays.asList(classes.getPath() + "/", jar.getPath(), "jrt:/"));
+    }
+    
+    @Test
+    public void testUnchanged() {
+        assertTrue(snapshot.isCurrent());
+    }
+    
+    @Test
+    public void testModifiedClassFile() {
+        assertTrue(classFile.setLastModified(classFile.lastModified() - 10000));
+        assertFalse(snapshot.isCurrent());
+    }
+    
+    @Test
+    public void testModifiedJar() throws IOException {
+        long modified = jar.lastModified();
+        write(jar, "longer jar");
+        assertTrue(jar.setLastModified(modified));
+        assertFalse(snapshot.isCurrent());
+    }
+    
+    @Test
+    public void testAddedClassFile() throws IOException {
+        File dir = new File(classes, "pkg");
+        long modified = dir.lastModified();
+        write(new File(dir, "B.class"), "B");
+        assertTrue(dir.setLastModified(modified - 10000)); // In case the clock is too coarse to tell
+        assertFalse(snapshot.isCurrent());
+    }
+    
+    @Test
+    public void testRemovedClassFile() {
+        assertTrue(classFile.delete());
+        assertFalse(snapshot.isCurrent());
+    }
+    
+    @Test
+    public void testCreatedSearchPathElement() throws IOException {
+        File missing = new File(tmpDir.getRoot(), "missing.jar");
+        SearchPathSnapshot withMissing = SearchPathSnapshot.take(Arrays.asList(missing.getPath()));
+        assertTrue(withMissing.isCurrent());
+        write(missing, "jar");
+        assertFalse(withMissing.isCurrent());
+    }
+    
+    @Test
+    public void testNoSearchPath() {
+        assertTrue(SearchPathSnapshot.take(null).isCurrent());
+    }
+    
+    private static void write(File file, String text) throws IOException {
+        FileWriter out = new FileWriter(file);
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -4,7 +4,17 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.javaportability.analysis.AnalysisSettings;
 import org.javaportability.analysis.results.BasicCallGraphAnalysis;
@@ -17,14 +27,22 @@ import org.javaportability.callgraph.CallGraph.MethodNode;
 import org.javaportability.callgraph.nodeset.EmptyNodeSet;
 import org.javaportability.callgraph.nodeset.NodeSet;
 import org.javaportability.callgraph.nodeset.SimpleNodeSet;
+import org.javaportability.callgraph.nodeset.WildcardNodeSet;
 import org.javaportability.loaders.ClassFileLoader;
 import org.javaportability.loaders.DefaultClassFileLoader;
 import org.javaportability.misc.MethodPath;
+import org.javaportability.misc.Metrics;
+import org.javaportability.misc.Trace;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodType;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.RemappingClassAdapter;
+import org.objectweb.asm.commons.SimpleRemapper;
 
 public class CallGraphBuilderTest {
     
@@ -42,6 +60,20 @@ public class CallGraphBuilderTest {
         }
     }
     
+    @Test
+    public void testRepeatedCallsMakeOneCallSite() {
+        CallGraph cg = buildCg(new MethodPath(Simple.class, "one", "()I"));
+        MethodNode one = cg.getClass(Simple.class).getMethod("one", mt("()I"));
+        MethodNode two = cg.getClass(Simple.class).getMethod("two", mt("()I"));
+        
+        assertEquals(1, one.getOutgoingCalls().size());
+        CallSite call = one.getOutgoingCalls().get(0);
+        assertSame(two, call.getTo());
+        assertEquals(Opcodes.INVOKEVIRTUAL, call.getOpcode());
+        assertEquals(1, call.getOffset()); // After aload_0
+        assertEquals(2, call.getCount());
+    }
+    
     @Test
     public void testNonrecursiveMethodCallsWithinOneClass() {
         CallGraph cg = buildCg(new MethodPath(Simple.class, "one", "()I"));
@@ -208,6 +240,32 @@ public class CallGraphBuilderTest {
         assertNoCall(superInvokeFoo, subFoo);
     }
     
+    @Test
+    public void testPolymorphicCallWithVirtualDispatch() throws Exception {
+        CallGraph cg = buildWithVirtualDispatch(new Root(new MethodPath(Sub.class, "invokeFoo", "()V"))).callGraph;
+        MethodNode superInvokeFoo = cg.getClass(Super.class).getMethod("invokeFoo", mt("()V"));
+        MethodNode superFoo = cg.getClass(Super.class).getMethod("foo", mt("()V"));
+        MethodNode subFoo = cg.getClass(Sub.class).getMethod("foo", mt("()V"));
+        
+        assertCall(superInvokeFoo, superFoo);
+        assertCall(superInvokeFoo, subFoo);
+        assertCall(subFoo, superFoo);
+        assertNoCall(subFoo, subFoo); // super.foo() is not virtual
+    }
+    
+    @Test
+    public void testVirtualDispatchToSubclassDiscoveredLater() throws Exception {
+        BasicCallGraphAnalysis result = buildWithVirtualDispatch(
+                new Root(new MethodPath(Super.class, "invokeFoo", "()V")),
+                new Root(new MethodPath(Sub.class, "<init>", "(I)V")));
+        CallGraph cg = result.callGraph;
+        MethodNode superInvokeFoo = cg.getClass(Super.class).getMethod("invokeFoo", mt("()V"));
+        MethodNode subFoo = cg.getClass(Sub.class).getMethod("foo", mt("()V"));
+        
+        assertCall(superInvokeFoo, subFoo);
+        assertTrue(result.basicAnalysisDoneMethods.contains(subFoo));
+    }
+    
     @Test
     public void testSuperCallInMethod() {
         CallGraph cg = buildCg(new MethodPath(Sub.class, "foo", "()V"));
@@ -407,6 +465,11 @@ public class CallGraphBuilderTest {
         }
     }
     
+    public static class FooImpl implements FooInterface {
+        public void foo() {
+        }
+    }
+    
     public abstract class FooAbstract implements FoobarInterface {
         public abstract void baz();
         public void callAll() {
@@ -449,6 +512,21 @@ public class CallGraphBuilderTest {
         assertNoCall(foo, callFoo);
     }
     
+    @Test
+    public void testInterfaceCallWithVirtualDispatch() throws Exception {
+        String methodDesc = "(L" + FooInterface.class.getName().replace('.', '/') + ";)V";
+        CallGraph cg = buildWithVirtualDispatch(
+                new Root(FooImpl.class),
+                new Root(new MethodPath(FooInterfaceCaller.class, "callFoo", methodDesc))).callGraph;
+        
+        MethodNode callFoo = cg.getClass(FooInterfaceCaller.class).getMethod("callFoo", mt(methodDesc));
+        MethodNode interfaceFoo = cg.getClass(FooInterface.class).getMethod("foo", mt("()V"));
+        MethodNode implFoo = cg.getClass(FooImpl.class).getMethod("foo", mt("()V"));
+        
+        assertCall(callFoo, interfaceFoo);
+        assertCall(callFoo, implFoo);
+    }
+    
     @Test
     public void testCallsToAbstractMethods() {
         CallGraph cg = buildCg(new MethodPath(FooAbstract.class, "callAll", "()V"));
@@ -493,6 +571,240 @@ public class CallGraphBuilderTest {
     }
     
     
+    @Test
+    public void testEachClassIsReadOnce() throws Exception {
+        final HashSet<String> loaded = new HashSet<String>();
+        ClassFileLoader loader = mock(DefaultClassFileLoader.class);
+        when(loader.loadClass(any(String.class))).thenAnswer(new Answer<ClassReader>() {
+            @Override
+            public ClassReader answer(InvocationOnMock invocation) throws Throwable {
+                String arg = ((String)invocation.getArguments()[0]);
+                if (!loaded.add(arg)) {
+                    fail("Loaded class " + arg + " twice");
+                }
+                return (ClassReader)invocation.callRealMethod();
+            }
+        });
+        
+        CallGraphBuilder builder = new CallGraphBuilder(new AnalysisSettings(loader));
+        builder.addRoot(new Root(CyclicOne.class));
+        builder.addRoot(new Root(Simple.class));
+        assertTrue(loaded.contains(Type.getInternalName(CyclicThree.class)));
+    }
+    
+    @Test
+    public void testMetricsCountWork() throws Exception {
+        AnalysisSettings settings = new AnalysisSettings(new DefaultClassFileLoader());
+        SimpleNodeSet ignores = new SimpleNodeSet();
+        ignores.addClass("java/lang/Object");
+        settings.ignoreSet = ignores;
+        Metrics metrics = new Metrics();
+        CallGraphBuilder builder = new CallGraphBuilder(settings);
+        builder.setMetrics(metrics);
+        builder.addRoot(new Root(Type.getInternalName(Simple.class), "one"));
+        
+        Map<String, Long> values = metrics.snapshot();
+        assertEquals(1L, (long)values.get("discovery.time.count"));
+        assertEquals(1L, (long)values.get("load.classes.count"));
+        assertEquals(1L, (long)values.get("load.from.DefaultClassFileLoader"));
+        assertEquals(new DefaultClassFileLoader().loadClass(Type.getInternalName(Simple.class)).b.length, (long)values.get("load.bytes"));
+        assertEquals(1L, (long)values.get("parse.classHeaders.count"));
+        assertEquals(3L, (long)values.get("parse.methodBodies.count"));
+        assertEquals(1L, (long)values.get("discovery.classes"));
+        assertEquals(3L, (long)values.get("discovery.methods"));
+        assertEquals(2L, (long)values.get("discovery.hierarchyLookups"));
+        assertTrue(values.get("nodeset.ignore.hits") > 0);
+        assertTrue(values.get("discovery.time.nanos") >= values.get("load.classes.nanos"));
+    }
+    
+    @Test
+    public void testBodiesReachedInLaterPassAreReadAgainOnce() throws Exception {
+        AnalysisSettings settings = new AnalysisSettings(new DefaultClassFileLoader());
+        SimpleNodeSet ignores = new SimpleNodeSet();
+        ignores.addClass("java/lang/Object");
+        settings.ignoreSet = ignores;
+        Metrics metrics = new Metrics();
+        CallGraphBuilder builder = new CallGraphBuilder(settings);
+        builder.setMetrics(metrics);
+        builder.addRoot(new Root(Type.getInternalName(Simple.class), "three"));
+        assertEquals(0L, (long)metrics.snapshot().get("load.rereadClasses"));
+        
+        // The class file isn't kept after the first pass, so reaching one() and two() reads it again, once.
+        builder.addRoot(new Root(Type.getInternalName(Simple.class), "one"));
+        Map<String, Long> values = metrics.snapshot();
+        assertEquals(1L, (long)values.get("load.rereadClasses"));
+        assertEquals(2L, (long)values.get("load.classes.count"));
+        assertEquals(3L, (long)values.get("parse.methodBodies.count"));
+        MethodNode two = builder.getResult().callGraph.getClass(Simple.class).getMethod("two", mt("()I"));
+        assertEquals("three", two.getOutgoingCalls().get(0).getTo().getName());
+    }
+    
+    @Test
+    public void testTraceAtInfoLevelSkipsCalls() throws Exception {
+        StringWriter sw = new StringWriter();
+        CallGraphBuilder builder = new CallGraphBuilder(new AnalysisSettings(new DefaultClassFileLoader()));
+        builder.setTrace(new Trace(Trace.Level.INFO, new PrintWriter(sw), 0));
+        builder.addRoot(new Root(Type.getInternalName(Simple.class), "one"));
+        
+        String name = Type.getInternalName(Simple.class);
+        assertTrue(sw.toString().contains("Discovering class " + name + "\n"));
+        assertTrue(sw.toString().contains("Processing method " + name + " :: one ()I\n"));
+        assertFalse(sw.toString().contains("Found call"));
+        assertFalse(sw.toString().contains("Recorded call"));
+    }
+    
+    public static class EditBase {
+        public double twice(double x) {
+            return x * 2;
+        }
+    }
+    
+    public static class Edited extends EditBase {
+        public int run() {
+            return helper();
+        }
+        
+        public int helper() {
+            return 1;
+        }
+    }
+    
+    /**
+     * {@link Edited} after an edit. Loaded under its name.
+     */
+    public static class EditedLater extends EditBase {
+        public int run() {
+            return (int)twice(added());
+        }
+        
+        public int added() {
+            return 2;
+        }
+        
+        @Override
+        public double twice(double x) {
+            return x + x;
+        }
+    }
+    
+    public static class EditCaller {
+        public static double call() {
+            return new Edited().twice(1) + new EditBase().twice(2);
+        }
+    }
+    
+    @Test
+    public void testReplacingClassGivesSameGraphAsRebuilding() throws Exception {
+        for (boolean virtualDispatch : new boolean[] { false, true }) {
+            SwappingClassFileLoader loader = new SwappingClassFileLoader();
+            CallGraphBuilder builder = buildEdits(loader, virtualDispatch);
+            CallGraph cg = builder.getResult().callGraph;
+            ClassNode edited = cg.getClass(Edited.class);
+            MethodNode run = edited.getMethod("run", mt("()I"));
+            MethodNode helper = edited.getMethod("helper", mt("()I"));
+            MethodNode call = cg.getClass(EditCaller.class).getMethod("call", mt("()D"));
+            assertSame(cg.getClass(EditBase.class), call.getOutgoingCalls().get(1).getTo().getOwner());
+            
+            loader.swap(Edited.class, EditedLater.class);
+            Set<MethodNode> changed = builder.replaceClass(Type.getInternalName(Edited.class));
+            
+            assertSame(run, edited.getMethod("run", mt("()I")));
+            assertFalse(edited.hasLocalMethod("helper", mt("()I")));
+            assertSame(edited, call.getOutgoingCalls().get(1).getTo().getOwner());
+            assertTrue(changed.containsAll(Arrays.asList(run, helper, call)));
+            assertTrue(builder.getResult().localFpMathMethods.contains(edited.getMethod("twice", mt("(D)D"))));
+            assertEquals(describe(buildEdits(loader, virtualDispatch).getResult()), describe(builder.getResult()));
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testReplacingClassWithOtherSuperclassFails() throws Exception {
+        SwappingClassFileLoader loader = new SwappingClassFileLoader();
+        CallGraphBuilder builder = buildEdits(loader, false);
+        loader.swap(Edited.class, Simple.class);
+        builder.replaceClass(Type.getInternalName(Edited.class));
+    }
+    
+    @Test
+    public void testAddingRootsInBatchGivesSameResultAsOneByOne() throws Exception {
+        List<Root> roots = Arrays.asList(
+                new Root(Type.getInternalName(Simple.class), "two"),
+                new Root(CyclicOne.class),
+                new Root(Type.getInternalName(Simple.class), "one"),
+                new Root(Sub.class));
+        CallGraphBuilder batch = new CallGraphBuilder(new AnalysisSettings(new DefaultClassFileLoader()));
+        batch.addRoots(roots);
+        
+        assertEquals(describe(build(new EmptyNodeSet(), roots.toArray(new Root[roots.size()]))), describe(batch.getResult()));
+    }
+    
+    @Test
+    public void testMissingClassInBatchStillAddsOtherRoots() throws Exception {
+        CallGraphBuilder builder = new CallGraphBuilder(new AnalysisSettings(new DefaultClassFileLoader()));
+        try {
+            builder.addRoots(Arrays.asList(new Root("Nonexistent"), new Root(Simple.class)));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Class not found: Nonexistent", e.getMessage());
+        }
+        MethodNode one = builder.getResult().callGraph.getClass(Simple.class).getMethod("one", mt("()I"));
+        assertTrue(builder.getResult().basicAnalysisDoneMethods.contains(one));
+    }
+    
+    @Test
+    public void testParallelDiscoveryGivesSameResultAsSequential() throws Exception {
+        NodeSet ignores = new WildcardNodeSet("java.lang.invoke.*");
+        Root root = new Root("java/util/ArrayList");
+        
+        List<String> sequential = describe(buildWithThreads(1, ignores, root));
+        List<String> parallel = describe(buildWithThreads(4, ignores, root));
+        
+        assertEquals(sequential, parallel);
+    }
+    
+    @Test
+    public void testParallelDiscoveryParsesBodiesInBackground() throws Exception {
+        AnalysisSettings settings = new AnalysisSettings(new DefaultClassFileLoader());
+        settings.ignoreSet = new WildcardNodeSet("java.lang.invoke.*");
+        Metrics metrics = new Metrics();
+        CallGraphBuilder builder = new CallGraphBuilder(settings);
+        builder.setMetrics(metrics);
+        builder.setDiscoveryThreads(4);
+        builder.addRoot(new Root("java/util/ArrayList"));
+        
+        // The building thread parses a share of the bodies and the discovery threads the rest,
+        // unless there's only one processor to parse them on.
+        Map<String, Long> values = metrics.snapshot();
+        if (Runtime.getRuntime().availableProcessors() > 1) {
+            assertTrue(values.get("discovery.backgroundBodies") > 0);
+        } else {
+            assertEquals(0L, (long)values.get("discovery.backgroundBodies"));
+        }
+        assertTrue(values.get("discovery.backgroundBodies") < values.get("parse.methodBodies.count"));
+    }
+    
+    @Test
+    public void testParallelDiscoveryGivesSameResultWithVirtualDispatch() throws Exception {
+        NodeSet ignores = new WildcardNodeSet("java.lang.invoke.*");
+        Root root = new Root("java/util/ArrayList");
+        
+        List<String> sequential = describe(buildWithThreads(1, true, ignores, root));
+        List<String> parallel = describe(buildWithThreads(4, true, ignores, root));
+        
+        assertEquals(sequential, parallel);
+    }
+    
+    @Test
+    public void testParallelDiscoveryGivesSameResultInLaterPasses() throws Exception {
+        NodeSet ignores = new WildcardNodeSet("java.lang.invoke.*");
+        Root[] roots = { new Root("java/util/ArrayList", "size"), new Root("java/util/ArrayList") };
+        
+        List<String> sequential = describe(buildWithThreads(1, ignores, roots));
+        List<String> parallel = describe(buildWithThreads(4, ignores, roots));
+        
+        assertEquals(sequential, parallel);
+    }
+    
     
     
     private CallGraph buildCg(MethodPath... methods) {
@@ -548,6 +860,86 @@ public class CallGraphBuilderTest {
         }
     }
     
+    private BasicCallGraphAnalysis buildWithVirtualDispatch(Root... roots) throws Exception {
+        CallGraphBuilder builder = new CallGraphBuilder(new AnalysisSettings(new DefaultClassFileLoader()));
+        builder.setVirtualDispatch(true);
+        for (Root root : roots) {
+            builder.addRoot(root);
+        }
+        return builder.getResult();
+    }
+    
+    private BasicCallGraphAnalysis buildWithThreads(int threads, NodeSet ignores, Root... roots) throws Exception {
+        return buildWithThreads(threads, false, ignores, roots);
+    }
+    
+    private BasicCallGraphAnalysis buildWithThreads(int threads, boolean virtualDispatch, NodeSet ignores, Root... roots) throws Exception {
+        AnalysisSettings settings = new AnalysisSettings(new DefaultClassFileLoader());
+        settings.ignoreSet = ignores;
+        CallGraphBuilder builder = new CallGraphBuilder(settings);
+        builder.setDiscoveryThreads(threads);
+        builder.setVirtualDispatch(virtualDispatch);
+        for (Root root : roots) {
+            builder.addRoot(root);
+        }
+        return builder.getResult();
+    }
+    
+    private CallGraphBuilder buildEdits(ClassFileLoader loader, boolean virtualDispatch) throws Exception {
+        AnalysisSettings settings = new AnalysisSettings(loader);
+        SimpleNodeSet ignores = new SimpleNodeSet();
+        ignores.addClass("java/lang/Object");
+        settings.ignoreSet = ignores;
+        CallGraphBuilder builder = new CallGraphBuilder(settings);
+        builder.setVirtualDispatch(virtualDispatch);
+        builder.setIncremental(true);
+        builder.addRoot(new Root(new MethodPath(Edited.class, "run", "()I")));
+        builder.addRoot(new Root(new MethodPath(EditCaller.class, "call", "()D")));
+        return builder;
+    }
+    
+    /**
+     * Loads one class's bytes in place of another's, as if the class file had been edited.
+     */
+    private static class SwappingClassFileLoader implements ClassFileLoader {
+        private final ClassFileLoader delegate = new DefaultClassFileLoader();
+        private final Map<String, byte[]> swapped = new HashMap<String, byte[]>();
+        
+        public void swap(Class<?> target, Class<?> replacement) throws Exception {
+            String targetName = Type.getInternalName(target);
+            ClassReader reader = delegate.loadClass(Type.getInternalName(replacement));
+            ClassWriter writer = new ClassWriter(0);
+            reader.accept(new RemappingClassAdapter(writer, new SimpleRemapper(Type.getInternalName(replacement), targetName)), 0);
+            swapped.put(targetName, writer.toByteArray());
+        }
+        
+        @Override
+        public ClassReader loadClass(String internalName) throws ClassNotFoundException, IOException {
+            byte[] bytes = swapped.get(internalName);
+            return (bytes != null) ? new ClassReader(bytes) : delegate.loadClass(internalName);
+        }
+    }
+    
+    private List<String> describe(BasicCallGraphAnalysis result) {
+        List<String> lines = new ArrayList<String>();
+        for (ClassNode cls : result.callGraph.getClasses()) {
+            lines.add(cls + " extends " + cls.getSuperclass() + " implements " + cls.getLocalInterfaces());
+            for (MethodNode m : cls.getLocalMethods()) {
+                StringBuilder sb = new StringBuilder(m.toString());
+                sb.append(result.localFpMathMethods.contains(m) ? " fp" : "");
+                sb.append(result.strictfpMethods.contains(m) ? " strictfp" : "");
+                sb.append(result.nativeMethods.contains(m) ? " native" : "");
+                sb.append(result.basicAnalysisDoneMethods.contains(m) ? " done" : "");
+                for (CallSite cs : m.getOutgoingCalls()) {
+                    sb.append("\n  -> " + cs.getTo());
+                }
+                lines.add(sb.toString());
+            }
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+    
     private MethodType mt(String desc) {
         return new MethodType(desc);
     }
@@ -568,7 +960,7 @@ public class CallGraphBuilderTest {
         for (CallSite cs : one.getOutgoingCalls()) {
             if (cs.getFrom() == one) {
                 for (CallSite cs2 : two.getIncomingCalls()) {
-                    if (cs2 == cs) {
+                    if (cs2.equals(cs)) {
                         return true;
                     }
                 }
@@ -8,6 +8,7 @@ import org.javaportability.callgraph.CallGraph.ClassNode;
 import org.javaportability.callgraph.CallGraph.MethodNode;
 import org.junit.Test;
 import org.objectweb.asm.MethodType;
+import org.objectweb.asm.Opcodes;
 
 public class CallGraphTest {
     
@@ -24,7 +25,7 @@ public class CallGraphTest {
         assertEquals(0, foo.getIncomingCalls().size());
         assertEquals(0, bar.getOutgoingCalls().size());
         assertEquals(1, bar.getIncomingCalls().size());
-        assertSame(bar.getIncomingCalls().get(0), foo.getOutgoingCalls().get(0));
+        assertEquals(bar.getIncomingCalls().get(0), foo.getOutgoingCalls().get(0));
         
         CallSite cs = foo.getOutgoingCalls().get(0);
         assertSame(foo, cs.getFrom());
@@ -115,4 +116,133 @@ public class CallGraphTest {
         assertTrue(b.getMethodsIncludingInherited().contains(m2));
     }
     
-}
+    @Test
+    public void testFindingMethodsAddedToHierarchyAfterEarlierLookups() {
+        CallGraph cg = new CallGraph();
+        ClassNode a = cg.addClass("A");
+        ClassNode b = cg.addClass("B", a);
+        ClassNode c = cg.addClass("C", b);
+        ClassNode i = cg.addClass("I");
+        assertNull(c.tryGetMethod("foo", new MethodType("()V")));
+        
+        MethodNode aFoo = a.addMethod("foo", new MethodType("()V"));
+        assertSame(aFoo, c.getMethod("foo", new MethodType("()V")));
+        
+        MethodNode bFoo = b.addMethod("foo", new MethodType("()V"));
+        assertSame(bFoo, c.getMethod("foo", new MethodType("()V")));
+        assertSame(aFoo, a.getMethod("foo", new MethodType("()V")));
+        
+        MethodNode iBar = i.addMethod("bar", new MethodType("()V"));
+        assertNull(c.tryGetMethod("bar", new MethodType("()V")));
+        b.addInterface(i);
+        assertSame(iBar, c.getMethod("bar", new MethodType("()V")));
+    }
+    
+    @Test
+    public void testCallsSurviveCompaction() {
+        CallGraph cg = new CallGraph();
+        ClassNode a = cg.addClass("A");
+        MethodNode foo = a.addMethod("foo", new MethodType("()V"));
+        MethodNode bar = a.addMethod("bar", new MethodType("()V"));
+        MethodNode baz = a.addMethod("baz", new MethodType("()V"));
+        cg.addCall(foo, bar);
+        cg.addCall(foo, baz);
+        cg.addCall(bar, baz);
+        cg.compact();
+        
+        assertEquals(2, foo.getOutgoingCalls().size());
+        assertSame(bar, foo.getOutgoingCalls().get(0).getTo());
+        assertSame(baz, foo.getOutgoingCalls().get(1).getTo());
+        assertEquals(2, baz.getIncomingCalls().size());
+        assertEquals(foo.getOutgoingCalls().get(1), baz.getIncomingCalls().get(0));
+        assertEquals(bar.getOutgoingCalls().get(0), baz.getIncomingCalls().get(1));
+        
+        MethodNode qux = a.addMethod("qux", new MethodType("()V"));
+        cg.addCall(qux, foo);
+        assertSame(foo, qux.getOutgoingCalls().get(0).getTo());
+        assertEquals(2, foo.getOutgoingCalls().size());
+        assertEquals(2, baz.getIncomingCalls().size());
+    }
+    
+    @Test
+    public void testCallSiteDetailsSurviveCompaction() {
+        CallGraph cg = new CallGraph();
+        ClassNode a = cg.addClass("A");
+        MethodNode foo = a.addMethod("foo", new MethodType("()V"));
+        MethodNode bar = a.addMethod("bar", new MethodType("()V"));
+        cg.addCall(foo, bar, Opcodes.INVOKEVIRTUAL, 65000, 3);
+        cg.addCall(foo, foo);
+        cg.compact();
+        
+        CallSite toBar = bar.getIncomingCalls().get(0);
+        assertEquals(Opcodes.INVOKEVIRTUAL, toBar.getOpcode());
+        assertEquals(65000, toBar.getOffset());
+        assertEquals(3, toBar.getCount());
+        CallSite toFoo = foo.getOutgoingCalls().get(1);
+        assertEquals(0, toFoo.getOpcode());
+        assertEquals(-1, toFoo.getOffset());
+        assertEquals(1, toFoo.getCount());
+    }
+    
+    @Test
+    public void testClearingCallsKeepsOtherCallersInOrder() {
+        CallGraph cg = new CallGraph();
+        ClassNode a = cg.addClass("A");
+        MethodNode foo = a.addMethod("foo", new MethodType("()V"));
+        MethodNode bar = a.addMethod("bar", new MethodType("()V"));
+        MethodNode baz = a.addMethod("baz", new MethodType("()V"));
+        cg.addCall(foo, baz);
+        cg.addCall(bar, baz);
+        cg.addCall(foo, bar);
+        cg.addCall(baz, baz);
+        cg.compact();
+        
+        cg.clearOutgoingCalls(foo);
+        assertEquals(0, foo.getOutgoingCalls().size());
+        assertEquals(0, bar.getIncomingCalls().size());
+        assertEquals(2, baz.getIncomingCalls().size());
+        assertEquals(bar.getOutgoingCalls().get(0), baz.getIncomingCalls().get(0));
+        assertEquals(baz.getOutgoingCalls().get(0), baz.getIncomingCalls().get(1));
+        
+        cg.addCall(foo, bar);
+        assertEquals(foo.getOutgoingCalls().get(0), bar.getIncomingCalls().get(0));
+    }
+    
+    @Test
+    public void testRemovingMethod() {
+        CallGraph cg = new CallGraph();
+        ClassNode a = cg.addClass("A");
+        ClassNode b = cg.addClass("B", a);
+        MethodNode inherited = a.addMethod("foo", new MethodType("()V"));
+        MethodNode foo = b.addMethod("foo", new MethodType("()V"));
+        MethodNode bar = b.addMethod("bar", new MethodType("()V"));
+        cg.addCall(bar, foo);
+        cg.addCall(foo, foo);
+        assertSame(foo, b.getMethod("foo", new MethodType("()V")));
+        
+        try {
+            b.removeMethod(foo);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        cg.clearOutgoingCalls(bar);
+        cg.clearOutgoingCalls(foo);
+        b.removeMethod(foo);
+        
+        assertSame(inherited, b.getMethod("foo", new MethodType("()V")));
+        assertFalse(b.hasLocalMethod("foo", new MethodType("()V")));
+        assertEquals(1, b.getLocalMethods().size());
+        assertSame(foo, cg.getMethodById(foo.getId()));
+    }
+    
+    @Test
+    public void testMethodsShareInternedTypes() {
+        CallGraph cg = new CallGraph();
+        MethodNode foo = cg.addClass("A").addMethod("foo", new MethodType("()V"));
+        MethodNode bar = cg.addClass("B").addMethod(new String("foo"), new MethodType("()V"));
+        assertSame(foo.getName(), bar.getName());
+        assertSame(foo.getType(), bar.getType());
+        assertSame(foo, cg.getMethodById(foo.getId()));
+        assertSame(bar, cg.getMethodById(bar.getId()));
+    }
+}
\ No newline at end of file
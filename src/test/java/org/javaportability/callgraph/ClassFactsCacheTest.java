@@ -0,0 +1,169 @@
+package org.javaportability.callgraph;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.javaportability.analysis.AnalysisSettings;
+import org.javaportability.analysis.results.BasicCallGraphAnalysis;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.javaportability.callgraph.ClassFacts.CallFacts;
+import org.javaportability.callgraph.ClassFacts.MethodFacts;
+import org.javaportability.loaders.DefaultClassFileLoader;
+import org.javaportability.misc.MethodPath;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.MethodType;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+public class ClassFactsCacheTest {
+    
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+    
+    public static class Cached {
+        public void foo() {
+            bar();
+        }
+        
+        public void bar() {
+        }
+        
+        public void unreached() {
+            bar();
+        }
+    }
+    
+    @Test
+    public void testSavingAndLoading() throws Exception {
+        ClassFacts facts = new ClassFacts("A", "java/lang/Object", new String[] { "I", "J" }, 1);
+        MethodFacts foo = new MethodFacts("foo", "()V", 2);
+        foo.index = 1;
+        foo.bodyParsed = true;
+        foo.localFpMath = true;
+        foo.calls.add(new CallFacts(new MethodPath("B", "bar", "(I)V"), Opcodes.INVOKESTATIC, 3, 2));
+        foo.calls.add(new CallFacts(new MethodPath("A", "foo", "()V"), Opcodes.INVOKEVIRTUAL, -1, 1));
+        facts.methods.add(foo);
+        MethodFacts unparsed = new MethodFacts("bar", "()V", 0);
+        facts.methods.add(unparsed);
+        MethodFacts baz = new MethodFacts("baz", "()V", 0);
+        baz.bodyParsed = true;
+        baz.calls.add(new CallFacts(new MethodPath("B", "bar", "(I)V"), Opcodes.INVOKESTATIC, 0, 1));
+        facts.methods.add(baz);
+        byte[] hash = { 1, 2, 3 };
+        
+        ClassFactsCache cache = new ClassFactsCache();
+        cache.put("A", hash, facts);
+        File file = new File(tmpDir.getRoot(), "facts.cache");
+        cache.saveIfModified(file);
+        
+        ClassFactsCache loaded = ClassFactsCache.load(file);
+        assertEquals(1, loaded.size());
+        assertNull(loaded.get("A", new byte[] { 1, 2, 4 }));
+        ClassFacts loadedFacts = loaded.get("A", hash);
+        assertEquals("A", loadedFacts.name);
+        assertEquals("java/lang/Object", loadedFacts.superName);
+        assertArrayEquals(new String[] { "I", "J" }, loadedFacts.interfaces);
+        assertEquals(1, loadedFacts.access);
+        assertEquals(3, loadedFacts.methods.size());
+        MethodFacts loadedFoo = loadedFacts.methods.get(0);
+        assertEquals("foo", loadedFoo.name);
+        assertEquals("()V", loadedFoo.desc);
+        assertEquals(2, loadedFoo.access);
+        assertEquals(1, loadedFoo.index);
+        assertTrue(loadedFoo.bodyParsed);
+        assertTrue(loadedFoo.localFpMath);
+        assertEquals(foo.calls, loadedFoo.calls);
+        assertSame(loadedFoo.calls.get(0).callee, loadedFacts.methods.get(2).calls.get(0).callee);
+        assertEquals("bar", loadedFacts.methods.get(1).name);
+        assertFalse(loadedFacts.methods.get(1).bodyParsed);
+    }
+    
+    @Test
+    public void testLoadingMissingOrCorruptFile() throws Exception {
+        File file = new File(tmpDir.getRoot(), "facts.cache");
+        assertEquals(0, ClassFactsCache.load(file).size());
+        
+        tmpDir.newFile("facts.cache");
+        assertEquals(0, ClassFactsCache.load(file).size());
+    }
+    
+    @Test
+    public void testBuilderUsesCachedFactsForUnchangedClass() throws Exception {
+        String name = Type.getInternalName(Cached.class);
+        byte[] hash = ClassFactsCache.hash(new DefaultClassFileLoader().loadClass(name).b);
+        
+        // Cached facts that disagree with the class file, to tell where the graph came from.
+        ClassFacts facts = new ClassFacts(name, "java/lang/Object", new String[0], 0);
+        MethodFacts foo = new MethodFacts("foo", "()V", 0);
+        foo.bodyParsed = true;
+        foo.localFpMath = true;
+        facts.methods.add(foo);
+        ClassFactsCache cache = new ClassFactsCache();
+        cache.put(name, hash, facts);
+        
+        BasicCallGraphAnalysis result = build(cache, name);
+        MethodNode fooNode = result.callGraph.getClass(name).getMethod("foo", new MethodType("()V"));
+        assertTrue(result.localFpMathMethods.contains(fooNode));
+        assertTrue(fooNode.getOutgoingCalls().isEmpty());
+    }
+    
+    @Test
+    public void testBuilderParsesUnparsedBodiesOfCachedClass() throws Exception {
+        String name = Type.getInternalName(Cached.class);
+        byte[] hash = ClassFactsCache.hash(new DefaultClassFileLoader().loadClass(name).b);
+        ClassFactsCache cache = new ClassFactsCache();
+        build(cache, name);
+        File file = new File(tmpDir.getRoot(), "facts.cache");
+        cache.saveIfModified(file);
+        
+        ClassFactsCache loaded = ClassFactsCache.load(file);
+        assertFalse(findMethod(loaded.get(name, hash), "unreached").bodyParsed);
+        BasicCallGraphAnalysis result = build(loaded, name, "unreached");
+        MethodNode unreached = result.callGraph.getClass(name).getMethod("unreached", new MethodType("()V"));
+        assertEquals(1, unreached.getOutgoingCalls().size());
+        assertTrue(findMethod(loaded.get(name, hash), "unreached").bodyParsed);
+    }
+    
+    @Test
+    public void testBuilderParsesChangedClassAndCachesIt() throws Exception {
+        String name = Type.getInternalName(Cached.class);
+        ClassFactsCache cache = new ClassFactsCache();
+        cache.put(name, new byte[] { 0 }, new ClassFacts(name, "java/lang/Object", new String[0], 0));
+        
+        BasicCallGraphAnalysis result = build(cache, name);
+        MethodNode fooNode = result.callGraph.getClass(name).getMethod("foo", new MethodType("()V"));
+        assertEquals(1, fooNode.getOutgoingCalls().size());
+        
+        byte[] hash = ClassFactsCache.hash(new DefaultClassFileLoader().loadClass(name).b);
+        ClassFacts parsed = cache.get(name, hash);
+        assertNotNull(parsed);
+        MethodFacts foo = findMethod(parsed, "foo");
+        assertTrue(foo.bodyParsed);
+        assertEquals(new MethodPath(name, "bar", "()V"), foo.calls.get(0).callee);
+        assertFalse(findMethod(parsed, "unreached").bodyParsed);
+        assertNotNull(cache.get("java/lang/Object", ClassFactsCache.hash(new DefaultClassFileLoader().loadClass("java/lang/Object").b)));
+    }
+    
+    private MethodFacts findMethod(ClassFacts facts, String name) {
+        for (MethodFacts mf : facts.methods) {
+            if (mf.name.equals(name)) {
+                return mf;
+            }
+        }
+        throw new AssertionError("No method " + name);
+    }
+    
+    private BasicCallGraphAnalysis build(ClassFactsCache cache, String rootClass) throws Exception {
+        return build(cache, rootClass, "foo");
+    }
+    
+    private BasicCallGraphAnalysis build(ClassFactsCache cache, String rootClass, String rootMethod) throws Exception {
+        CallGraphBuilder builder = new CallGraphBuilder(new AnalysisSettings(new DefaultClassFileLoader()));
+        builder.setFactsCache(cache);
+        builder.addRoot(new Root(rootClass, rootMethod));
+        return builder.getResult();
+    }
+}
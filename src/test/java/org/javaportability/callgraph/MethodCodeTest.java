@@ -0,0 +1,188 @@
+package org.javaportability.callgraph;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.javaportability.callgraph.ClassFacts.CallFacts;
+import org.javaportability.callgraph.ClassFacts.MethodFacts;
+import org.javaportability.loaders.DefaultClassFileLoader;
+import org.javaportability.misc.MethodPath;
+import org.javaportability.misc.MethodPathInterner;
+import org.junit.Test;
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+public class MethodCodeTest {
+    
+    public static class Base {
+        public int foo() {
+            return 1;
+        }
+    }
+    
+    public static class Code extends Base {
+        @Override
+        public int foo() {
+            return super.foo() + foo(2) + foo(3) + foo();
+        }
+        
+        public int foo(int x) {
+            switch (x) {
+            case 1: return bar();
+            case 2: return bar() + 1;
+            case 3: return 5;
+            default: break;
+            }
+            switch (x) {
+            case 10: return 1;
+            case 1000: return 2;
+            default: return bar();
+            }
+        }
+        
+        public int bar() {
+            return 0;
+        }
+        
+        public double fp(double x) {
+            return Math.abs(x) * 2;
+        }
+    }
+    
+    @Test
+    public void testFindingCallsAndTheirOffsets() throws Exception {
+        ClassReader reader = load(Code.class);
+        String code = Type.getInternalName(Code.class);
+        String base = Type.getInternalName(Base.class);
+        
+        MethodFacts foo = parse(reader, "foo", "()I");
+        assertEquals(3, foo.calls.size());
+        assertCall(foo.calls.get(0), base, "foo", "()I", Opcodes.INVOKESPECIAL, 1);
+        assertCall(foo.calls.get(1), code, "foo", "(I)I", Opcodes.INVOKEVIRTUAL, 2);
+        assertCall(foo.calls.get(2), code, "foo", "()I", Opcodes.INVOKEVIRTUAL, 1);
+        assertEquals(1, foo.calls.get(0).offset);
+        assertFalse(foo.localFpMath);
+        
+        // Switches are padded and of varying length, so calls after them are only found if they're skipped right.
+        MethodFacts switches = parse(reader, "foo", "(I)I");
+        assertEquals(1, switches.calls.size());
+        assertCall(switches.calls.get(0), code, "bar", "()I", Opcodes.INVOKEVIRTUAL, 3);
+        assertEquals(firstCaseOffset(reader, "foo", "(I)I") + 1, switches.calls.get(0).offset); // After aload_0
+        
+        MethodFacts fp = parse(reader, "fp", "(D)D");
+        assertTrue(fp.localFpMath);
+        assertCall(fp.calls.get(0), "java/lang/Math", "abs", "(D)D", Opcodes.INVOKESTATIC, 1);
+    }
+    
+    @Test
+    public void testSameCallsAsAsm() throws Exception {
+        for (Class<?> cls : new Class<?>[] { Code.class, java.util.HashMap.class, java.util.ArrayList.class, Math.class, String.class }) {
+            ClassReader reader = load(cls);
+            final List<MethodFacts> expected = new ArrayList<MethodFacts>();
+            reader.accept(new EmptyVisitor() {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    final MethodFacts mf = new MethodFacts(name, desc, access);
+                    expected.add(mf);
+                    return new EmptyVisitor() {
+                        @Override
+                        public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+                            mf.calls.add(new CallFacts(new MethodPath(owner, name, desc), opcode, -1, 1));
+                        }
+                    };
+                }
+            }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            
+            for (int i = 0; i < expected.size(); ++i) {
+                MethodFacts mf = expected.get(i);
+                int pos = MethodCode.findMethod(reader, i);
+                assertTrue(MethodCode.hasSignature(reader, pos, mf.name, mf.desc));
+                MethodFacts parsed = new MethodFacts(mf.name, mf.desc, mf.access);
+                MethodCode.parse(reader, pos, parsed, new MethodPathInterner());
+                int calls = 0;
+                for (CallFacts call : parsed.calls) {
+                    calls += call.count;
+                }
+                assertEquals(cls + " " + mf.name + mf.desc, mf.calls.size(), calls);
+                for (CallFacts call : mf.calls) {
+                    assertTrue(cls + " " + mf.name + mf.desc + " calls " + call.callee, containsCallee(parsed.calls, call));
+                }
+            }
+            assertEquals(-1, MethodCode.findMethod(reader, expected.size()));
+        }
+    }
+    
+    private static boolean containsCallee(List<CallFacts> calls, CallFacts expected) {
+        for (CallFacts call : calls) {
+            if (call.callee.equals(expected.callee) && call.opcode == expected.opcode) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The offset of the code for case 1 of the first switch in a method, as ASM finds it.
+     * ASM only resolves label offsets when writing, so the class is copied with a ClassWriter.
+     */
+    private static int firstCaseOffset(ClassReader reader, final String name, final String desc) {
+        final Label[] firstCase = new Label[1];
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassAdapter(writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String n, String d, String signature, String[] exceptions) {
+                MethodVisitor mv = super.visitMethod(access, n, d, signature, exceptions);
+                if (!n.equals(name) || !d.equals(desc)) {
+                    return mv;
+                }
+                return new MethodAdapter(mv) {
+                    @Override
+                    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+                        if (firstCase[0] == null) {
+                            firstCase[0] = labels[1 - min];
+                        }
+                        super.visitTableSwitchInsn(min, max, dflt, labels);
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return firstCase[0].getOffset();
+    }
+    
+    private static int findMethod(ClassReader reader, String name, String desc) {
+        for (int i = 0; ; ++i) {
+            int pos = MethodCode.findMethod(reader, i);
+            if (pos == -1) {
+                throw new AssertionError("No method " + name + desc);
+            }
+            if (MethodCode.hasSignature(reader, pos, name, desc)) {
+                return pos;
+            }
+        }
+    }
+    
+    private static MethodFacts parse(ClassReader reader, String name, String desc) {
+        MethodFacts mf = new MethodFacts(name, desc, 0);
+        MethodCode.parse(reader, findMethod(reader, name, desc), mf, new MethodPathInterner());
+        return mf;
+    }
+    
+    private static void assertCall(CallFacts call, String owner, String name, String desc, int opcode, int count) {
+        assertEquals(new MethodPath(owner, name, desc), call.callee);
+        assertEquals(opcode, call.opcode);
+        assertEquals(count, call.count);
+    }
+    
+    private static ClassReader load(Class<?> cls) throws Exception {
+        return new DefaultClassFileLoader().loadClass(Type.getInternalName(cls));
+    }
+}
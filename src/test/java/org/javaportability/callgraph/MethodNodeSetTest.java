@@ -0,0 +1,73 @@
+package org.javaportability.callgraph;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.javaportability.callgraph.CallGraph.ClassNode;
+import org.javaportability.callgraph.CallGraph.MethodNode;
+import org.junit.Test;
+import org.objectweb.asm.MethodType;
+
+public class MethodNodeSetTest {
+    
+    @Test
+    public void testAddingAndRemoving() {
+        CallGraph cg = new CallGraph();
+        ClassNode a = cg.addClass("A");
+        MethodNode foo = a.addMethod("foo", new MethodType("()V"));
+        MethodNode bar = a.addMethod("bar", new MethodType("()V"));
+        MethodNode baz = a.addMethod("baz", new MethodType("()V"));
+        
+        MethodNodeSet set = new MethodNodeSet(cg);
+        assertTrue(set.add(baz));
+        assertTrue(set.add(foo));
+        assertFalse(set.add(foo));
+        assertEquals(2, set.size());
+        assertTrue(set.contains(foo));
+        assertFalse(set.contains(bar));
+        assertEquals(Arrays.asList(foo, baz), Arrays.asList(set.toArray()));
+        
+        assertTrue(set.remove(foo));
+        assertFalse(set.remove(foo));
+        assertEquals(1, set.size());
+        assertFalse(set.contains(foo));
+    }
+    
+    @Test
+    public void testRemovingThroughIterator() {
+        CallGraph cg = new CallGraph();
+        ClassNode a = cg.addClass("A");
+        MethodNode foo = a.addMethod("foo", new MethodType("()V"));
+        MethodNode bar = a.addMethod("bar", new MethodType("()V"));
+        
+        MethodNodeSet set = new MethodNodeSet(cg);
+        set.add(foo);
+        set.add(bar);
+        Iterator<MethodNode> it = set.iterator();
+        assertSame(foo, it.next());
+        it.remove();
+        assertSame(bar, it.next());
+        assertFalse(it.hasNext());
+        assertEquals(1, set.size());
+        assertFalse(set.contains(foo));
+    }
+    
+    @Test
+    public void testMethodsOfOtherGraphsAreNotContained() {
+        CallGraph cg1 = new CallGraph();
+        CallGraph cg2 = new CallGraph();
+        MethodNode foo1 = cg1.addClass("A").addMethod("foo", new MethodType("()V"));
+        MethodNode foo2 = cg2.addClass("A").addMethod("foo", new MethodType("()V"));
+        
+        MethodNodeSet set = new MethodNodeSet(cg1);
+        set.add(foo1);
+        assertFalse(set.contains(foo2));
+        try {
+            set.add(foo2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -59,6 +59,74 @@ public class WildcardNodeSetTest {
         assertMatches("*", indexOf);
     }
 
+    @Test
+    public void testManyPatternsInOneSet() {
+        WildcardNodeSet set = new WildcardNodeSet();
+        for (int i = 0; i < 1000; ++i) {
+            set.addPattern("pkg" + i + ".*");
+            set.addPattern("other.Class" + i);
+            set.addPattern("other.Class" + i + "::method" + i);
+            set.addPattern("*.Suffix" + i);
+        }
+        set.addPattern("java.*::to*");
+        
+        assertTrue(set.containsClass("pkg999/Foo"));
+        assertTrue(set.containsClass("other/Class5"));
+        assertFalse(set.containsClass("other/Class5X"));
+        assertTrue(set.containsClass("a/b/Suffix12"));
+        assertFalse(set.containsClass("a/b/Suffix12X"));
+        assertFalse(set.containsClass("pkgX/Foo"));
+        
+        assertTrue(set.containsMethod(new MethodPath("other/Class7", "method7", "()V")));
+        assertFalse(set.containsMethod(new MethodPath("other/ClassX", "method7", "()V")));
+        assertTrue(set.containsMethod(new MethodPath("pkg3/Foo", "bar", "()V")));
+        assertTrue(set.containsMethod(new MethodPath("java/lang/String", "toString", "()V")));
+        assertFalse(set.containsMethod(new MethodPath("java/lang/String", "indexOf", "(I)I")));
+        assertFalse(set.containsClass("java/lang/String"));
+    }
+    
+    @Test
+    public void testExactMethods() {
+        WildcardNodeSet set = new WildcardNodeSet();
+        set.addPattern("a.B::foo");
+        set.addPattern("a.B::bar");
+        assertTrue(set.containsMethod(new MethodPath("a/B", "foo", "()V")));
+        assertTrue(set.containsMethod(new MethodPath("a/B", "bar", "(I)V")));
+        assertFalse(set.containsMethod(new MethodPath("a/B", "baz", "()V")));
+        assertFalse(set.containsMethod(new MethodPath("a/C", "foo", "()V")));
+        assertFalse(set.containsClass("a/B"));
+    }
+    
+    @Test
+    public void testWildcardsInTheMiddle() {
+        assertMatches("java.*.Hash*Map", "java/util/HashMap");
+        assertMatches("java.*.Hash*Map", "java/util/concurrent/HashTreeMap");
+        assertNoMatch("java.*.Hash*Map", "java/util/concurrent/ConcurrentHashMap");
+        assertMatches("*Map", "java/util/HashMap");
+        assertNoMatch("*Map", "java/util/HashMapper");
+        assertMatches("*a*a", "aa");
+        assertNoMatch("*a*a", "a");
+        assertMatches("*ab*ab", "abab");
+        assertNoMatch("*ab*ab", "aba");
+    }
+    
+    @Test
+    public void testOverlappingLeadingWildcards() {
+        WildcardNodeSet set = new WildcardNodeSet();
+        set.addPattern("*abc*x");
+        set.addPattern("*bc*y");
+        set.addPattern("*c");
+        set.addPattern("*abcd");
+        assertTrue(set.containsClass("abcy"));
+        assertTrue(set.containsClass("zabcx"));
+        assertTrue(set.containsClass("zbcqy"));
+        assertTrue(set.containsClass("abc"));
+        assertTrue(set.containsClass("xabcd"));
+        assertFalse(set.containsClass("abcz"));
+        assertFalse(set.containsClass("abcdz"));
+        assertFalse(set.containsClass("bcx"));
+    }
+    
     private void assertMatches(String pattern, MethodPath mp) {
         if (!new WildcardNodeSet(pattern).containsMethod(mp)) {
             fail("Expected wildcard " + pattern + " to match " + mp);
@@ -0,0 +1,132 @@
+package org.javaportability.loaders;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+public class CachingClassFileLoaderTest {
+    
+    private static final String[] NAMES = { "java/lang/Object", "java/lang/Iterable", "java/lang/Runnable" };
+    
+    private ClassFileLoader delegate;
+    private byte[] a;
+    private byte[] b;
+    private byte[] c; // Smaller than b
+    
+    @Before
+    public void setUp() throws Exception {
+        DefaultClassFileLoader realLoader = new DefaultClassFileLoader();
+        a = realLoader.loadClass(NAMES[0]).b;
+        b = realLoader.loadClass(NAMES[1]).b;
+        c = realLoader.loadClass(NAMES[2]).b;
+        delegate = mock(ClassFileLoader.class);
+        when(delegate.loadClass("A")).thenReturn(new ClassReader(a));
+        when(delegate.loadClass("B")).thenReturn(new ClassReader(b));
+        when(delegate.loadClass("C")).thenReturn(new ClassReader(c));
+        when(delegate.loadClass("Missing")).thenThrow(new ClassNotFoundException("Missing"));
+    }
+    
+    @Test
+    public void testLoadingCachedClassAgain() throws Exception {
+        CachingClassFileLoader loader = new CachingClassFileLoader(delegate, 1000000);
+        assertArrayEquals(a, loader.loadClass("A").b);
+        assertArrayEquals(a, loader.loadClass("A").b);
+        verify(delegate, times(1)).loadClass("A");
+        assertEquals(1, loader.getHitCount());
+        assertEquals(1, loader.getMissCount());
+        assertEquals(a.length, loader.getCachedBytes());
+    }
+    
+    @Test
+    public void testEvictingLeastRecentlyUsed() throws Exception {
+        CachingClassFileLoader loader = new CachingClassFileLoader(delegate, a.length + b.length);
+        loader.loadClass("A");
+        loader.loadClass("B");
+        loader.loadClass("A");
+        loader.loadClass("C");
+        assertEquals(1, loader.getEvictionCount());
+        assertEquals(2, loader.getCachedClassCount());
+        assertEquals(a.length + c.length, loader.getCachedBytes());
+        
+        loader.loadClass("A");
+        verify(delegate, times(1)).loadClass("A");
+        loader.loadClass("B");
+        verify(delegate, times(2)).loadClass("B");
+        assertTrue(loader.getCachedBytes() <= loader.getMaxBytes());
+    }
+    
+    @Test
+    public void testNotCachingClassLargerThanCache() throws Exception {
+        CachingClassFileLoader loader = new CachingClassFileLoader(delegate, a.length - 1);
+        assertArrayEquals(a, loader.loadClass("A").b);
+        assertEquals(0, loader.getCachedClassCount());
+        assertEquals(0, loader.getEvictionCount());
+    }
+    
+    @Test
+    public void testCachingOffHeap() throws Exception {
+        CachingClassFileLoader loader = new CachingClassFileLoader(delegate, 1000000, true);
+        loader.loadClass("A");
+        ClassReader first = loader.loadClass("A");
+        ClassReader second = loader.loadClass("A");
+        assertArrayEquals(a, first.b);
+        assertNotSame(first.b, second.b);
+        assertEquals(2, loader.getHitCount());
+        assertEquals("java/lang/Object", second.getClassName());
+    }
+    
+    @Test
+    public void testNotFindingClass() throws Exception {
+        CachingClassFileLoader loader = new CachingClassFileLoader(delegate, 1000000);
+        for (int i = 0; i < 2; ++i) {
+            try {
+                loader.loadClass("Missing");
+                fail();
+            } catch (ClassNotFoundException e) {
+            }
+        }
+        assertEquals(2, loader.getMissCount());
+        assertEquals(0, loader.getCachedClassCount());
+    }
+    
+    @Test
+    public void testConcurrentUse() throws Exception {
+        final CachingClassFileLoader loader = new CachingClassFileLoader(new DefaultClassFileLoader(), a.length + b.length);
+        final int loadsPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; ++t) {
+                final int seed = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws ClassNotFoundException, IOException {
+                        for (int i = 0; i < loadsPerThread; ++i) {
+                            String name = NAMES[(i + seed) % NAMES.length];
+                            assertEquals(name, loader.loadClass(name).getClassName());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4 * loadsPerThread, loader.getHitCount() + loader.getMissCount());
+        assertTrue(loader.getCachedBytes() <= loader.getMaxBytes());
+    }
+}
@@ -0,0 +1,198 @@
+package org.javaportability.loaders;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.javaportability.TestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+
+public class IndexedClassPathClassFileLoaderTest {
+    
+    private static final String TEST_DATA_DIR = TestUtils.TEST_DATA_DIR;
+    
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+    
+    @Test
+    public void testLoadingFromFile() throws ClassNotFoundException, IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(
+            TEST_DATA_DIR + "/empty_dir/",
+            TEST_DATA_DIR + "/nonexistent_dir/",
+            TEST_DATA_DIR + "/"
+        );
+        testLoadingClass(loader, "pkg_not_in_jar/ClassNotInJar");
+    }
+    
+    @Test
+    public void testLoadingFromDeflatedJar() throws ClassNotFoundException, IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(
+            TEST_DATA_DIR + "/nonexistentJar.jar",
+            TEST_DATA_DIR + "/withNoClasses.jar",
+            TEST_DATA_DIR + "/withOneClass.jar"
+        );
+        assertEquals(1, loader.getClassCount());
+        testLoadingClass(loader, "pkg_in_jar/ClassInJar");
+    }
+    
+    @Test
+    public void testLoadingFromStoredJar() throws ClassNotFoundException, IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(TEST_DATA_DIR + "/withOneClassUncompressed.jar");
+        testLoadingClass(loader, "pkg_in_jar/ClassInJar");
+    }
+    
+    @Test
+    public void testLoadingMultipleTimes() throws ClassNotFoundException, IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(
+            TEST_DATA_DIR + "/withOneClass.jar",
+            TEST_DATA_DIR + "/"
+        );
+        testLoadingClass(loader, "pkg_in_jar/ClassInJar");
+        testLoadingClass(loader, "pkg_not_in_jar/ClassNotInJar");
+        testLoadingClass(loader, "pkg_in_jar/ClassInJar");
+        testLoadingClass(loader, "pkg_not_in_jar/ClassNotInJar");
+    }
+    
+    @Test
+    public void testSameBytesAsUnindexedLoader() throws ClassNotFoundException, IOException {
+        String[] searchPath = { TEST_DATA_DIR + "/withOneClass.jar" };
+        ClassReader indexed = new IndexedClassPathClassFileLoader(searchPath).loadClass("pkg_in_jar/ClassInJar");
+        ClassReader unindexed = new ClassPathClassFileLoader(searchPath).loadClass("pkg_in_jar/ClassInJar");
+        assertArrayEquals(unindexed.b, indexed.b);
+    }
+    
+    @Test
+    public void testLoadingFromJmod() throws ClassNotFoundException, IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(TEST_DATA_DIR + "/withOneClass.jmod");
+        testLoadingClass(loader, "pkg_in_jar/ClassInJar");
+        assertArrayEquals(loadFromPlainJar(), loader.loadClass("pkg_in_jar/ClassInJar").b);
+    }
+    
+    @Test
+    public void testLoadingVersionOfMultiReleaseJar() throws ClassNotFoundException, IOException {
+        String[] searchPath = { TEST_DATA_DIR + "/multiRelease.jar" };
+        ClassReader java8 = new IndexedClassPathClassFileLoader(searchPath, 8).loadClass("pkg_in_jar/ClassInJar");
+        assertArrayEquals(loadFromPlainJar(), java8.b);
+        ClassReader java9 = new IndexedClassPathClassFileLoader(searchPath, 9).loadClass("pkg_in_jar/ClassInJar");
+        assertEquals("pkg_in_jar/ClassInJar", java9.getClassName());
+        assertTrue(new String(java9.b, "ISO-8859-1").contains("multi-release"));
+        ClassReader java11 = new IndexedClassPathClassFileLoader(searchPath, 11).loadClass("pkg_in_jar/ClassInJar");
+        assertArrayEquals(java9.b, java11.b);
+    }
+    
+    @Test
+    public void testEarlierJarWinsOverVersionOfMultiReleaseJar() throws ClassNotFoundException, IOException {
+        String[] searchPath = { TEST_DATA_DIR + "/withOneClass.jar", TEST_DATA_DIR + "/multiRelease.jar" };
+        ClassReader reader = new IndexedClassPathClassFileLoader(searchPath, 11).loadClass("pkg_in_jar/ClassInJar");
+        assertArrayEquals(loadFromPlainJar(), reader.b);
+    }
+    
+    @Test
+    public void testLoadingFromRuntimeImage() throws ClassNotFoundException, IOException {
+        assumeTrue(JrtClassFileLoader.isAvailable());
+        IndexedClassPathClassFileLoader loader = makeLoader(TEST_DATA_DIR + "/withOneClass.jar", "jrt:/");
+        testLoadingClass(loader, "java/lang/Object");
+        testLoadingClass(loader, "pkg_in_jar/ClassInJar");
+    }
+    
+    @Test
+    public void testListingClassNamesByPrefix() throws IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(TEST_DATA_DIR + "/withOneClass.jar", TEST_DATA_DIR + "/");
+        assertEquals(Arrays.asList("pkg_in_jar/ClassInJar", "pkg_not_in_jar/ClassNotInJar"), loader.getClassNames("pkg_"));
+        assertEquals(Arrays.asList("pkg_not_in_jar/ClassNotInJar"), loader.getClassNames("pkg_not_in_jar/"));
+        assertEquals(Arrays.asList("pkg_in_jar/ClassInJar"), loader.getClassNames("pkg_in_jar/ClassInJar"));
+        assertTrue(loader.getClassNames("pkg_other/").isEmpty());
+    }
+    
+    @Test
+    public void testNamingSourcesOfClasses() throws IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(TEST_DATA_DIR + "/withOneClass.jmod", TEST_DATA_DIR + "/");
+        assertEquals(IndexedClassPathClassFileLoader.SOURCE_JMOD, loader.getSource("pkg_in_jar/ClassInJar"));
+        assertEquals(IndexedClassPathClassFileLoader.SOURCE_DIRECTORY, loader.getSource("pkg_not_in_jar/ClassNotInJar"));
+        assertNull(loader.getSource("empty_pkg/ThisDoesNotExist"));
+        assertEquals(IndexedClassPathClassFileLoader.SOURCE_JAR, makeLoader(TEST_DATA_DIR + "/withOneClass.jar").getSource("pkg_in_jar/ClassInJar"));
+        if (JrtClassFileLoader.isAvailable()) {
+            assertEquals(IndexedClassPathClassFileLoader.SOURCE_RUNTIME_IMAGE, makeLoader("jrt:/").getSource("java/lang/Object"));
+        }
+    }
+    
+    @Test
+    public void testReplacingJarAfterClosing() throws ClassNotFoundException, IOException {
+        File jar = new File(tmpDir.getRoot(), "lib.jar");
+        copyFile(new File(TEST_DATA_DIR + "/withOneClass.jar"), jar);
+        IndexedClassPathClassFileLoader loader = makeLoader(jar.getPath());
+        testLoadingClass(loader, "pkg_in_jar/ClassInJar");
+        loader.close();
+        try {
+            loader.loadClass("pkg_in_jar/ClassInJar");
+            fail("Loaded a class after closing");
+        } catch (IOException e) {
+        }
+        
+        assertTrue(jar.delete());
+        copyFile(new File(TEST_DATA_DIR + "/withNoClasses.jar"), jar);
+        IndexedClassPathClassFileLoader reopened = makeLoader(jar.getPath());
+        assertEquals(0, reopened.getClassCount());
+        reopened.close();
+        assertTrue(jar.delete());
+    }
+    
+    @Test
+    public void testClosingTwice() throws IOException {
+        IndexedClassPathClassFileLoader loader = makeLoader(TEST_DATA_DIR + "/withOneClass.jar");
+        loader.close();
+        loader.close();
+    }
+    
+    @Test(expected = ClassNotFoundException.class)
+    public void testNotFindingClassInPackageOfRuntimeImage() throws ClassNotFoundException, IOException {
+        assumeTrue(JrtClassFileLoader.isAvailable());
+        makeLoader("jrt:/").loadClass("java/lang/ThisDoesNotExist");
+    }
+    
+    @Test(expected = ClassNotFoundException.class)
+    public void testNotFindingClass() throws ClassNotFoundException, IOException {
+        makeLoader(TEST_DATA_DIR + "/", TEST_DATA_DIR + "/withOneClass.jar").loadClass("empty_pkg/ThisDoesNotExist");
+    }
+    
+    private byte[] loadFromPlainJar() throws ClassNotFoundException, IOException {
+        return makeLoader(TEST_DATA_DIR + "/withOneClass.jar").loadClass("pkg_in_jar/ClassInJar").b;
+    }
+    
+    private IndexedClassPathClassFileLoader makeLoader(String... searchPath) throws IOException {
+        return new IndexedClassPathClassFileLoader(searchPath);
+    }
+    
+    private static void copyFile(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    private void testLoadingClass(ClassFileLoader loader, String name) throws ClassNotFoundException, IOException {
+        ClassReader reader = loader.loadClass(name);
+        assertEquals(name, reader.getClassName());
+    }
+}
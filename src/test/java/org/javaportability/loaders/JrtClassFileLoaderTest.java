@@ -0,0 +1,56 @@
+package org.javaportability.loaders;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+public class JrtClassFileLoaderTest {
+    
+    private JrtClassFileLoader loader;
+    
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(JrtClassFileLoader.isAvailable());
+        loader = new JrtClassFileLoader();
+    }
+    
+    @Test
+    public void testFindingModuleOfClass() {
+        assertEquals("java.base", loader.getModuleName("java/lang/Object"));
+        assertEquals("java.sql", loader.getModuleName("java/sql/Connection"));
+        assertNull(loader.getModuleName("pkg_in_jar/ClassInJar"));
+        assertNull(loader.getModuleName("NoPackage"));
+    }
+    
+    @Test
+    public void testLoadingClasses() throws ClassNotFoundException, IOException {
+        testLoadingClass("java/util/ArrayList");
+        testLoadingClass("java/sql/Connection");
+        testLoadingClass("java/util/ArrayList");
+    }
+    
+    @Test
+    public void testSameBytesAsDefaultLoader() throws ClassNotFoundException, IOException {
+        assertArrayEquals(new DefaultClassFileLoader().loadClass("java/lang/String").b, loader.loadClass("java/lang/String").b);
+    }
+    
+    @Test(expected = ClassNotFoundException.class)
+    public void testNotFindingClassInKnownPackage() throws ClassNotFoundException, IOException {
+        loader.loadClass("java/lang/ThisDoesNotExist");
+    }
+    
+    @Test(expected = ClassNotFoundException.class)
+    public void testNotFindingClassInUnknownPackage() throws ClassNotFoundException, IOException {
+        loader.loadClass("empty_pkg/ThisDoesNotExist");
+    }
+    
+    private void testLoadingClass(String name) throws ClassNotFoundException, IOException {
+        ClassReader reader = loader.loadClass(name);
+        assertEquals(name, reader.getClassName());
+    }
+}
@@ -0,0 +1,89 @@
+package org.javaportability.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MethodPathTest {
+    
+    @Test
+    public void testEqualPathsHaveEqualHashes() {
+        MethodPath a = new MethodPath("a/B", "foo", "(I)V");
+        MethodPath b = new MethodPath(new String("a/B"), new String("foo"), new String("(I)V"));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.hashCode(), a.hashCode());
+    }
+    
+    @Test
+    public void testPathsDifferingInOnePart() {
+        MethodPath path = new MethodPath("a/B", "foo", "(I)V");
+        assertFalse(path.equals(new MethodPath("a/C", "foo", "(I)V")));
+        assertFalse(path.equals(new MethodPath("a/B", "bar", "(I)V")));
+        assertFalse(path.equals(new MethodPath("a/B", "foo", "(J)V")));
+    }
+    
+    @Test
+    public void testHashDependsOnEveryPart() {
+        MethodPath path = new MethodPath("a/B", "<init>", "()V");
+        assertFalse(path.hashCode() == new MethodPath("a/C", "<init>", "()V").hashCode());
+        assertFalse(path.hashCode() == new MethodPath("a/B", "get", "()V").hashCode());
+        assertFalse(path.hashCode() == new MethodPath("a/B", "<init>", "(I)V").hashCode());
+    }
+    
+    @Test
+    public void testOrderDifferingOnlyInOwner() {
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "()V"), new MethodPath("a/C", "foo", "()V"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "()V"), new MethodPath("a/B$C", "foo", "()V"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "()V"), new MethodPath("a/BC", "foo", "()V"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "()V"), new MethodPath("a/B/C", "foo", "()V"));
+    }
+    
+    @Test
+    public void testOrderDifferingOnlyInName() {
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "()V"), new MethodPath("a/B", "goo", "()V"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "()V"), new MethodPath("a/B", "foo2", "()V"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "<init>", "()V"), new MethodPath("a/B", "foo", "()V"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "(I)V"), new MethodPath("a/B", "foo$1", "()V"));
+    }
+    
+    @Test
+    public void testOrderDifferingOnlyInDescriptor() {
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "()V"), new MethodPath("a/B", "foo", "(I)V"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "(I)V"), new MethodPath("a/B", "foo", "(I)J"));
+        assertSameOrderAsStrings(new MethodPath("a/B", "foo", "(La/B;)V"), new MethodPath("a/B", "foo", "(La/B$C;)V"));
+    }
+    
+    @Test
+    public void testSortingSameAsByString() {
+        List<MethodPath> paths = new ArrayList<MethodPath>(Arrays.asList(
+                new MethodPath("a/B$C", "foo", "()V"),
+                new MethodPath("a/B", "foo2", "()V"),
+                new MethodPath("a/B", "foo", "(I)V"),
+                new MethodPath("a/B", "foo", "()V"),
+                new MethodPath("a/BC", "bar", "()V"),
+                new MethodPath("a/B", "<init>", "()V")));
+        List<String> strings = new ArrayList<String>();
+        for (MethodPath path : paths) {
+            strings.add(path.toString());
+        }
+        Collections.sort(paths);
+        Collections.sort(strings);
+        for (int i = 0; i < paths.size(); ++i) {
+            assertEquals(strings.get(i), paths.get(i).toString());
+        }
+    }
+    
+    private void assertSameOrderAsStrings(MethodPath a, MethodPath b) {
+        int expected = Integer.signum(a.toString().compareTo(b.toString()));
+        assertTrue(expected != 0);
+        assertEquals(expected, Integer.signum(a.compareTo(b)));
+        assertEquals(-expected, Integer.signum(b.compareTo(a)));
+        assertEquals(0, a.compareTo(new MethodPath(a.getOwner(), a.getName(), a.getDesc())));
+    }
+}
@@ -0,0 +1,63 @@
+package org.javaportability.misc;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.javaportability.misc.Metrics.Counter;
+import org.javaportability.misc.Metrics.Timer;
+import org.junit.Test;
+
+public class MetricsTest {
+    
+    @Test
+    public void testSameNameGivesSameCounter() {
+        Metrics metrics = new Metrics();
+        Counter a = metrics.counter("a");
+        a.increment();
+        metrics.counter("a").add(2);
+        assertSame(a, metrics.counter("a"));
+        assertEquals(3, a.get());
+    }
+    
+    @Test
+    public void testRecordMax() {
+        Counter max = new Metrics().counter("queue.max");
+        max.recordMax(3);
+        max.recordMax(1);
+        assertEquals(3, max.get());
+        max.recordMax(5);
+        assertEquals(5, max.get());
+    }
+    
+    @Test
+    public void testSnapshotHasTimersAfterCountersInCreationOrder() {
+        Metrics metrics = new Metrics();
+        Timer t = metrics.timer("phase.time");
+        metrics.counter("b").increment();
+        metrics.counter("a");
+        t.stop(t.start());
+        
+        Map<String, Long> values = metrics.snapshot();
+        assertEquals(Arrays.asList("b", "a", "phase.time.count", "phase.time.nanos"), Arrays.asList(values.keySet().toArray()));
+        assertEquals(1L, (long)values.get("b"));
+        assertEquals(1L, (long)values.get("phase.time.count"));
+        assertTrue(values.get("phase.time.nanos") >= 0);
+    }
+    
+    @Test
+    public void testDifferenceKeepsMaximums() {
+        Metrics metrics = new Metrics();
+        metrics.counter("work").add(5);
+        metrics.counter("queue.max").recordMax(10);
+        Map<String, Long> before = metrics.snapshot();
+        metrics.counter("work").add(2);
+        metrics.counter("new").add(1);
+        
+        Map<String, Long> diff = Metrics.difference(before, metrics.snapshot());
+        assertEquals(2L, (long)diff.get("work"));
+        assertEquals(10L, (long)diff.get("queue.max"));
+        assertEquals(1L, (long)diff.get("new"));
+    }
+}
@@ -0,0 +1,66 @@
+package org.javaportability.misc;
+
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.javaportability.misc.Trace.Level;
+import org.junit.Test;
+
+public class TraceTest {
+    
+    private Object unprintable() {
+        return new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("Formatted a message that is off");
+            }
+        };
+    }
+    
+    @Test
+    public void testLevels() {
+        Trace info = new Trace(Level.INFO, null, 0);
+        assertTrue(info.isEnabled(Level.INFO));
+        assertFalse(info.isEnabled(Level.DEBUG));
+        assertFalse(Trace.OFF.isEnabled(Level.INFO));
+        assertFalse(Trace.OFF.isEnabled(Level.OFF));
+    }
+    
+    @Test
+    public void testWritesEnabledMessagesWhenFlushed() {
+        StringWriter sw = new StringWriter();
+        Trace trace = new Trace(Level.INFO, new PrintWriter(sw), 0);
+        trace.log(Level.INFO, "Class {}", "pkg/A");
+        trace.log(Level.INFO, "{} calls {} {} times", "a", "b", 3);
+        trace.log(Level.DEBUG, "Hidden {}", unprintable());
+        Trace.OFF.log(Level.INFO, "Hidden {}", unprintable());
+        trace.flush();
+        assertEquals("Class pkg/A\na calls b 3 times\n", sw.toString());
+    }
+    
+    @Test
+    public void testDumpsLatestMessagesOldestFirst() {
+        Trace trace = new Trace(Level.DEBUG, null, 2);
+        StringWriter sw = new StringWriter();
+        trace.dump(new PrintWriter(sw));
+        assertEquals("Last 0 of 0 trace messages:\n", sw.toString());
+        
+        for (int i = 1; i <= 3; ++i) {
+            trace.log(Level.DEBUG, "Message {}", i);
+        }
+        sw = new StringWriter();
+        trace.dump(new PrintWriter(sw));
+        assertEquals("Last 2 of 3 trace messages:\nMessage 2\nMessage 3\n", sw.toString());
+    }
+    
+    @Test
+    public void testNoDumpWithoutRingBuffer() {
+        Trace trace = new Trace(Level.DEBUG, new PrintWriter(new StringWriter()), 0);
+        trace.log(Level.DEBUG, "Message {}", 1);
+        StringWriter sw = new StringWriter();
+        trace.dump(new PrintWriter(sw));
+        assertEquals("", sw.toString());
+    }
+}